@@ -0,0 +1,164 @@
+package com.karandev.learn_spring_ai.benchmark;
+
+import ch.qos.logback.classic.Logger;
+import com.karandev.learn_spring_ai.advisors.ParallelRetrievalAdvisor;
+import com.karandev.learn_spring_ai.advisors.SemanticCacheAdvisor;
+import com.karandev.learn_spring_ai.advisors.TokenUsageAdvisor;
+import com.karandev.learn_spring_ai.cache.SemanticCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
+import org.springframework.ai.chat.client.advisor.SafeGuardAdvisor;
+import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
+import org.springframework.ai.chat.client.advisor.vectorstore.VectorStoreChatMemoryAdvisor;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Cost of each advisor on its own (compare with baseline) and of the full askAIWithAdvisors stacks.
+    The model, the embeddings and the vector store are stand-ins, so the numbers are our overhead only.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AdvisorChainBenchmark {
+
+    private static final String SYSTEM = "You are an AI assistant Cody, answer in a friendly and conversational tone.";
+    private static final String QUESTION = "How do advisors work with chat memory?";
+    private static final String CONVERSATION_ID = "user-1";
+
+    private ChatClient chatClient;
+    private EmbeddingModel embeddingModel;
+    private VectorStore vectorStore;
+    private ChatMemory chatMemory;
+    private SemanticCache semanticCache;
+    private ExecutorService executor;
+    private MeterRegistry meterRegistry;
+
+    @Setup(Level.Trial)
+    public void setUpTrial() {
+        ((Logger) LoggerFactory.getLogger("com.karandev")).setLevel(ch.qos.logback.classic.Level.WARN);
+        chatClient = ChatClient.create(StandIns.chatModel("Advisors wrap the call to the model."));
+        embeddingModel = StandIns.embeddingModel();
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    // memory advisors write on every call, start every iteration from the same state.
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        vectorStore = StandIns.vectorStore(embeddingModel);
+        chatMemory = MessageWindowChatMemory.builder()
+                .chatMemoryRepository(new InMemoryChatMemoryRepository())
+                .maxMessages(10)
+                .build();
+        semanticCache = new SemanticCache(embeddingModel, true, 0.95, Duration.ofMinutes(30), 1000);
+        chatClient.prompt().user(QUESTION).advisors(new SemanticCacheAdvisor(semanticCache)).call().content();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Benchmark
+    public String baseline() {
+        return prompt().call().content();
+    }
+
+    @Benchmark
+    public String safeGuardAdvisor() {
+        return prompt().advisors(new SafeGuardAdvisor(List.of("Politics", "Gaming"))).call().content();
+    }
+
+    @Benchmark
+    public String tokenUsageAdvisor() {
+        return prompt().advisors(new TokenUsageAdvisor("benchmark", meterRegistry)).call().content();
+    }
+
+    @Benchmark
+    public String messageChatMemoryAdvisor() {
+        return prompt().advisors(MessageChatMemoryAdvisor.builder(chatMemory).conversationId(CONVERSATION_ID).build())
+                .call().content();
+    }
+
+    @Benchmark
+    public String vectorStoreChatMemoryAdvisor() {
+        return prompt().advisors(VectorStoreChatMemoryAdvisor.builder(vectorStore)
+                        .conversationId(CONVERSATION_ID)
+                        .defaultTopK(4)
+                        .build())
+                .call().content();
+    }
+
+    @Benchmark
+    public String questionAnswerAdvisor() {
+        return prompt().advisors(QuestionAnswerAdvisor.builder(vectorStore)
+                        .searchRequest(SearchRequest.builder().filterExpression("file_name == 'lec8.pdf'").topK(4).build())
+                        .build())
+                .call().content();
+    }
+
+    @Benchmark
+    public String semanticCacheHit() {
+        return prompt().advisors(new SemanticCacheAdvisor(semanticCache)).call().content();
+    }
+
+    // the stack askAIWithAdvisors used before the retrieval was parallelised.
+    @Benchmark
+    public String sequentialRetrievalChain() {
+        return prompt().advisors(
+                        new SafeGuardAdvisor(List.of("Politics", "Gaming")),
+                        MessageChatMemoryAdvisor.builder(chatMemory).conversationId(CONVERSATION_ID).build(),
+                        VectorStoreChatMemoryAdvisor.builder(vectorStore).conversationId(CONVERSATION_ID).defaultTopK(4).build(),
+                        QuestionAnswerAdvisor.builder(vectorStore)
+                                .searchRequest(SearchRequest.builder().filterExpression("file_name == 'lec8.pdf'").topK(4).build())
+                                .build(),
+                        new TokenUsageAdvisor("benchmark", meterRegistry))
+                .call().content();
+    }
+
+    @Benchmark
+    public String parallelRetrievalChain() {
+        return prompt().advisors(
+                        new SafeGuardAdvisor(List.of("Politics", "Gaming")),
+                        ParallelRetrievalAdvisor.builder(chatMemory, vectorStore, embeddingModel)
+                                .executor(executor)
+                                .conversationId(CONVERSATION_ID)
+                                .knowledgeSearchRequest(SearchRequest.builder().filterExpression("file_name == 'lec8.pdf'").topK(4).build())
+                                .build(),
+                        new TokenUsageAdvisor("benchmark", meterRegistry))
+                .call().content();
+    }
+
+    private ChatClient.ChatClientRequestSpec prompt() {
+        return chatClient.prompt().system(SYSTEM).user(QUESTION);
+    }
+}
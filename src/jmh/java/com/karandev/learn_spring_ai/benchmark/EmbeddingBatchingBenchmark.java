@@ -0,0 +1,95 @@
+package com.karandev.learn_spring_ai.benchmark;
+
+import com.karandev.learn_spring_ai.embedding.MicroBatchingEmbeddingModel;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+    64 threads embedding one query each, against a stand-in model that costs like an http call:
+    20 ms per request + 0.1 ms per text. window 0 is the unbatched baseline (one call per query),
+    the other windows show what the added wait buys in throughput (ops/ms) and costs in latency (ms/op).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(64)
+@State(Scope.Benchmark)
+public class EmbeddingBatchingBenchmark {
+
+    @Param({"0", "1", "5", "10"})
+    public int windowMillis;
+
+    @Param({"64"})
+    public int maxBatchSize;
+
+    private SlowEmbeddingModel model;
+    private EmbeddingModel embeddingModel;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        model = new SlowEmbeddingModel(StandIns.embeddingModel());
+        embeddingModel = new MicroBatchingEmbeddingModel(model, Duration.ofMillis(windowMillis), maxBatchSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.printf("%nwindow %d ms: %d model calls for %d texts (%.1f texts per call)%n", windowMillis,
+                model.calls.sum(), model.texts.sum(), (double) model.texts.sum() / Math.max(1, model.calls.sum()));
+    }
+
+    @Benchmark
+    public float[] embedQuery() {
+        return embeddingModel.embed("query " + ThreadLocalRandom.current().nextInt(1_000_000));
+    }
+
+    static class SlowEmbeddingModel implements EmbeddingModel {
+
+        private final EmbeddingModel delegate;
+        final LongAdder calls = new LongAdder();
+        final LongAdder texts = new LongAdder();
+
+        SlowEmbeddingModel(EmbeddingModel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            calls.increment();
+            texts.add(request.getInstructions().size());
+            try {
+                Thread.sleep(Duration.ofMillis(20).plusNanos(request.getInstructions().size() * 100_000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return delegate.call(request);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return delegate.embed(document);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.karandev.learn_spring_ai.benchmark;
+
+import com.karandev.learn_spring_ai.vectorstore.HnswIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Latency of the in-process HNSW index against an exact scan of the same vectors, and its recall@10
+    (printed once per trial, exact search is the ground truth). The data is clustered like real embeddings:
+    documents of one topic sit close together.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HnswBenchmark {
+
+    private static final int K = 10;
+    private static final int QUERIES = 200;
+
+    @Param({"20000"})
+    public int size;
+
+    @Param({"384"})
+    public int dimensions;
+
+    @Param({"16", "64", "128"})
+    public int efSearch;
+
+    private HnswIndex index;
+    private float[][] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(7);
+        float[][] centers = new float[100][];
+        for (int i = 0; i < centers.length; i++) {
+            centers[i] = gaussian(random, 1.0);
+        }
+
+        index = new HnswIndex(dimensions, 16, 200);
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            index.add(near(random, centers[random.nextInt(centers.length)]));
+        }
+        long buildMillis = (System.nanoTime() - start) / 1_000_000;
+
+        queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = near(random, centers[random.nextInt(centers.length)]);
+        }
+
+        double recall = 0;
+        for (float[] query : queries) {
+            Set<Integer> truth = new HashSet<>();
+            index.exactSearch(query, K, null).forEach(hit -> truth.add(hit.node()));
+            recall += index.search(query, K, efSearch, null).stream().filter(hit -> truth.contains(hit.node())).count() / (double) K;
+        }
+        System.out.printf("%n%d vectors built in %d ms, efSearch %d: recall@%d = %.3f%n",
+                size, buildMillis, efSearch, K, recall / QUERIES);
+    }
+
+    @Benchmark
+    public List<HnswIndex.Scored> hnsw() {
+        return index.search(queries[next++ % QUERIES], K, efSearch, null);
+    }
+
+    @Benchmark
+    public List<HnswIndex.Scored> exact() {
+        return index.exactSearch(queries[next++ % QUERIES], K, null);
+    }
+
+    // a filter that lets every 10th document through, like file_name == 'lec8' on a mixed store.
+    @Benchmark
+    public List<HnswIndex.Scored> hnswFiltered() {
+        return index.search(queries[next++ % QUERIES], K, efSearch, node -> node % 10 == 0);
+    }
+
+    private float[] gaussian(SplittableRandom random, double scale) {
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) (random.nextGaussian() * scale);
+        }
+        return vector;
+    }
+
+    private float[] near(SplittableRandom random, float[] center) {
+        float[] noise = gaussian(random, 0.5);
+        for (int i = 0; i < dimensions; i++) {
+            noise[i] += center[i];
+        }
+        return noise;
+    }
+}
@@ -0,0 +1,107 @@
+package com.karandev.learn_spring_ai.benchmark;
+
+import ch.qos.logback.classic.Logger;
+import com.karandev.learn_spring_ai.cache.SemanticCache;
+import com.karandev.learn_spring_ai.prompts.PromptRegistry;
+import com.karandev.learn_spring_ai.retrieval.Bm25Index;
+import com.karandev.learn_spring_ai.retrieval.ContextPacker;
+import com.karandev.learn_spring_ai.retrieval.HybridVectorStore;
+import com.karandev.learn_spring_ai.retrieval.Reranker;
+import com.karandev.learn_spring_ai.service.AIService;
+import com.karandev.learn_spring_ai.service.RAGService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.memory.InMemoryChatMemoryRepository;
+import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The public service methods end to end, with stand-ins instead of OpenAI and pgvector.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServiceBenchmark {
+
+    private static final String JOKE = """
+            {"text": "A dog walked into a bar", "category": "Dogs", "laughScore": "7", "isNSFW": false}
+            """;
+
+    private AIService aiService;
+    private RAGService ragService;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        ((Logger) LoggerFactory.getLogger("com.karandev")).setLevel(ch.qos.logback.classic.Level.WARN);
+        EmbeddingModel embeddingModel = StandIns.embeddingModel();
+        VectorStore vectorStore = StandIns.vectorStore(embeddingModel);
+        ChatClient chatClient = ChatClient.create(StandIns.chatModel(JOKE));
+
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor();
+        executor.setVirtualThreads(true);
+
+        // the semantic cache is switched off, otherwise we would only measure cache hits.
+        SemanticCache semanticCache = new SemanticCache(embeddingModel, false, 0.95, Duration.ofMinutes(30), 1000);
+
+        // the lexical index is filled from the stand-in store's chunks, no table to load it from.
+        Bm25Index lexicalIndex = new Bm25Index();
+        lexicalIndex.add(vectorStore.similaritySearch(SearchRequest.builder().query("lec8").topK(1000).build()));
+        HybridVectorStore knowledgeBase = new HybridVectorStore(vectorStore, lexicalIndex, null, null, executor,
+                60, 20, new SimpleMeterRegistry());
+
+        PromptRegistry promptRegistry = new PromptRegistry(new DefaultResourceLoader(), "classpath:prompts/*.st");
+
+        // no VectorLookup behind the stand-in store, the second stage scores on term overlap only.
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        Reranker reranker = new Reranker(embeddingModel::embed, id -> null, 50, 0.3, Duration.ofMillis(25),
+                meterRegistry);
+
+        aiService = new AIService(chatClient, embeddingModel, vectorStore, promptRegistry, reranker, meterRegistry);
+        ragService = new RAGService(chatClient, vectorStore,
+                MessageWindowChatMemory.builder().chatMemoryRepository(new InMemoryChatMemoryRepository()).build(),
+                embeddingModel, executor, semanticCache, null, null, knowledgeBase,
+                new ContextPacker(id -> null, 2000, 0.6, 0.95), promptRegistry, reranker, meterRegistry);
+    }
+
+    @Benchmark
+    public List<Document> similaritySearch() {
+        return aiService.similaritySearch("A team of people travel through a black hole.");
+    }
+
+    @Benchmark
+    public String getJoke() {
+        return aiService.getJoke("Dogs");
+    }
+
+    @Benchmark
+    public String askAI() {
+        return ragService.askAI("What is a chat memory advisor?");
+    }
+
+    @Benchmark
+    public String askAIWithAdvisors() {
+        return ragService.askAIWithAdvisors("What is a chat memory advisor?", "user-1");
+    }
+}
@@ -0,0 +1,116 @@
+package com.karandev.learn_spring_ai.benchmark;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.metadata.ChatResponseMetadata;
+import org.springframework.ai.chat.metadata.DefaultUsage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.VectorStore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/*
+    Deterministic, in-process replacements for OpenAI and pgvector.
+    They answer instantly and always the same way, so what the benchmarks measure is our own code around them.
+ */
+public final class StandIns {
+
+    public static final int DIMENSIONS = 384;
+
+    private StandIns() {
+    }
+
+    public static ChatModel chatModel(String answer) {
+        return new FixedChatModel(answer);
+    }
+
+    public static EmbeddingModel embeddingModel() {
+        return new HashEmbeddingModel();
+    }
+
+    // the lec8 knowledge base and some chat history, already embedded with the stand-in embedding model.
+    public static VectorStore vectorStore(EmbeddingModel embeddingModel) {
+        VectorStore vectorStore = SimpleVectorStore.builder(embeddingModel).build();
+        List<Document> documents = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            documents.add(new Document("lec8 chunk " + i + " about advisors, chat memory and vector stores in Spring AI.",
+                    Map.of("file_name", "lec8.pdf", "page_number", i / 5)));
+        }
+        for (int i = 0; i < 200; i++) {
+            documents.add(new Document("Earlier message " + i + " of the conversation.",
+                    Map.of("conversationId", "user-" + (i % 10), "messageType", "USER")));
+        }
+        vectorStore.add(documents);
+        return vectorStore;
+    }
+
+    static class FixedChatModel implements ChatModel {
+
+        private final String answer;
+
+        FixedChatModel(String answer) {
+            this.answer = answer;
+        }
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            return ChatResponse.builder()
+                    .generations(List.of(new Generation(new AssistantMessage(answer))))
+                    .metadata(ChatResponseMetadata.builder()
+                            .model("stand-in")
+                            .usage(new DefaultUsage(prompt.getContents().length() / 4, answer.length() / 4))
+                            .build())
+                    .build();
+        }
+    }
+
+    // same text -> same unit vector, similar enough for the vector store to have something to rank.
+    static class HashEmbeddingModel implements EmbeddingModel {
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            List<String> texts = request.getInstructions();
+            for (int i = 0; i < texts.size(); i++) {
+                embeddings.add(new Embedding(vector(texts.get(i)), i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return vector(document.getText());
+        }
+
+        @Override
+        public int dimensions() {
+            return DIMENSIONS;
+        }
+
+        private static float[] vector(String text) {
+            SplittableRandom random = new SplittableRandom(text.hashCode());
+            float[] vector = new float[DIMENSIONS];
+            double norm = 0;
+            for (int i = 0; i < DIMENSIONS; i++) {
+                vector[i] = (float) random.nextGaussian();
+                norm += vector[i] * vector[i];
+            }
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < DIMENSIONS; i++) {
+                vector[i] *= scale;
+            }
+            return vector;
+        }
+    }
+}
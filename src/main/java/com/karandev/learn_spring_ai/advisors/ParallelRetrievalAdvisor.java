@@ -0,0 +1,355 @@
+package com.karandev.learn_spring_ai.advisors;
+
+import com.karandev.learn_spring_ai.retrieval.ContextPacker;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/*
+    Does the job of MessageChatMemoryAdvisor + VectorStoreChatMemoryAdvisor + QuestionAnswerAdvisor in one step.
+    Those three run one after the other and embed the prompt twice, here the prompt is embedded once, next to the
+    jdbc lookup (the caching embedding model then serves both vector searches), and the lookups run at the same time:
+
+        short term memory   -> chatMemory.get(conversationId)            (jdbc)
+        query embedding     -> embeddingModel.embed(query)               (OpenAI, through the cache)
+        long term memory    -> after the embedding, vector search filtered on conversationId  (pgvector)
+        knowledge base      -> after the embedding, vector search with the given search request (pgvector)
+
+    Every leg has its own timeout, a leg that is too slow or fails just contributes nothing, so the time spent before
+    the model call is the slowest leg (capped by its timeout) instead of the sum of all of them. The timeouts of the
+    vector legs include the embedding, which has a timeout of its own: without a query vector both contribute nothing.
+ */
+@Slf4j
+public class ParallelRetrievalAdvisor implements CallAdvisor {
+
+    public static final String CONVERSATION_ID_METADATA = "conversationId";
+    public static final String MESSAGE_TYPE_METADATA = "messageType";
+    public static final String TIMESTAMP_METADATA = "timestamp"; // epoch millis, ConversationCompactor orders turns by it
+
+    private final ChatMemory chatMemory;
+    private final VectorStore vectorStore;
+    private final VectorStore knowledgeBase;
+    private final EmbeddingModel embeddingModel;
+    private final Executor executor;
+    private final String defaultConversationId;
+    private final int longTermTopK;
+    private final SearchRequest knowledgeSearchRequest;
+    private final Duration shortTermTimeout;
+    private final Duration longTermTimeout;
+    private final Duration knowledgeTimeout;
+    private final Duration embeddingTimeout;
+    private final ContextPacker contextPacker; // null = no token budget
+
+    private ParallelRetrievalAdvisor(Builder builder) {
+        this.chatMemory = builder.chatMemory;
+        this.vectorStore = builder.vectorStore;
+        this.knowledgeBase = builder.knowledgeBase != null ? builder.knowledgeBase : builder.vectorStore;
+        this.embeddingModel = builder.embeddingModel;
+        this.executor = builder.executor;
+        this.defaultConversationId = builder.conversationId;
+        this.longTermTopK = builder.longTermTopK;
+        this.knowledgeSearchRequest = builder.knowledgeSearchRequest;
+        this.shortTermTimeout = builder.shortTermTimeout;
+        this.longTermTimeout = builder.longTermTimeout;
+        this.knowledgeTimeout = builder.knowledgeTimeout;
+        this.embeddingTimeout = builder.embeddingTimeout;
+        this.contextPacker = builder.contextPacker;
+    }
+
+    public static Builder builder(ChatMemory chatMemory, VectorStore vectorStore, EmbeddingModel embeddingModel) {
+        return new Builder(chatMemory, vectorStore, embeddingModel);
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        Prompt prompt = chatClientRequest.prompt();
+        UserMessage userMessage = prompt.getUserMessage();
+        String conversationId = conversationId(chatClientRequest.context());
+        String query = userMessage.getText();
+        if (query == null || query.isBlank()) {
+            return callAdvisorChain.nextCall(chatClientRequest);
+        }
+
+        var shortTerm = leg("short term memory", shortTermTimeout, List.<Message>of(),
+                () -> chatMemory.get(conversationId));
+
+        // both vector searches need the query vector. A VectorStore only takes the text, so it is computed once
+        // up front (next to the jdbc leg) and the searches get it from the caching embedding model instead of both
+        // sending the same text to OpenAI. null when it did not make it in time.
+        CompletableFuture<float[]> queryVector = CompletableFuture.supplyAsync(() -> embeddingModel.embed(query), executor)
+                .completeOnTimeout(null, embeddingTimeout.toMillis(), TimeUnit.MILLISECONDS);
+
+        var longTerm = vectorLeg("long term memory", longTermTimeout, queryVector,
+                () -> vectorStore.similaritySearch(SearchRequest.builder()
+                        .query(query)
+                        .topK(longTermTopK)
+                        .filterExpression(new FilterExpressionBuilder().eq(CONVERSATION_ID_METADATA, conversationId).build())
+                        .build()));
+        var knowledge = vectorLeg("knowledge base", knowledgeTimeout, queryVector,
+                () -> knowledgeBase.similaritySearch(SearchRequest.from(knowledgeSearchRequest)
+                        .query(query)
+                        .build()));
+
+        CompletableFuture.allOf(shortTerm, longTerm, knowledge).join();
+
+        List<Message> history = shortTerm.join();
+        List<Document> longTermMemory = longTerm.join();
+        List<Document> knowledgeDocuments = knowledge.join();
+        int tokensSaved = 0;
+        if (contextPacker != null) {
+            ContextPacker.Context context = contextPacker.pack(history, longTermMemory, knowledgeDocuments);
+            history = context.history();
+            longTermMemory = context.longTermMemory();
+            knowledgeDocuments = context.knowledge();
+            tokensSaved = context.tokensSaved();
+        }
+
+        ChatClientRequest advisedRequest = chatClientRequest.mutate()
+                .prompt(augment(prompt, history, longTermMemory, knowledgeDocuments))
+                .context(TokenUsageAdvisor.PROMPT_TOKENS_SAVED, tokensSaved)
+                .build();
+
+        ChatClientResponse advisedResponse = callAdvisorChain.nextCall(advisedRequest);
+
+        remember(conversationId, userMessage, advisedResponse);
+        return advisedResponse;
+    }
+
+    private Prompt augment(Prompt prompt, List<Message> history, List<Document> longTermMemory, List<Document> knowledge) {
+        List<Message> messages = new ArrayList<>();
+
+        // system message first, then the short term history, then the rest of the current request.
+        // Everything retrieved goes into the last user message, so the system prompt stays a prefix the provider can cache.
+        String system = prompt.getInstructions().stream()
+                .filter(message -> message.getMessageType() == MessageType.SYSTEM)
+                .map(Message::getText)
+                .collect(Collectors.joining("\n"));
+        String memory = longTermMemory.isEmpty() ? "" : """
+
+                Use the long term conversation memory from the LONG_TERM_MEMORY section to provide accurate answers.
+
+                ---------------------
+                LONG_TERM_MEMORY:
+                %s
+                ---------------------
+                """.formatted(joinTexts(longTermMemory));
+        if (!system.isBlank()) {
+            messages.add(new SystemMessage(system));
+        }
+        messages.addAll(history);
+
+        List<Message> instructions = prompt.getInstructions();
+        int lastUserMessage = -1;
+        for (int i = 0; i < instructions.size(); i++) {
+            if (instructions.get(i).getMessageType() == MessageType.USER) {
+                lastUserMessage = i;
+            }
+        }
+        for (int i = 0; i < instructions.size(); i++) {
+            Message message = instructions.get(i);
+            if (message.getMessageType() == MessageType.SYSTEM) {
+                continue;
+            }
+            if (i == lastUserMessage) {
+                messages.add(UserMessage.builder()
+                        .text("""
+                                %s
+                                %s
+                                Context information is below, surrounded by ---------------------
+
+                                ---------------------
+                                %s
+                                ---------------------
+
+                                Given the context and provided history information and not prior knowledge,
+                                reply to the user comment. If the answer is not in the context, inform
+                                the user that you can't answer the question.
+                                """.formatted(message.getText(), memory, joinTexts(knowledge)))
+                        .metadata(message.getMetadata()) // keeps the routing hint
+                        .build());
+            } else {
+                messages.add(message);
+            }
+        }
+        return new Prompt(messages, prompt.getOptions());
+    }
+
+    private void remember(String conversationId, UserMessage userMessage, ChatClientResponse response) {
+        if (response.chatResponse() == null || response.chatResponse().getResult() == null) {
+            return;
+        }
+        AssistantMessage assistantMessage = response.chatResponse().getResult().getOutput();
+
+        // short term memory in one write instead of one before and one after the call.
+        chatMemory.add(conversationId, List.of(userMessage, assistantMessage));
+
+        // long term memory needs an embedding call, nobody is waiting for it so it happens in the background.
+        List<Document> turn = List.of(toDocument(conversationId, userMessage), toDocument(conversationId, assistantMessage));
+        CompletableFuture.runAsync(() -> vectorStore.add(turn), executor)
+                .exceptionally(e -> {
+                    log.warn("Could not store long term memory for conversation {}", conversationId, e);
+                    return null;
+                });
+    }
+
+    private <T> CompletableFuture<List<T>> leg(String name, Duration timeout, List<T> fallback, Supplier<List<T>> lookup) {
+        return timed(name, timeout, fallback, CompletableFuture.supplyAsync(lookup, executor));
+    }
+
+    // starts once the query vector is there, a failed or timed out embedding leaves nothing to search with.
+    private CompletableFuture<List<Document>> vectorLeg(String name, Duration timeout, CompletableFuture<float[]> queryVector,
+                                                        Supplier<List<Document>> search) {
+        return timed(name, timeout, List.of(), queryVector.thenApplyAsync(vector -> {
+            if (vector == null) {
+                log.warn("Query embedding timed out after {}, retrieval leg '{}' continues without it", embeddingTimeout, name);
+                return List.of();
+            }
+            return search.get();
+        }, executor));
+    }
+
+    private <T> CompletableFuture<List<T>> timed(String name, Duration timeout, List<T> fallback, CompletableFuture<List<T>> lookup) {
+        long startTime = System.nanoTime();
+        return lookup
+                .completeOnTimeout(fallback, timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .exceptionally(e -> {
+                    log.warn("Retrieval leg '{}' failed, continuing without it", name, e);
+                    return fallback;
+                })
+                .whenComplete((result, e) -> log.debug("Retrieval leg '{}' finished in {} ms with {} results",
+                        name, (System.nanoTime() - startTime) / 1_000_000, result.size()));
+    }
+
+    private String conversationId(Map<String, Object> context) {
+        Object conversationId = context.get(ChatMemory.CONVERSATION_ID);
+        return conversationId != null ? conversationId.toString() : defaultConversationId;
+    }
+
+    private static Document toDocument(String conversationId, Message message) {
+        return new Document(message.getText(), Map.of(
+                CONVERSATION_ID_METADATA, conversationId,
+                MESSAGE_TYPE_METADATA, message.getMessageType().name(),
+                TIMESTAMP_METADATA, System.currentTimeMillis()));
+    }
+
+    private static String joinTexts(List<Document> documents) {
+        return documents.stream().map(Document::getText).collect(Collectors.joining(System.lineSeparator()));
+    }
+
+    @Override
+    public String getName() {
+        return "ParallelRetrievalAdvisor";
+    }
+
+    @Override
+    public int getOrder() {
+        // after the SemanticCacheAdvisor, a cache hit should not pay for the retrieval.
+        return Advisor.DEFAULT_CHAT_MEMORY_PRECEDENCE_ORDER + 20;
+    }
+
+    public static class Builder {
+
+        private final ChatMemory chatMemory;
+        private final VectorStore vectorStore;
+        private final EmbeddingModel embeddingModel;
+        private VectorStore knowledgeBase;
+        private Executor executor = ForkJoinPool.commonPool();
+        private String conversationId = ChatMemory.DEFAULT_CONVERSATION_ID;
+        private int longTermTopK = 4;
+        private SearchRequest knowledgeSearchRequest = SearchRequest.builder().build();
+        private Duration shortTermTimeout = Duration.ofMillis(500);
+        private Duration longTermTimeout = Duration.ofSeconds(1);
+        private Duration knowledgeTimeout = Duration.ofSeconds(2);
+        private Duration embeddingTimeout = Duration.ofMillis(800);
+        private ContextPacker contextPacker;
+
+        private Builder(ChatMemory chatMemory, VectorStore vectorStore, EmbeddingModel embeddingModel) {
+            this.chatMemory = chatMemory;
+            this.vectorStore = vectorStore;
+            this.embeddingModel = embeddingModel;
+        }
+
+        // a different store for the knowledge base search, e.g. a HybridVectorStore. Defaults to the memory store.
+        public Builder knowledgeBase(VectorStore knowledgeBase) {
+            this.knowledgeBase = knowledgeBase;
+            return this;
+        }
+
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public Builder conversationId(String conversationId) {
+            this.conversationId = conversationId;
+            return this;
+        }
+
+        public Builder longTermTopK(int longTermTopK) {
+            this.longTermTopK = longTermTopK;
+            return this;
+        }
+
+        public Builder knowledgeSearchRequest(SearchRequest knowledgeSearchRequest) {
+            this.knowledgeSearchRequest = knowledgeSearchRequest;
+            return this;
+        }
+
+        public Builder shortTermTimeout(Duration shortTermTimeout) {
+            this.shortTermTimeout = shortTermTimeout;
+            return this;
+        }
+
+        public Builder longTermTimeout(Duration longTermTimeout) {
+            this.longTermTimeout = longTermTimeout;
+            return this;
+        }
+
+        public Builder knowledgeTimeout(Duration knowledgeTimeout) {
+            this.knowledgeTimeout = knowledgeTimeout;
+            return this;
+        }
+
+        // the query embedding, within the timeouts of the two vector legs.
+        public Builder embeddingTimeout(Duration embeddingTimeout) {
+            this.embeddingTimeout = embeddingTimeout;
+            return this;
+        }
+
+        // packs history, long term memory and knowledge into a token budget before they go into the prompt.
+        public Builder contextPacker(ContextPacker contextPacker) {
+            this.contextPacker = contextPacker;
+            return this;
+        }
+
+        public ParallelRetrievalAdvisor build() {
+            return new ParallelRetrievalAdvisor(this);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.karandev.learn_spring_ai.advisors;
+
+import com.karandev.learn_spring_ai.cache.SemanticCache;
+import lombok.RequiredArgsConstructor;
+import org.springframework.ai.chat.client.ChatClientRequest;
+import org.springframework.ai.chat.client.ChatClientResponse;
+import org.springframework.ai.chat.client.advisor.api.Advisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
+import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+    Returns a previously stored answer when the user message is semantically close to one we have already answered.
+    It runs right after the memory advisors (so the turn still gets written to chat memory) but before the
+    QuestionAnswerAdvisor and the model, so a hit skips the knowledge base search and the completion.
+    When it runs in front of the ParallelRetrievalAdvisor instead, pass the chat memory so a hit still lands in the
+    short term memory of the conversation.
+ */
+@RequiredArgsConstructor
+public class SemanticCacheAdvisor implements CallAdvisor {
+
+    public static final String BYPASS = "semantic_cache_bypass";
+    public static final String SCOPE = "semantic_cache_scope";
+
+    private final SemanticCache semanticCache;
+    private final ChatMemory chatMemory;
+
+    public SemanticCacheAdvisor(SemanticCache semanticCache) {
+        this(semanticCache, null);
+    }
+
+    @Override
+    public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
+        UserMessage userMessage = chatClientRequest.prompt().getUserMessage();
+        if (Boolean.TRUE.equals(chatClientRequest.context().get(BYPASS))
+                || userMessage == null || userMessage.getText() == null || userMessage.getText().isBlank()) {
+            return callAdvisorChain.nextCall(chatClientRequest);
+        }
+
+        var lookup = semanticCache.lookup(scope(chatClientRequest.context()), userMessage.getText());
+        if (lookup.isHit()) {
+            AssistantMessage answer = new AssistantMessage(lookup.answer());
+            Object conversationId = chatClientRequest.context().get(ChatMemory.CONVERSATION_ID);
+            if (chatMemory != null && conversationId != null) {
+                chatMemory.add(conversationId.toString(), List.of(userMessage, answer));
+            }
+            ChatResponse cachedResponse = ChatResponse.builder()
+                    .generations(List.of(new Generation(answer)))
+                    .build();
+            return ChatClientResponse.builder()
+                    .chatResponse(cachedResponse)
+                    .context(chatClientRequest.context())
+                    .build();
+        }
+
+        long startTime = System.nanoTime();
+        ChatClientResponse advisedResponse = callAdvisorChain.nextCall(chatClientRequest);
+        semanticCache.put(lookup, advisedResponse.chatResponse(), System.nanoTime() - startTime);
+        return advisedResponse;
+    }
+
+    // answers that went through chat memory are personal, so by default they are only shared within the conversation.
+    private String scope(Map<String, Object> context) {
+        Object scope = context.getOrDefault(SCOPE, context.get(ChatMemory.CONVERSATION_ID));
+        return scope != null ? scope.toString() : "default";
+    }
+
+    @Override
+    public String getName() {
+        return "SemanticCacheAdvisor";
+    }
+
+    @Override
+    public int getOrder() {
+        return Advisor.DEFAULT_CHAT_MEMORY_PRECEDENCE_ORDER + 10;
+    }
+}
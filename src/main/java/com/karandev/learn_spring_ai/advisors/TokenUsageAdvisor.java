@@ -1,36 +1,145 @@
 package com.karandev.learn_spring_ai.advisors;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClientMessageAggregator;
 import org.springframework.ai.chat.client.ChatClientRequest;
 import org.springframework.ai.chat.client.ChatClientResponse;
 import org.springframework.ai.chat.client.advisor.api.CallAdvisor;
 import org.springframework.ai.chat.client.advisor.api.CallAdvisorChain;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisor;
+import org.springframework.ai.chat.client.advisor.api.StreamAdvisorChain;
+import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import reactor.core.publisher.Flux;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Records latency and token usage of every chat call as micrometer metrics (exposed on /actuator/prometheus):
+
+        ai.chat.duration         timer, whole call including tool round trips
+        ai.chat.first.token      timer, time to first token (stream only)
+        ai.chat.tokens           counter, tagged type=prompt|completion|prompt-saved|prompt-cached
+
+    all tagged with endpoint, model, conversation (memory|stateless), tools (true|false), mode (call|stream) and outcome.
+    prompt-saved is what the ContextPacker left out of the prompt, put in the request context under PROMPT_TOKENS_SAVED.
+    prompt-cached is the part of the prompt OpenAI served from its prefix cache (billed at a discount, faster first token).
+ */
 @Slf4j
-public class TokenUsageAdvisor implements CallAdvisor {
+public class TokenUsageAdvisor implements CallAdvisor, StreamAdvisor {
+
+    public static final String PROMPT_TOKENS_SAVED = "prompt_tokens_saved";
+
+    private final String endpoint;
+    private final MeterRegistry meterRegistry;
+
+    public TokenUsageAdvisor(String endpoint, MeterRegistry meterRegistry) {
+        this.endpoint = endpoint;
+        this.meterRegistry = meterRegistry;
+    }
+
     @Override
     public ChatClientResponse adviseCall(ChatClientRequest chatClientRequest, CallAdvisorChain callAdvisorChain) {
-        long startTime = System.currentTimeMillis();
-        ChatClientResponse advisedResponse = callAdvisorChain.nextCall(chatClientRequest);
-        ChatResponse chatResponse = advisedResponse.chatResponse();
+        long startTime = System.nanoTime();
+        ChatClientResponse advisedResponse;
+        try {
+            advisedResponse = callAdvisorChain.nextCall(chatClientRequest);
+        } catch (RuntimeException e) {
+            record(chatClientRequest, null, "call", "error", System.nanoTime() - startTime, -1);
+            throw e;
+        }
+        record(chatClientRequest, advisedResponse.chatResponse(), "call", "success", System.nanoTime() - startTime, -1);
+        return advisedResponse;
+    }
+
+    @Override
+    public Flux<ChatClientResponse> adviseStream(ChatClientRequest chatClientRequest, StreamAdvisorChain streamAdvisorChain) {
+        long startTime = System.nanoTime();
+        AtomicLong firstToken = new AtomicLong(-1);
+
+        Flux<ChatClientResponse> responses = streamAdvisorChain.nextStream(chatClientRequest)
+                .doOnNext(response -> firstToken.compareAndSet(-1, System.nanoTime() - startTime))
+                .doOnError(e -> record(chatClientRequest, null, "stream", "error", System.nanoTime() - startTime, firstToken.get()));
 
-        if(chatResponse != null && chatResponse.getMetadata().getUsage() != null) {
+        // the aggregator hands us the merged response (with the usage of the last chunk) once the stream completes.
+        return new ChatClientMessageAggregator().aggregateChatClientResponse(responses, aggregated ->
+                record(chatClientRequest, aggregated.chatResponse(), "stream", "success", System.nanoTime() - startTime, firstToken.get()));
+    }
+
+    private void record(ChatClientRequest request, ChatResponse chatResponse, String mode, String outcome,
+                        long durationNanos, long firstTokenNanos) {
+        String model = chatResponse != null && chatResponse.getMetadata().getModel() != null
+                && !chatResponse.getMetadata().getModel().isBlank() ? chatResponse.getMetadata().getModel() : "unknown";
+        boolean tools = request.prompt().getOptions() instanceof ToolCallingChatOptions options
+                && (!options.getToolCallbacks().isEmpty() || !options.getToolNames().isEmpty());
+
+        Tags tags = Tags.of(
+                "endpoint", endpoint,
+                "model", model,
+                "conversation", request.context().containsKey(ChatMemory.CONVERSATION_ID) ? "memory" : "stateless",
+                "tools", String.valueOf(tools),
+                "mode", mode);
+
+        Timer.builder("ai.chat.duration")
+                .tags(tags)
+                .tag("outcome", outcome)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+
+        if (firstTokenNanos >= 0) {
+            Timer.builder("ai.chat.first.token")
+                    .tags(tags)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(firstTokenNanos, TimeUnit.NANOSECONDS);
+        }
+
+        if (chatResponse != null && chatResponse.getMetadata().getUsage() != null) {
             var usage = chatResponse.getMetadata().getUsage();
-            long duration = System.currentTimeMillis() - startTime;
+            count(tags, "prompt", usage.getPromptTokens());
+            count(tags, "completion", usage.getCompletionTokens());
+            if (request.context().get(PROMPT_TOKENS_SAVED) instanceof Number saved) {
+                count(tags, "prompt-saved", saved.intValue());
+            }
+            Integer cached = cachedTokens(usage.getNativeUsage());
+            count(tags, "prompt-cached", cached);
 
-            log.info("Token usage: Intput={} | Output={} | Total={} | Time={}",
-                    usage.getPromptTokens(),
-                    usage.getCompletionTokens(),
-                    usage.getTotalTokens(),
-                    duration);
+            log.debug("Token usage: endpoint={} | Input={} | Cached={} | Output={} | Total={} | TimeMs={}",
+                    endpoint, usage.getPromptTokens(), cached, usage.getCompletionTokens(), usage.getTotalTokens(),
+                    TimeUnit.NANOSECONDS.toMillis(durationNanos));
+        }
+    }
+
+    // only OpenAI reports it, in prompt_tokens_details.cached_tokens of its own usage object.
+    private static Integer cachedTokens(Object nativeUsage) {
+        return nativeUsage instanceof OpenAiApi.Usage openAiUsage && openAiUsage.promptTokensDetails() != null
+                ? openAiUsage.promptTokensDetails().cachedTokens()
+                : null;
+    }
+
+    private void count(Tags tags, String type, Integer tokens) {
+        if (tokens != null && tokens > 0) {
+            Counter.builder("ai.chat.tokens")
+                    .tags(tags)
+                    .tag("type", type)
+                    .register(meterRegistry)
+                    .increment(tokens);
         }
-        return advisedResponse;
     }
 
     @Override
     public String getName() {
-        return "ChatClientResponse";
+        return "TokenUsageAdvisor";
     }
 
     @Override
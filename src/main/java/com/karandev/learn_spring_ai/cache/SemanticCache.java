@@ -0,0 +1,224 @@
+package com.karandev.learn_spring_ai.cache;
+
+import com.karandev.learn_spring_ai.util.VectorMath;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+    Semantic cache for model answers. Instead of matching the exact prompt string we embed the prompt and look for
+    an earlier prompt (in the same scope) whose embedding is close enough, so "what is spring ai?" and
+    "what's Spring AI" end up with the same stored answer and we skip the retrieval + completion completely.
+
+    Lookups only scan the entries of their own scope and take no lock: every scope has an immutable list that put()
+    replaces (copy on write). The lock is for writers and the LRU order, a hit touches its entry only when the lock
+    is free, so under load the order is approximate instead of every request waiting on the others.
+ */
+@Slf4j
+@Component
+public class SemanticCache {
+
+    private final EmbeddingModel embeddingModel;
+    private final boolean enabled;
+    private final double similarityThreshold;
+    private final long ttlNanos;
+    private final int maxEntries;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // access ordered, so the eldest entry is always the least recently hit one.
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // what lookups scan, replaced under the lock and read without it.
+    private final Map<String, List<Entry>> byScope = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+    private final Set<String> optedOutScopes = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder latencySavedNanos = new LongAdder();
+    private final LongAdder tokensSaved = new LongAdder();
+
+    public SemanticCache(EmbeddingModel embeddingModel,
+                         @Value("${app.ai.semantic-cache.enabled:true}") boolean enabled,
+                         @Value("${app.ai.semantic-cache.similarity-threshold:0.95}") double similarityThreshold,
+                         @Value("${app.ai.semantic-cache.ttl:30m}") Duration ttl,
+                         @Value("${app.ai.semantic-cache.max-entries:1000}") int maxEntries) {
+        this.embeddingModel = embeddingModel;
+        this.enabled = enabled;
+        this.similarityThreshold = similarityThreshold;
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+    }
+
+    public Lookup lookup(String scope, String text) {
+        if (!enabled || optedOutScopes.contains(scope)) {
+            return new Lookup(scope, null, null);
+        }
+
+        float[] embedding = embeddingModel.embed(text);
+        long now = System.nanoTime();
+        Entry best = null;
+        double bestScore = similarityThreshold;
+
+        for (Entry entry : byScope.getOrDefault(scope, List.of())) {
+            if (now - entry.createdAt() > ttlNanos) {
+                continue; // put() sweeps it out
+            }
+            double score = VectorMath.cosineSimilarity(embedding, entry.embedding());
+            if (score >= bestScore) {
+                best = entry;
+                bestScore = score;
+            }
+        }
+        if (best != null && lock.tryLock()) {
+            try {
+                entries.get(best.id()); // touch it so it moves to the end of the LRU order
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        if (best == null) {
+            misses.increment();
+            return new Lookup(scope, embedding, null);
+        }
+
+        hits.increment();
+        latencySavedNanos.add(best.latencyNanos());
+        tokensSaved.add(best.totalTokens());
+        log.debug("Semantic cache hit: scope={} | similarity={}", scope, bestScore);
+        return new Lookup(scope, embedding, best.answer());
+    }
+
+    public void put(Lookup lookup, ChatResponse chatResponse, long latencyNanos) {
+        if (lookup.embedding() == null || chatResponse == null || chatResponse.getResult() == null) {
+            return;
+        }
+        String answer = chatResponse.getResult().getOutput().getText();
+        if (answer == null || answer.isBlank()) {
+            return;
+        }
+
+        var usage = chatResponse.getMetadata().getUsage();
+        long totalTokens = usage != null && usage.getTotalTokens() != null ? usage.getTotalTokens() : 0;
+
+        long id = ids.incrementAndGet();
+        Entry entry = new Entry(id, lookup.scope(), lookup.embedding(), answer, System.nanoTime(), latencyNanos, totalTokens);
+
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            List<Entry> removed = new ArrayList<>();
+            entries.values().removeIf(old -> {
+                boolean expired = now - old.createdAt() > ttlNanos;
+                if (expired) {
+                    removed.add(old);
+                }
+                return expired;
+            });
+            entries.put(id, entry);
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (entries.size() > maxEntries && iterator.hasNext()) {
+                removed.add(iterator.next());
+                iterator.remove();
+            }
+            evictions.add(removed.size());
+
+            byScope.compute(entry.scope(), (scope, list) -> {
+                List<Entry> updated = list == null ? new ArrayList<>() : new ArrayList<>(list);
+                updated.add(entry);
+                return List.copyOf(updated);
+            });
+            removeFromScopes(removed);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Conversations that opt out are never looked up nor stored, useful when answers are personal to the user.
+    public void optOut(String scope) {
+        optedOutScopes.add(scope);
+    }
+
+    public void optIn(String scope) {
+        optedOutScopes.remove(scope);
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            byScope.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats stats() {
+        int size;
+        lock.lock();
+        try {
+            size = entries.size();
+        } finally {
+            lock.unlock();
+        }
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long total = hitCount + missCount;
+        return new Stats(
+                hitCount,
+                missCount,
+                total == 0 ? 0.0 : (double) hitCount / total,
+                Duration.ofNanos(latencySavedNanos.sum()),
+                tokensSaved.sum(),
+                size,
+                evictions.sum());
+    }
+
+    // under the lock, one new list per scope that lost entries.
+    private void removeFromScopes(List<Entry> removed) {
+        if (removed.isEmpty()) {
+            return;
+        }
+        Set<Long> removedIds = new HashSet<>();
+        Set<String> scopes = new HashSet<>();
+        removed.forEach(entry -> {
+            removedIds.add(entry.id());
+            scopes.add(entry.scope());
+        });
+        for (String scope : scopes) {
+            byScope.computeIfPresent(scope, (s, list) -> {
+                List<Entry> kept = list.stream().filter(entry -> !removedIds.contains(entry.id())).toList();
+                return kept.isEmpty() ? null : kept;
+            });
+        }
+    }
+
+    public record Lookup(String scope, float[] embedding, String answer) {
+        public boolean isHit() {
+            return answer != null;
+        }
+    }
+
+    public record Stats(long hits, long misses, double hitRate, Duration latencySaved, long tokensSaved,
+                        int size, long evictions) {}
+
+    private record Entry(long id, String scope, float[] embedding, String answer, long createdAt,
+                         long latencyNanos, long totalTokens) {}
+
+}
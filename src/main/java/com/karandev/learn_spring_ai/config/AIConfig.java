@@ -1,16 +1,75 @@
 package com.karandev.learn_spring_ai.config;
 
+import com.karandev.learn_spring_ai.embedding.CachingEmbeddingModel;
+import com.karandev.learn_spring_ai.embedding.EmbeddingCacheRepository;
+import com.karandev.learn_spring_ai.embedding.MicroBatchingEmbeddingModel;
+import com.karandev.learn_spring_ai.memory.WriteBehindChatMemoryRepository;
+import com.karandev.learn_spring_ai.outbound.OutboundScheduler;
+import com.karandev.learn_spring_ai.outbound.RateLimitedChatModel;
+import com.karandev.learn_spring_ai.outbound.RateLimitedEmbeddingModel;
+import com.karandev.learn_spring_ai.outbound.RoutingChatModel;
+import com.karandev.learn_spring_ai.tools.FlightBookingTools;
+import com.karandev.learn_spring_ai.tools.ParallelToolCallingManager;
+import com.karandev.learn_spring_ai.tools.ToolResultCache;
+import com.karandev.learn_spring_ai.tools.TravellingTools;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.SimpleLoggerAdvisor;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.memory.MessageWindowChatMemory;
 import org.springframework.ai.chat.memory.repository.jdbc.JdbcChatMemoryRepository;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiEmbeddingModel;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.ollama.OllamaChatModel;
+import org.springframework.ai.tool.ToolCallbackProvider;
+import org.springframework.ai.tool.execution.ToolExecutionExceptionProcessor;
+import org.springframework.ai.tool.resolution.ToolCallbackResolver;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.Map;
 
 @Configuration
 public class AIConfig {
 
+    // every OpenAI call waits for the chat budget of the OutboundScheduler.
+    @Bean
+    public RateLimitedChatModel rateLimitedChatModel(OpenAiChatModel openAiChatModel, OutboundScheduler outboundScheduler) {
+        return new RateLimitedChatModel(openAiChatModel, outboundScheduler);
+    }
+
+    // the ChatClient.Builder is built on this one: small requests to the local model, the rest to OpenAI.
+    // The OllamaChatModel bean exists whenever the starter is there, running or not, so routing is opt-in.
+    @Bean
+    @Primary
+    public ChatModel routingChatModel(RateLimitedChatModel rateLimitedChatModel,
+                                      ObjectProvider<OllamaChatModel> ollamaChatModel,
+                                      AsyncTaskExecutor applicationTaskExecutor,
+                                      MeterRegistry meterRegistry,
+                                      @Value("${app.ai.model-routing.enabled:false}") boolean enabled,
+                                      @Value("${app.ai.model-routing.local-max-tokens:1500}") int localMaxTokens,
+                                      @Value("${app.ai.model-routing.local-max-messages:6}") int localMaxMessages,
+                                      @Value("${app.ai.model-routing.race.enabled:false}") boolean race,
+                                      @Value("${app.ai.model-routing.race.slo:2s}") Duration slo) {
+        OllamaChatModel local = enabled ? ollamaChatModel.getIfAvailable() : null;
+        if (local == null) {
+            return rateLimitedChatModel;
+        }
+        return new RoutingChatModel(local, rateLimitedChatModel, applicationTaskExecutor, localMaxTokens,
+                localMaxMessages, race, slo, meterRegistry);
+    }
+
     @Bean
     public ChatClient chatClient(ChatClient.Builder builder) {
 
@@ -19,12 +78,72 @@ public class AIConfig {
                 .build();
     }
 
+    // the window lives in memory and is written to postgres in the background, see WriteBehindChatMemoryRepository.
     @Bean
-    public ChatMemory chatMemory(JdbcChatMemoryRepository chatMemoryRepository) {
+    public WriteBehindChatMemoryRepository writeBehindChatMemoryRepository(
+            JdbcChatMemoryRepository jdbcChatMemoryRepository,
+            TransactionTemplate transactionTemplate,
+            @Value("${app.ai.chat-memory.flush-interval:500ms}") Duration flushInterval,
+            @Value("${app.ai.chat-memory.flush-batch-size:100}") int flushBatchSize,
+            @Value("${app.ai.chat-memory.max-dirty-conversations:5000}") int maxDirtyConversations,
+            @Value("${app.ai.chat-memory.max-cached-conversations:20000}") int maxCachedConversations) {
+        return new WriteBehindChatMemoryRepository(jdbcChatMemoryRepository, transactionTemplate, flushInterval,
+                flushBatchSize, maxDirtyConversations, maxCachedConversations);
+    }
+
+    @Bean
+    public ChatMemory chatMemory(WriteBehindChatMemoryRepository chatMemoryRepository) {
         return MessageWindowChatMemory.builder()
                 .chatMemoryRepository(chatMemoryRepository)
                 .maxMessages(10)
                 .build();
 
     }
+
+    // concurrent cache misses are merged into one request (window 0 switches it off), then wait for the embedding budget.
+    @Bean
+    public MicroBatchingEmbeddingModel microBatchingEmbeddingModel(OpenAiEmbeddingModel openAiEmbeddingModel,
+                                                                   OutboundScheduler outboundScheduler,
+                                                                   @Value("${app.ai.embedding-batching.window:5ms}") Duration window,
+                                                                   @Value("${app.ai.embedding-batching.max-batch-size:64}") int maxBatchSize) {
+        return new MicroBatchingEmbeddingModel(new RateLimitedEmbeddingModel(openAiEmbeddingModel, outboundScheduler),
+                window, maxBatchSize);
+    }
+
+    // Primary, so AIService, the pgvector store and the vector store advisors all embed through the cache.
+    @Bean
+    @Primary
+    public CachingEmbeddingModel embeddingModel(MicroBatchingEmbeddingModel microBatchingEmbeddingModel,
+                                                EmbeddingCacheRepository embeddingCacheRepository,
+                                                @Value("${spring.ai.openai.embedding.options.model}") String model,
+                                                @Value("${app.ai.embedding-cache.max-entries:5000}") int maxEntries,
+                                                @Value("${app.ai.embedding-cache.persistent:true}") boolean persistent) {
+        // only cache misses reach the batching and rate limited models below.
+        return new CachingEmbeddingModel(microBatchingEmbeddingModel, model, maxEntries,
+                persistent ? embeddingCacheRepository : null);
+    }
+
+    // replaces spring ai's DefaultToolCallingManager in the chat model, the tool calls of one turn run concurrently.
+    @Bean
+    public ToolCallingManager toolCallingManager(ToolCallbackResolver toolCallbackResolver,
+                                                 ToolExecutionExceptionProcessor toolExecutionExceptionProcessor,
+                                                 AsyncTaskExecutor applicationTaskExecutor,
+                                                 MeterRegistry meterRegistry,
+                                                 Environment environment,
+                                                 @Value("${app.ai.tool-calling.max-concurrency:16}") int maxConcurrency,
+                                                 @Value("${app.ai.tool-calling.timeout:10s}") Duration timeout) {
+        Map<String, Duration> timeouts = Binder.get(environment)
+                .bind("app.ai.tool-calling.timeouts", Bindable.mapOf(String.class, Duration.class))
+                .orElse(Map.of());
+        return new ParallelToolCallingManager(toolCallbackResolver, toolExecutionExceptionProcessor,
+                applicationTaskExecutor, maxConcurrency, timeout, timeouts, meterRegistry);
+    }
+
+    // the tools of /chat, read-only ones answered from ToolResultCache when the same call was made recently.
+    @Bean
+    public ToolCallbackProvider chatTools(ToolResultCache toolResultCache,
+                                          TravellingTools travellingTools,
+                                          FlightBookingTools flightBookingTools) {
+        return ToolCallbackProvider.from(toolResultCache.wrap(travellingTools, flightBookingTools));
+    }
 }
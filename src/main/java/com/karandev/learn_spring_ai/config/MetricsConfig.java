@@ -0,0 +1,102 @@
+package com.karandev.learn_spring_ai.config;
+
+import com.karandev.learn_spring_ai.cache.SemanticCache;
+import com.karandev.learn_spring_ai.embedding.CachingEmbeddingModel;
+import com.karandev.learn_spring_ai.embedding.MicroBatchingEmbeddingModel;
+import com.karandev.learn_spring_ai.memory.ConversationCompactor;
+import com.karandev.learn_spring_ai.tools.ToolResultCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// The caches keep their own counters, these binders publish them next to the chat metrics of TokenUsageAdvisor.
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder semanticCacheMetrics(SemanticCache semanticCache) {
+        return registry -> {
+            FunctionCounter.builder("ai.semantic.cache.requests", semanticCache, cache -> cache.stats().hits())
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("ai.semantic.cache.requests", semanticCache, cache -> cache.stats().misses())
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("ai.semantic.cache.latency.saved", semanticCache,
+                            cache -> cache.stats().latencySaved().toMillis() / 1000.0)
+                    .baseUnit("seconds")
+                    .register(registry);
+            FunctionCounter.builder("ai.semantic.cache.tokens.saved", semanticCache, cache -> cache.stats().tokensSaved())
+                    .register(registry);
+            Gauge.builder("ai.semantic.cache.size", semanticCache, cache -> cache.stats().size())
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder embeddingCacheMetrics(CachingEmbeddingModel embeddingModel) {
+        return registry -> {
+            FunctionCounter.builder("ai.embedding.cache.requests", embeddingModel, model -> model.stats().memoryHits())
+                    .tag("result", "memory-hit")
+                    .register(registry);
+            FunctionCounter.builder("ai.embedding.cache.requests", embeddingModel, model -> model.stats().persistentHits())
+                    .tag("result", "persistent-hit")
+                    .register(registry);
+            FunctionCounter.builder("ai.embedding.cache.requests", embeddingModel, model -> model.stats().misses())
+                    .tag("result", "miss")
+                    .register(registry);
+            Gauge.builder("ai.embedding.cache.size", embeddingModel, model -> model.stats().size())
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder embeddingBatchingMetrics(MicroBatchingEmbeddingModel embeddingModel) {
+        return registry -> {
+            FunctionCounter.builder("ai.embedding.batching.batches", embeddingModel, model -> model.stats().batches())
+                    .register(registry);
+            FunctionCounter.builder("ai.embedding.batching.requests", embeddingModel, model -> model.stats().requests())
+                    .register(registry);
+            FunctionCounter.builder("ai.embedding.batching.texts", embeddingModel, model -> model.stats().texts())
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder toolResultCacheMetrics(ToolResultCache toolResultCache) {
+        return registry -> {
+            FunctionCounter.builder("ai.tool.cache.calls", toolResultCache, cache -> cache.stats().requestHits())
+                    .tag("result", "request-hit")
+                    .register(registry);
+            FunctionCounter.builder("ai.tool.cache.calls", toolResultCache, cache -> cache.stats().sharedHits())
+                    .tag("result", "shared-hit")
+                    .register(registry);
+            FunctionCounter.builder("ai.tool.cache.calls", toolResultCache, cache -> cache.stats().coalesced())
+                    .tag("result", "coalesced")
+                    .register(registry);
+            FunctionCounter.builder("ai.tool.cache.calls", toolResultCache, cache -> cache.stats().executions())
+                    .tag("result", "executed")
+                    .register(registry);
+            FunctionCounter.builder("ai.tool.cache.invalidations", toolResultCache, cache -> cache.stats().invalidations())
+                    .register(registry);
+            Gauge.builder("ai.tool.cache.size", toolResultCache, cache -> cache.stats().size())
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder conversationCompactionMetrics(ConversationCompactor compactor) {
+        return registry -> {
+            FunctionCounter.builder("ai.memory.compaction.runs", compactor, c -> c.stats().runs())
+                    .register(registry);
+            FunctionCounter.builder("ai.memory.compaction.skipped", compactor, c -> c.stats().skippedBusy())
+                    .register(registry);
+            FunctionCounter.builder("ai.memory.compaction.conversations", compactor, c -> c.stats().conversations())
+                    .register(registry);
+            FunctionCounter.builder("ai.memory.compaction.turns.evicted", compactor, c -> c.stats().turnsEvicted())
+                    .register(registry);
+        };
+    }
+}
@@ -0,0 +1,148 @@
+package com.karandev.learn_spring_ai.config;
+
+import com.karandev.learn_spring_ai.retrieval.Bm25Index;
+import com.karandev.learn_spring_ai.retrieval.HybridVectorStore;
+import com.karandev.learn_spring_ai.vectorstore.LocalVectorStore;
+import com.karandev.learn_spring_ai.vectorstore.RoutingVectorStore;
+import com.karandev.learn_spring_ai.vectorstore.RoutingVectorStore.Partition;
+import com.karandev.learn_spring_ai.vectorstore.TenantVectorStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+    Three physical stores behind the primary RoutingVectorStore:
+
+        knowledge   the pgvector table of the auto-configured PgVectorStore, served by the LocalVectorStore
+        memory      its own table, one in-process index per conversation (TenantVectorStore)
+        demo        its own table, the movie and Spring AI samples
+
+    Rows that an older version wrote into the knowledge table are moved into their own table once at startup.
+ */
+@Slf4j
+@Configuration
+public class VectorStoreConfig {
+
+    @Bean
+    @Primary
+    public RoutingVectorStore routingVectorStore(PgVectorStore pgVectorStore,
+                                                 @Qualifier("localVectorStore") ObjectProvider<VectorStore> localVectorStore,
+                                                 TenantVectorStore chatMemoryVectorStore,
+                                                 @Qualifier("demoVectorStore") VectorStore demoVectorStore,
+                                                 @Value("${app.ai.vector-partitions.memory-keys:conversationId}") Set<String> memoryKeys,
+                                                 @Value("${app.ai.vector-partitions.demo-keys:movieId,docId}") Set<String> demoKeys,
+                                                 @Value("${app.ai.vector-partitions.knowledge-keys:file_name,page_number}") Set<String> knowledgeKeys) {
+        return new RoutingVectorStore(
+                Map.of(Partition.KNOWLEDGE, localVectorStore.getIfAvailable(() -> pgVectorStore),
+                        Partition.MEMORY, chatMemoryVectorStore,
+                        Partition.DEMO, demoVectorStore),
+                Map.of(Partition.KNOWLEDGE, knowledgeKeys,
+                        Partition.MEMORY, memoryKeys,
+                        Partition.DEMO, demoKeys));
+    }
+
+    // the knowledge base: searches in memory, writes through to pgvector. Loads after the other partitions took their rows.
+    @Bean
+    @DependsOn({"chatMemoryVectorStore", "demoVectorStore"})
+    @ConditionalOnProperty(name = "app.ai.local-vector-store.enabled", havingValue = "true", matchIfMissing = true)
+    public LocalVectorStore localVectorStore(PgVectorStore pgVectorStore,
+                                             EmbeddingModel embeddingModel,
+                                             JdbcTemplate jdbcTemplate,
+                                             @Value("${spring.ai.vectorstore.pgvector.schema-name:public}") String schema,
+                                             @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String table,
+                                             @Value("${app.ai.local-vector-store.m:16}") int m,
+                                             @Value("${app.ai.local-vector-store.ef-construction:200}") int efConstruction,
+                                             @Value("${app.ai.local-vector-store.ef-search:64}") int efSearch,
+                                             @Value("${app.ai.local-vector-store.exact-search-threshold:500}") int exactSearchThreshold,
+                                             @Value("${app.ai.local-vector-store.snapshot.path:}") String snapshotPath,
+                                             @Value("${app.ai.local-vector-store.snapshot.rerank-candidates:50}") int rerankCandidates,
+                                             @Value("${app.ai.local-vector-store.snapshot.graph:false}") boolean snapshotGraph) {
+        return new LocalVectorStore(pgVectorStore, embeddingModel, jdbcTemplate, schema + "." + table,
+                m, efConstruction, efSearch, exactSearchThreshold,
+                snapshotPath.isBlank() ? null : Path.of(snapshotPath), rerankCandidates, snapshotGraph);
+    }
+
+    @Bean
+    public TenantVectorStore chatMemoryVectorStore(EmbeddingModel embeddingModel,
+                                                   JdbcTemplate jdbcTemplate,
+                                                   @Value("${spring.ai.vectorstore.pgvector.schema-name:public}") String schema,
+                                                   @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String knowledgeTable,
+                                                   @Value("${app.ai.vector-partitions.memory-table:chat_memory_vector_store}") String table,
+                                                   @Value("${app.ai.vector-partitions.max-loaded-tenants:10000}") int maxTenants) throws Exception {
+        PgVectorStore memoryStore = pgVectorStore(jdbcTemplate, embeddingModel, schema, table);
+        adoptRows(jdbcTemplate, schema + "." + knowledgeTable, schema + "." + table,
+                "metadata->>'conversationId' IS NOT NULL");
+        return new TenantVectorStore(memoryStore, embeddingModel, jdbcTemplate, schema + "." + table,
+                "conversationId", maxTenants);
+    }
+
+    @Bean
+    public VectorStore demoVectorStore(EmbeddingModel embeddingModel,
+                                       JdbcTemplate jdbcTemplate,
+                                       @Value("${spring.ai.vectorstore.pgvector.schema-name:public}") String schema,
+                                       @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String knowledgeTable,
+                                       @Value("${app.ai.vector-partitions.demo-table:demo_vector_store}") String table,
+                                       @Value("${app.ai.local-vector-store.enabled:true}") boolean local) throws Exception {
+        PgVectorStore demoStore = pgVectorStore(jdbcTemplate, embeddingModel, schema, table);
+        adoptRows(jdbcTemplate, schema + "." + knowledgeTable, schema + "." + table,
+                "metadata->>'movieId' IS NOT NULL OR metadata->>'docId' IS NOT NULL");
+        // a handful of documents: exact scans only, no snapshot
+        return local
+                ? new LocalVectorStore(demoStore, embeddingModel, jdbcTemplate, schema + "." + table, 16, 200, 64, Integer.MAX_VALUE)
+                : demoStore;
+    }
+
+    // not primary: knowledge base searches (askAI, the advisors) and the ingestion use it, chat memory stays dense only.
+    @Bean
+    public HybridVectorStore hybridVectorStore(VectorStore vectorStore,
+                                               JdbcTemplate jdbcTemplate,
+                                               AsyncTaskExecutor applicationTaskExecutor,
+                                               MeterRegistry meterRegistry,
+                                               @Value("${spring.ai.vectorstore.pgvector.schema-name:public}") String schema,
+                                               @Value("${spring.ai.vectorstore.pgvector.table-name:vector_store}") String table,
+                                               @Value("${app.ai.vector-partitions.demo-table:demo_vector_store}") String demoTable,
+                                               @Value("${app.ai.hybrid-retrieval.rrf-k:60}") int rrfK,
+                                               @Value("${app.ai.hybrid-retrieval.candidates:20}") int candidates) {
+        return new HybridVectorStore(vectorStore, new Bm25Index(), jdbcTemplate,
+                List.of(schema + "." + table, schema + "." + demoTable), applicationTaskExecutor, rrfK, candidates, meterRegistry);
+    }
+
+    // not a bean: a second PgVectorStore bean would switch off the auto-configured one.
+    private static PgVectorStore pgVectorStore(JdbcTemplate jdbcTemplate, EmbeddingModel embeddingModel, String schema,
+                                               String table) throws Exception {
+        PgVectorStore store = PgVectorStore.builder(jdbcTemplate, embeddingModel)
+                .schemaName(schema)
+                .vectorTableName(table)
+                .initializeSchema(true)
+                .build();
+        store.afterPropertiesSet(); // creates the table and its index
+        return store;
+    }
+
+    private static void adoptRows(JdbcTemplate jdbcTemplate, String from, String to, String condition) {
+        int moved = jdbcTemplate.update("INSERT INTO " + to + " (id, content, metadata, embedding) "
+                + "SELECT id, content, metadata, embedding FROM " + from + " WHERE " + condition
+                + " ON CONFLICT (id) DO NOTHING");
+        jdbcTemplate.update("DELETE FROM " + from + " WHERE " + condition);
+        if (moved > 0) {
+            log.info("Moved {} rows from {} to {}", moved, from, to);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.karandev.learn_spring_ai.config;
+
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/*
+    With virtual threads a blocking call inside a synchronized block pins the carrier thread, and a handful of
+    those (a slow JDBC call, an OpenAI call...) is enough to starve the whole carrier pool.
+    This listens to the JFR "jdk.VirtualThreadPinned" event and logs where it happened, so a pinning section shows up
+    in the logs the first time it happens instead of as a mysterious throughput drop.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadPinningMonitor implements SmartLifecycle {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private final Duration threshold;
+    private final LongAdder pinnedEvents = new LongAdder();
+    private volatile RecordingStream recordingStream;
+
+    public VirtualThreadPinningMonitor(@Value("${app.ai.virtual-threads.pinning-threshold:20ms}") Duration threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void start() {
+        RecordingStream stream = new RecordingStream();
+        stream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+        stream.onEvent(PINNED_EVENT, event -> {
+            pinnedEvents.increment();
+            String frames = event.getStackTrace() == null ? "<no stack trace>" : event.getStackTrace().getFrames().stream()
+                    .limit(8)
+                    .map(RecordedFrame::getMethod)
+                    .map(method -> method.getType().getName() + "." + method.getName())
+                    .collect(Collectors.joining(" <- "));
+            log.warn("Virtual thread pinned its carrier for {} ms: {}", event.getDuration().toMillis(), frames);
+        });
+        stream.startAsync();
+        recordingStream = stream;
+    }
+
+    @Override
+    public void stop() {
+        RecordingStream stream = recordingStream;
+        if (stream != null) {
+            stream.close();
+            recordingStream = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return recordingStream != null;
+    }
+
+    public long pinnedEvents() {
+        return pinnedEvents.sum();
+    }
+}
@@ -1,47 +1,76 @@
 package com.karandev.learn_spring_ai.controller;
 
-import com.karandev.learn_spring_ai.tools.FlightBookingTools;
-import com.karandev.learn_spring_ai.tools.TravellingTools;
+import com.karandev.learn_spring_ai.advisors.TokenUsageAdvisor;
+import com.karandev.learn_spring_ai.prompts.PromptRegistry;
+import com.karandev.learn_spring_ai.tools.ToolResultCache;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.tool.ToolCallbackProvider;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
 
 @RestController
 @RequiredArgsConstructor
 public class ChatController {
 
     private final ChatClient chatClient;
-    private final TravellingTools travellingTools;
-    private final FlightBookingTools flightBookingTools;
+    private final ToolCallbackProvider chatTools;
+    private final ToolResultCache toolResultCache;
     private final ChatMemory chatMemory;
+    private final PromptRegistry promptRegistry;
+    private final MeterRegistry meterRegistry;
 
     @PostMapping("/chat")
     public String chat(@RequestBody String message, @RequestParam String userId) {
 
-        String systemPrompt = String.format("""
-            You are a friendly flight booking assistant.
-            Use the available tools to create, view, or update bookings.
-            Always confirm actions with the user when possible.
-            
-            IMPORTANT: The current user's ID is "%s".
-            When calling tools that require a userId, ALWAYS use this exact value.
-            """, userId);
-
         return  chatClient.prompt()
-                .system(systemPrompt)
-                .user(message)
-                .tools(travellingTools, flightBookingTools)
+                .system(promptRegistry.get("chat-system").render())
+                .user(userPrompt(message))
+                .toolCallbacks(chatTools)
+                .toolContext(toolResultCache.requestContext(userId)) // the booking tools act on this user only
                 .advisors(
                         MessageChatMemoryAdvisor.builder(chatMemory)
                                 .conversationId(userId)
-                                .build()
+                                .build(),
+                        new TokenUsageAdvisor("chat", meterRegistry)
                 )
+                // the memory advisor keeps the id to itself, TokenUsageAdvisor looks for it in the context
+                .advisors(a -> a.param(ChatMemory.CONVERSATION_ID, userId))
                 .call()
                 .content();
     }
+
+    // Same conversation as /chat (same memory, same tools) but tokens are pushed to the client as soon as they arrive,
+    // so the servlet thread is released right away instead of waiting for every tool round trip.
+    @PostMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<String>> chatStream(@RequestBody String message, @RequestParam String userId) {
+        return chatClient.prompt()
+                .system(promptRegistry.get("chat-system").render())
+                .user(userPrompt(message))
+                .toolCallbacks(chatTools)
+                .toolContext(toolResultCache.requestContext(userId)) // the booking tools act on this user only
+                .advisors(
+                        MessageChatMemoryAdvisor.builder(chatMemory)
+                                .conversationId(userId)
+                                .build(),
+                        new TokenUsageAdvisor("chat-stream", meterRegistry) // records time to first token and total duration
+                )
+                .advisors(a -> a.param(ChatMemory.CONVERSATION_ID, userId))
+                .stream()
+                .content()
+                .map(token -> ServerSentEvent.builder(token).build());
+    }
+
+    // the user id is not in the prompt at all, the tools get it from the tool context.
+    private String userPrompt(String message) {
+        return promptRegistry.get("chat-user").render("message", message);
+    }
 }
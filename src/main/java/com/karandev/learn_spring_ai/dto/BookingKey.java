@@ -0,0 +1,6 @@
+package com.karandev.learn_spring_ai.dto;
+
+import java.time.Instant;
+
+// (userId, destination, departureTime) is what makes a booking a duplicate.
+public record BookingKey(String userId, String destination, Instant departureTime) {}
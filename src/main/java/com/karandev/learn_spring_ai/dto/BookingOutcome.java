@@ -0,0 +1,10 @@
+package com.karandev.learn_spring_ai.dto;
+
+import java.time.Instant;
+
+public record BookingOutcome(String destination, Instant departureTime, Result result, Long bookingId, String message) {
+
+    public enum Result {
+        CREATED, DUPLICATE
+    }
+}
@@ -0,0 +1,5 @@
+package com.karandev.learn_spring_ai.dto;
+
+import java.time.Instant;
+
+public record BookingRequest(String destination, Instant departureTime) {}
@@ -0,0 +1,5 @@
+package com.karandev.learn_spring_ai.dto;
+
+import java.util.List;
+
+public record BookingsPageResponse(List<BookingResponse> bookings, String nextCursor, String message) {}
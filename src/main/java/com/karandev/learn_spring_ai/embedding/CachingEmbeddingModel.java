@@ -0,0 +1,165 @@
+package com.karandev.learn_spring_ai.embedding;
+
+import com.karandev.learn_spring_ai.util.Hashing;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.BatchingStrategy;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+    EmbeddingModel decorator that remembers what it has already embedded.
+    Lookups go: in-process LRU (sha-256 of the text -> float[]) -> optional postgres table -> the real model,
+    and only the texts that missed both tiers are sent to the model, in one request.
+    Because the vector store and the vector store advisors get this bean as well, their query embeddings are cached too.
+ */
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final String model;
+    private final int maxEntries;
+    private final EmbeddingCacheRepository persistentCache; // null when the persistent tier is switched off
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, float[]> memoryCache = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder persistentHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CachingEmbeddingModel(EmbeddingModel delegate, String model, int maxEntries,
+                                 EmbeddingCacheRepository persistentCache) {
+        this.delegate = delegate;
+        this.model = model;
+        this.maxEntries = maxEntries;
+        this.persistentCache = persistentCache;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        EmbeddingOptions options = request.getOptions();
+        if (options != null && options.getModel() != null && !options.getModel().equals(model)) {
+            return delegate.call(request); // someone asked for a different model, the cache entries would not match
+        }
+
+        List<String> texts = request.getInstructions();
+        float[][] vectors = new float[texts.size()][];
+        Map<String, List<Integer>> missing = new LinkedHashMap<>();
+        String[] hashes = texts.stream().map(Hashing::sha256).toArray(String[]::new);
+
+        lock.lock();
+        try {
+            for (int i = 0; i < texts.size(); i++) {
+                float[] cached = memoryCache.get(hashes[i]);
+                if (cached != null) {
+                    vectors[i] = cached;
+                    memoryHits.increment();
+                } else {
+                    missing.computeIfAbsent(hashes[i], h -> new ArrayList<>()).add(i);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (!missing.isEmpty() && persistentCache != null) {
+            Map<String, float[]> stored = persistentCache.findAll(model, missing.keySet());
+            stored.forEach((hash, vector) -> {
+                missing.remove(hash).forEach(i -> vectors[i] = vector);
+                persistentHits.increment();
+            });
+            remember(stored);
+        }
+
+        if (!missing.isEmpty()) {
+            List<String> missingHashes = new ArrayList<>(missing.keySet());
+            List<String> missingTexts = missingHashes.stream().map(hash -> texts.get(missing.get(hash).get(0))).toList();
+            EmbeddingResponse response = delegate.call(new EmbeddingRequest(missingTexts, options));
+            misses.add(missingTexts.size());
+
+            Map<String, float[]> fresh = new HashMap<>();
+            for (int j = 0; j < response.getResults().size(); j++) {
+                float[] vector = response.getResults().get(j).getOutput();
+                fresh.put(missingHashes.get(j), vector);
+                missing.get(missingHashes.get(j)).forEach(i -> vectors[i] = vector);
+            }
+            remember(fresh);
+            if (persistentCache != null) {
+                persistentCache.saveAll(model, fresh);
+            }
+        }
+
+        List<Embedding> embeddings = new ArrayList<>(vectors.length);
+        for (int i = 0; i < vectors.length; i++) {
+            embeddings.add(new Embedding(vectors[i], i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        // same formatting OpenAiEmbeddingModel uses, so cached vectors match what the model would have returned.
+        return embed(document.getFormattedContent(MetadataMode.EMBED));
+    }
+
+    @Override
+    public List<float[]> embed(List<Document> documents, EmbeddingOptions options, BatchingStrategy batchingStrategy) {
+        List<float[]> embeddings = new ArrayList<>(documents.size());
+        for (List<Document> batch : batchingStrategy.batch(documents)) {
+            List<String> texts = batch.stream().map(document -> document.getFormattedContent(MetadataMode.EMBED)).toList();
+            call(new EmbeddingRequest(texts, options)).getResults()
+                    .forEach(embedding -> embeddings.add(embedding.getOutput()));
+        }
+        return embeddings;
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    public Stats stats() {
+        long memory = memoryHits.sum();
+        long persistent = persistentHits.sum();
+        long missCount = misses.sum();
+        long total = memory + persistent + missCount;
+        int size;
+        lock.lock();
+        try {
+            size = memoryCache.size();
+        } finally {
+            lock.unlock();
+        }
+        return new Stats(memory, persistent, missCount, total == 0 ? 0.0 : (double) (memory + persistent) / total, size);
+    }
+
+    private void remember(Map<String, float[]> vectors) {
+        if (vectors.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            memoryCache.putAll(vectors);
+            var iterator = memoryCache.entrySet().iterator();
+            while (memoryCache.size() > maxEntries && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public record Stats(long memoryHits, long persistentHits, long misses, double hitRate, int size) {}
+}
@@ -0,0 +1,61 @@
+package com.karandev.learn_spring_ai.embedding;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+// Persistent tier of the embedding cache, vectors are stored as raw little endian float bytes.
+@Repository
+@RequiredArgsConstructor
+public class EmbeddingCacheRepository {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public Map<String, float[]> findAll(String model, Collection<String> textHashes) {
+        Map<String, float[]> found = new HashMap<>();
+        if (textHashes.isEmpty()) {
+            return found;
+        }
+        jdbcTemplate.query(
+                "SELECT text_hash, embedding FROM embedding_cache WHERE model = :model AND text_hash IN (:hashes)",
+                new MapSqlParameterSource("model", model).addValue("hashes", textHashes),
+                rs -> {
+                    found.put(rs.getString("text_hash"), toFloats(rs.getBytes("embedding")));
+                });
+        return found;
+    }
+
+    public void saveAll(String model, Map<String, float[]> embeddings) {
+        if (embeddings.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate("""
+                        INSERT INTO embedding_cache (text_hash, model, embedding) VALUES (:hash, :model, :embedding)
+                        ON CONFLICT (model, text_hash) DO NOTHING
+                        """,
+                embeddings.entrySet().stream()
+                        .map(entry -> new MapSqlParameterSource("hash", entry.getKey())
+                                .addValue("model", model)
+                                .addValue("embedding", toBytes(entry.getValue())))
+                        .toArray(MapSqlParameterSource[]::new));
+    }
+
+    static byte[] toBytes(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    static float[] toFloats(byte[] bytes) {
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+}
@@ -0,0 +1,192 @@
+package com.karandev.learn_spring_ai.embedding;
+
+import com.karandev.learn_spring_ai.outbound.Priority;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.model.ModelOptionsUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+    EmbeddingModel decorator that merges concurrent small requests into one call to the real model.
+    The first request of a batch waits up to `window` for others to join (or until the batch holds maxBatchSize
+    texts), then sends them all as one request and hands every caller its own slice of the result.
+
+    200 users asking at the same time become a handful of calls at the price of at most `window` extra latency.
+    Requests that are already big enough on their own go straight through.
+
+    Batches are kept apart by Priority: the leader sends on its own thread, so an interactive query that joined an
+    ingestion batch would otherwise wait in the BACKGROUND queue of the OutboundScheduler behind a whole PDF.
+ */
+public class MicroBatchingEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final long windowNanos;
+    private final int maxBatchSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition closed = lock.newCondition();
+    // the batch that is still collecting, per priority and distinct embedding options.
+    private final Map<String, Batch> open = new HashMap<>();
+
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedRequests = new LongAdder();
+    private final LongAdder batchedTexts = new LongAdder();
+
+    public MicroBatchingEmbeddingModel(EmbeddingModel delegate, Duration window, int maxBatchSize) {
+        this.delegate = delegate;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        if (windowNanos <= 0 || texts.isEmpty() || texts.size() >= maxBatchSize) {
+            return delegate.call(request);
+        }
+
+        Priority priority = Priority.current();
+        String key = priority + ":" + ModelOptionsUtils.toJsonString(request.getOptions());
+        Pending pending = new Pending(texts, new CompletableFuture<>());
+        Batch batch = null;
+        boolean leader = false;
+
+        lock.lock();
+        try {
+            batch = open.get(key);
+            if (batch != null && batch.size + texts.size() > maxBatchSize) {
+                close(key, batch); // doesn't fit anymore, its leader sends it right away
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new Batch(priority, request.getOptions());
+                open.put(key, batch);
+                leader = true;
+            }
+            batch.pending.add(pending);
+            batch.size += texts.size();
+            if (batch.size >= maxBatchSize) {
+                close(key, batch);
+            }
+
+            if (leader) {
+                long remaining = windowNanos;
+                while (!batch.closed && remaining > 0) {
+                    remaining = closed.awaitNanos(remaining);
+                }
+                if (!batch.closed) {
+                    close(key, batch);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (batch != null) {
+                close(key, batch); // only the leader waits, its batch goes out now
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (leader) {
+            send(batch);
+        }
+        return await(pending.result());
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getFormattedContent(MetadataMode.EMBED));
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    public Stats stats() {
+        long batchCount = batches.sum();
+        return new Stats(batchCount, batchedRequests.sum(), batchedTexts.sum(),
+                batchCount == 0 ? 0 : (double) batchedRequests.sum() / batchCount);
+    }
+
+    // under the lock
+    private void close(String key, Batch batch) {
+        batch.closed = true;
+        open.remove(key, batch);
+        closed.signalAll();
+    }
+
+    private void send(Batch batch) {
+        List<String> texts = new ArrayList<>(batch.size);
+        batch.pending.forEach(pending -> texts.addAll(pending.texts()));
+        batches.increment();
+        batchedRequests.add(batch.pending.size());
+        batchedTexts.add(texts.size());
+
+        try {
+            EmbeddingResponse response = batch.priority.call(() -> delegate.call(new EmbeddingRequest(texts, batch.options)));
+            List<Embedding> results = response.getResults().stream()
+                    .sorted(Comparator.comparingInt(Embedding::getIndex))
+                    .toList();
+
+            int offset = 0;
+            for (Pending pending : batch.pending) {
+                List<Embedding> slice = new ArrayList<>(pending.texts().size());
+                for (int i = 0; i < pending.texts().size(); i++) {
+                    slice.add(new Embedding(results.get(offset + i).getOutput(), i));
+                }
+                offset += pending.texts().size();
+                pending.result().complete(new EmbeddingResponse(slice, response.getMetadata()));
+            }
+        } catch (RuntimeException e) {
+            batch.pending.forEach(pending -> pending.result().completeExceptionally(e));
+        }
+    }
+
+    private static EmbeddingResponse await(CompletableFuture<EmbeddingResponse> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static final class Batch {
+
+        private final Priority priority;
+        private final EmbeddingOptions options;
+        private final List<Pending> pending = new ArrayList<>();
+        private int size;
+        private boolean closed;
+
+        private Batch(Priority priority, EmbeddingOptions options) {
+            this.priority = priority;
+            this.options = options;
+        }
+    }
+
+    private record Pending(List<String> texts, CompletableFuture<EmbeddingResponse> result) {
+    }
+
+    public record Stats(long batches, long requests, long texts, double requestsPerBatch) {
+    }
+}
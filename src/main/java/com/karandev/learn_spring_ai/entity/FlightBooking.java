@@ -7,6 +7,12 @@ import org.hibernate.annotations.CreationTimestamp;
 import java.time.Instant;
 
 @Entity
+@Table(indexes = {
+        // get_user_bookings and the keyset pages: where user_id = ? order by departure_time
+        @Index(name = "idx_flight_booking_user_departure", columnList = "userId, departureTime"),
+        // duplicate check of createBooking / createBookings
+        @Index(name = "idx_flight_booking_user_destination_departure", columnList = "userId, destination, departureTime")
+})
 @Getter
 @Setter
 @AllArgsConstructor
@@ -14,8 +20,10 @@ import java.time.Instant;
 @Builder
 public class FlightBooking {
 
+    // IDENTITY makes hibernate insert rows one by one to get the id back, a pooled sequence lets it batch the inserts.
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "flight_booking_seq")
+    @SequenceGenerator(name = "flight_booking_seq", sequenceName = "flight_booking_seq", allocationSize = 50)
     private Long id;
     private String userId;
 
@@ -0,0 +1,161 @@
+package com.karandev.learn_spring_ai.ingestion;
+
+import com.karandev.learn_spring_ai.util.Hashing;
+import com.karandev.learn_spring_ai.util.Tokens;
+import lombok.RequiredArgsConstructor;
+import org.springframework.ai.document.Document;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/*
+    Remembers what we have already put into the vector store: one row per chunk keyed on (source, page, chunk offset)
+    with the hash of its text. Before writing a batch we diff it against the ledger, so unchanged chunks are never
+    embedded again, changed ones overwrite their old row (same id) and chunks that disappeared get deleted.
+ */
+@Component
+@RequiredArgsConstructor
+public class IngestionLedger {
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public static LedgerChunk chunk(String source, int page, int chunkIndex, Document document) {
+        String key = source + ":" + page + ":" + chunkIndex;
+        Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+        metadata.put("chunk_index", chunkIndex);
+        metadata.put(Tokens.METADATA_KEY, Tokens.estimate(document.getText()));
+        Document identified = Document.builder()
+                .id(UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString())
+                .text(document.getText())
+                .metadata(metadata)
+                .build();
+        return new LedgerChunk(page, chunkIndex, Hashing.sha256(document.getText()), identified);
+    }
+
+    public LedgerDiff diff(String source, Collection<Integer> pages, List<LedgerChunk> chunks) {
+        Map<String, String> knownHashes = new HashMap<>();
+        Map<String, String> knownIds = new HashMap<>();
+        if (!pages.isEmpty()) {
+            jdbcTemplate.query("""
+                            SELECT page, chunk_index, content_hash, document_id FROM vector_ingestion_ledger
+                            WHERE source = :source AND page IN (:pages)
+                            """,
+                    new MapSqlParameterSource("source", source).addValue("pages", pages),
+                    rs -> {
+                        String key = rs.getInt("page") + ":" + rs.getInt("chunk_index");
+                        knownHashes.put(key, rs.getString("content_hash"));
+                        knownIds.put(key, rs.getString("document_id"));
+                    });
+        }
+
+        List<LedgerChunk> changed = new ArrayList<>();
+        Set<String> current = new HashSet<>();
+        for (LedgerChunk chunk : chunks) {
+            String key = chunk.page() + ":" + chunk.chunkIndex();
+            current.add(key);
+            if (!chunk.contentHash().equals(knownHashes.get(key))) {
+                changed.add(chunk);
+            }
+        }
+
+        List<StaleChunk> stale = new ArrayList<>();
+        knownIds.forEach((key, documentId) -> {
+            if (!current.contains(key)) {
+                String[] parts = key.split(":");
+                stale.add(new StaleChunk(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), documentId));
+            }
+        });
+
+        return new LedgerDiff(changed, stale, chunks.size() - changed.size());
+    }
+
+    // only call this once the changed chunks are safely in the vector store (and the stale ones removed from it).
+    public void apply(String source, LedgerDiff diff) {
+        if (!diff.changed().isEmpty()) {
+            jdbcTemplate.batchUpdate("""
+                            INSERT INTO vector_ingestion_ledger (source, page, chunk_index, content_hash, document_id)
+                            VALUES (:source, :page, :chunkIndex, :contentHash, :documentId)
+                            ON CONFLICT (source, page, chunk_index)
+                            DO UPDATE SET content_hash = EXCLUDED.content_hash, document_id = EXCLUDED.document_id, updated_at = now()
+                            """,
+                    diff.changed().stream().map(chunk -> params(source, chunk.page(), chunk.chunkIndex())
+                            .addValue("contentHash", chunk.contentHash())
+                            .addValue("documentId", chunk.document().getId())).toArray(MapSqlParameterSource[]::new));
+        }
+        if (!diff.stale().isEmpty()) {
+            jdbcTemplate.batchUpdate("""
+                            DELETE FROM vector_ingestion_ledger
+                            WHERE source = :source AND page = :page AND chunk_index = :chunkIndex
+                            """,
+                    diff.stale().stream().map(chunk -> params(source, chunk.page(), chunk.chunkIndex())).toArray(MapSqlParameterSource[]::new));
+        }
+    }
+
+    // pages past the end of the new file no longer exist, returns the ids that have to be removed from the vector store.
+    public List<String> removePagesAfter(String source, int lastPage) {
+        var params = new MapSqlParameterSource("source", source).addValue("lastPage", lastPage);
+        List<String> documentIds = jdbcTemplate.queryForList(
+                "SELECT document_id FROM vector_ingestion_ledger WHERE source = :source AND page > :lastPage",
+                params, String.class);
+        jdbcTemplate.update("DELETE FROM vector_ingestion_ledger WHERE source = :source AND page > :lastPage", params);
+        return documentIds;
+    }
+
+    public Optional<SourceState> sourceState(String source) {
+        return jdbcTemplate.query(
+                "SELECT file_hash, page_count FROM vector_ingestion_source WHERE source = :source",
+                new MapSqlParameterSource("source", source),
+                (rs, rowNum) -> new SourceState(rs.getString("file_hash"), rs.getInt("page_count"))
+        ).stream().findFirst();
+    }
+
+    public void recordSource(String source, String fileHash, int pageCount) {
+        jdbcTemplate.update("""
+                        INSERT INTO vector_ingestion_source (source, file_hash, page_count) VALUES (:source, :fileHash, :pageCount)
+                        ON CONFLICT (source) DO UPDATE SET file_hash = EXCLUDED.file_hash, page_count = EXCLUDED.page_count, completed_at = now()
+                        """,
+                new MapSqlParameterSource("source", source)
+                        .addValue("fileHash", fileHash)
+                        .addValue("pageCount", pageCount));
+    }
+
+    public void forget(String source) {
+        var params = new MapSqlParameterSource("source", source);
+        jdbcTemplate.update("DELETE FROM vector_ingestion_ledger WHERE source = :source", params);
+        jdbcTemplate.update("DELETE FROM vector_ingestion_source WHERE source = :source", params);
+    }
+
+    private static MapSqlParameterSource params(String source, int page, int chunkIndex) {
+        return new MapSqlParameterSource("source", source)
+                .addValue("page", page)
+                .addValue("chunkIndex", chunkIndex);
+    }
+
+    public record LedgerChunk(int page, int chunkIndex, String contentHash, Document document) {}
+
+    public record StaleChunk(int page, int chunkIndex, String documentId) {}
+
+    public record LedgerDiff(List<LedgerChunk> changed, List<StaleChunk> stale, int unchanged) {
+
+        public List<Document> changedDocuments() {
+            return changed.stream().map(LedgerChunk::document).toList();
+        }
+
+        public List<String> staleDocumentIds() {
+            return stale.stream().map(StaleChunk::documentId).toList();
+        }
+    }
+
+    public record SourceState(String fileHash, int pageCount) {}
+}
@@ -0,0 +1,32 @@
+package com.karandev.learn_spring_ai.ingestion;
+
+import java.time.Duration;
+import java.util.List;
+
+public record IngestionReport(
+        String source,
+        int pagesProcessed,
+        int pagesSkipped,
+        int chunksWritten,
+        List<String> failedPageRanges,
+        Duration duration,
+        long peakHeapBytes
+) {
+
+    public double pagesPerSecond() {
+        return perSecond(pagesProcessed);
+    }
+
+    public double chunksPerSecond() {
+        return perSecond(chunksWritten);
+    }
+
+    public boolean isComplete() {
+        return failedPageRanges.isEmpty();
+    }
+
+    private double perSecond(long count) {
+        double seconds = duration.toNanos() / 1_000_000_000.0;
+        return seconds == 0 ? 0 : count / seconds;
+    }
+}
@@ -0,0 +1,269 @@
+package com.karandev.learn_spring_ai.ingestion;
+
+import com.karandev.learn_spring_ai.outbound.Priority;
+import com.karandev.learn_spring_ai.retrieval.HybridVectorStore;
+import com.karandev.learn_spring_ai.util.Hashing;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*
+    Streaming replacement for "read the whole pdf -> split everything -> one giant vectorStore.add()".
+
+    The reader thread pulls a few pages at a time out of the pdf and hands them to a fixed pool of workers.
+    Each worker splits its pages, and writes the chunks in small batches (PgVectorStore embeds and inserts one batch per add call).
+    A semaphore bounds how many page batches can be in flight, so the reader blocks instead of piling pages up in memory.
+
+    Every chunk goes through the IngestionLedger: chunk ids are derived from (file, page, chunk offset) and only chunks
+    whose text hash changed are embedded. So a re-run after a failure only embeds what did not make it the first time,
+    and an unchanged file is recognised by its hash and skipped without even being parsed.
+
+    The pdf itself is never loaded into the heap: it is hashed as a stream and pdfbox reads it from disk (a resource
+    that is not a file, e.g. inside the jar, is copied to a temp file first).
+ */
+@Slf4j
+@Component
+public class PdfIngestionPipeline {
+
+    private final VectorStore vectorStore; // the hybrid store, so the chunks land in the BM25 index too
+    private final IngestionLedger ingestionLedger;
+    private final int pagesPerBatch;
+    private final int chunkBatchSize;
+    private final int workers;
+    private final int maxAttempts;
+    private final TokenTextSplitter tokenTextSplitter;
+
+    public PdfIngestionPipeline(HybridVectorStore vectorStore,
+                                IngestionLedger ingestionLedger,
+                                @Value("${app.ai.ingestion.pages-per-batch:10}") int pagesPerBatch,
+                                @Value("${app.ai.ingestion.chunk-batch-size:64}") int chunkBatchSize,
+                                @Value("${app.ai.ingestion.workers:4}") int workers,
+                                @Value("${app.ai.ingestion.max-attempts:3}") int maxAttempts) {
+        this.vectorStore = vectorStore;
+        this.ingestionLedger = ingestionLedger;
+        this.pagesPerBatch = pagesPerBatch;
+        this.chunkBatchSize = chunkBatchSize;
+        this.workers = workers;
+        this.maxAttempts = maxAttempts;
+        this.tokenTextSplitter = TokenTextSplitter.builder()
+                .withChunkSize(200)
+                .build();
+    }
+
+    public IngestionReport ingest(Resource pdf) {
+        String source = pdf.getFilename();
+        List<MemoryPoolMXBean> heapPools = heapPools();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        long startTime = System.nanoTime();
+
+        Path tempCopy = null;
+        try {
+            File file;
+            if (pdf.isFile()) {
+                file = pdf.getFile();
+            } else {
+                tempCopy = Files.createTempFile("ingestion-", ".pdf");
+                try (InputStream input = pdf.getInputStream()) {
+                    Files.copy(input, tempCopy, StandardCopyOption.REPLACE_EXISTING);
+                }
+                file = tempCopy.toFile();
+            }
+            return ingest(source, file, heapPools, startTime);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + source, e);
+        } finally {
+            if (tempCopy != null) {
+                try {
+                    Files.deleteIfExists(tempCopy);
+                } catch (IOException e) {
+                    log.warn("Could not delete the temp copy {} of {}", tempCopy, source, e);
+                }
+            }
+        }
+    }
+
+    private IngestionReport ingest(String source, File file, List<MemoryPoolMXBean> heapPools, long startTime) throws IOException {
+        String fileHash;
+        try (InputStream input = Files.newInputStream(file.toPath())) {
+            fileHash = Hashing.sha256(input);
+        }
+        var previousRun = ingestionLedger.sourceState(source);
+        if (previousRun.isPresent() && previousRun.get().fileHash().equals(fileHash)) {
+            log.info("{} is unchanged since the last ingestion, nothing to do", source);
+            return new IngestionReport(source, 0, previousRun.get().pageCount(), 0, List.of(),
+                    Duration.ofNanos(System.nanoTime() - startTime), 0);
+        }
+
+        AtomicInteger pagesProcessed = new AtomicInteger();
+        AtomicInteger chunksWritten = new AtomicInteger();
+        AtomicInteger pagesSkipped = new AtomicInteger();
+        Queue<String> failedPageRanges = new ConcurrentLinkedQueue<>();
+
+        // at most two page batches per worker are read ahead, after that the reader waits for a worker to finish.
+        Semaphore inFlight = new Semaphore(workers * 2);
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        List<Future<?>> futures = new ArrayList<>();
+
+        int totalPages;
+        try (PDDocument document = Loader.loadPDF(file)) { // RandomAccessReadBufferedFile, pages are read on demand
+            totalPages = document.getNumberOfPages();
+            PDFTextStripper stripper = new PDFTextStripper();
+
+            for (int firstPage = 1; firstPage <= totalPages; firstPage += pagesPerBatch) {
+                int lastPage = Math.min(firstPage + pagesPerBatch - 1, totalPages);
+                List<Document> pages = readPages(document, stripper, source, firstPage, lastPage);
+                inFlight.acquire();
+
+                int first = firstPage;
+                futures.add(executor.submit(() -> {
+                    try {
+                        // background priority: questions asked meanwhile get their embeddings first.
+                        int written = Priority.BACKGROUND.call(() -> processPages(source, first, lastPage, pages));
+                        chunksWritten.addAndGet(written);
+                        (written == 0 ? pagesSkipped : pagesProcessed).addAndGet(lastPage - first + 1);
+                    } catch (RuntimeException e) {
+                        log.warn("Ingestion of {} pages {}-{} failed, it will be retried on the next run", source, first, lastPage, e);
+                        failedPageRanges.add(first + "-" + lastPage);
+                    } finally {
+                        inFlight.release();
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Ingestion of " + source + " was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ingestion of " + source + " failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<String> removedPages = ingestionLedger.removePagesAfter(source, totalPages);
+        if (!removedPages.isEmpty()) {
+            vectorStore.delete(removedPages);
+        }
+        if (failedPageRanges.isEmpty()) {
+            ingestionLedger.recordSource(source, fileHash, totalPages);
+        }
+
+        long peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        IngestionReport report = new IngestionReport(source, pagesProcessed.get(), pagesSkipped.get(), chunksWritten.get(),
+                List.copyOf(failedPageRanges), Duration.ofNanos(System.nanoTime() - startTime), peakHeap);
+
+        log.info("Ingested {}: pages={} | skipped={} | chunks={} | pages/s={} | chunks/s={} | peakHeapMb={} | failed={}",
+                source, report.pagesProcessed(), report.pagesSkipped(), report.chunksWritten(),
+                String.format("%.1f", report.pagesPerSecond()), String.format("%.1f", report.chunksPerSecond()),
+                peakHeap / (1024 * 1024), report.failedPageRanges());
+        return report;
+    }
+
+    // forget everything we know about the file, the next ingest() will embed it from scratch.
+    public void resetProgress(String source) {
+        ingestionLedger.forget(source);
+    }
+
+    private List<Document> readPages(PDDocument document, PDFTextStripper stripper, String source,
+                                     int firstPage, int lastPage) throws IOException {
+        List<Document> pages = new ArrayList<>();
+        for (int page = firstPage; page <= lastPage; page++) {
+            stripper.setStartPage(page);
+            stripper.setEndPage(page);
+            String text = stripper.getText(document);
+            if (text.isBlank()) {
+                continue;
+            }
+            // same metadata keys PagePdfDocumentReader uses, so existing filter expressions keep working.
+            pages.add(new Document(text, Map.of("page_number", page, "file_name", source)));
+        }
+        return pages;
+    }
+
+    // returns the number of chunks that actually had to be embedded.
+    private int processPages(String source, int firstPage, int lastPage, List<Document> pages) {
+        Map<Integer, Integer> chunkOffsets = new HashMap<>();
+        List<IngestionLedger.LedgerChunk> chunks = new ArrayList<>();
+        for (Document chunk : tokenTextSplitter.apply(pages)) {
+            int page = (Integer) chunk.getMetadata().get("page_number");
+            int offset = chunkOffsets.merge(page, 1, Integer::sum) - 1;
+            chunks.add(IngestionLedger.chunk(source, page, offset, chunk));
+        }
+
+        Set<Integer> pageNumbers = IntStream.rangeClosed(firstPage, lastPage).boxed().collect(Collectors.toSet());
+        var diff = ingestionLedger.diff(source, pageNumbers, chunks);
+
+        if (!diff.stale().isEmpty()) {
+            vectorStore.delete(diff.staleDocumentIds());
+        }
+        List<Document> changed = diff.changedDocuments();
+        for (int from = 0; from < changed.size(); from += chunkBatchSize) {
+            writeWithRetry(changed.subList(from, Math.min(from + chunkBatchSize, changed.size())));
+        }
+
+        ingestionLedger.apply(source, diff);
+        return changed.size();
+    }
+
+    private void writeWithRetry(List<Document> batch) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                vectorStore.add(batch);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                log.debug("Writing {} chunks failed (attempt {}), retrying", batch.size(), attempt, e);
+                try {
+                    Thread.sleep(500L << (attempt - 1));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .toList();
+    }
+}
@@ -0,0 +1,263 @@
+package com.karandev.learn_spring_ai.memory;
+
+import com.karandev.learn_spring_ai.advisors.ParallelRetrievalAdvisor;
+import com.karandev.learn_spring_ai.outbound.OutboundScheduler;
+import com.karandev.learn_spring_ai.outbound.Priority;
+import com.karandev.learn_spring_ai.prompts.PromptRegistry;
+import com.karandev.learn_spring_ai.util.Tokens;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/*
+    Every turn of askAIWithAdvisors is stored as two vectors (user + assistant) for the long term memory, forever.
+    This folds the old turns of idle conversations into one rolling summary per conversation:
+
+    - conversations with more than minTurns raw turn vectors and no new turn for `idle` are picked, busiest first,
+      and skipped when their short term memory saw a turn within `idle` (/chat writes only there, same id),
+    - the oldest turns, all but the keepRecent newest and at most maxTurnsPerRun / maxTranscriptTokens of them, are
+      summarized together with the previous summary (one chat call), a long backlog takes a few runs,
+    - the summary replaces them in the vector store (same conversationId, messageType SUMMARY, one id per conversation)
+      and goes first into the short term memory as a system message, so it survives the message window
+      (rewritten under the conversation's lock, see WriteBehindChatMemoryRepository.update),
+    - the summarized turn vectors are deleted.
+
+    It must never compete with users: the calls run at BACKGROUND priority on the outbound chat lane, a run is skipped
+    while interactive requests are queued there, and there is a pause between two conversations.
+ */
+@Slf4j
+@Component
+public class ConversationCompactor implements DisposableBean {
+
+    public static final String SUMMARY_MESSAGE_TYPE = "SUMMARY";
+    public static final String SUMMARY_PREFIX = "Summary of the earlier conversation: ";
+
+    private final VectorStore vectorStore;
+    private final ChatModel chatModel;
+    private final WriteBehindChatMemoryRepository chatMemoryRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final OutboundScheduler outboundScheduler;
+    private final PromptRegistry promptRegistry;
+    private final String table;
+    private final Duration idle;
+    private final int minTurns;
+    private final int keepRecent;
+    private final int maxTurnsPerRun;
+    private final int maxTranscriptTokens;
+    private final int maxConversationsPerRun;
+    private final Duration pause;
+
+    private final ScheduledExecutorService scheduler;
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder skippedBusy = new LongAdder();
+    private final LongAdder conversations = new LongAdder();
+    private final LongAdder turnsEvicted = new LongAdder();
+
+    public ConversationCompactor(VectorStore vectorStore,
+                                 ChatModel chatModel,
+                                 WriteBehindChatMemoryRepository chatMemoryRepository,
+                                 JdbcTemplate jdbcTemplate,
+                                 OutboundScheduler outboundScheduler,
+                                 PromptRegistry promptRegistry,
+                                 @Value("${spring.ai.vectorstore.pgvector.schema-name:public}") String schema,
+                                 @Value("${app.ai.vector-partitions.memory-table:chat_memory_vector_store}") String table,
+                                 @Value("${app.ai.memory-compaction.enabled:true}") boolean enabled,
+                                 @Value("${app.ai.memory-compaction.interval:5m}") Duration interval,
+                                 @Value("${app.ai.memory-compaction.idle:10m}") Duration idle,
+                                 @Value("${app.ai.memory-compaction.min-turns:20}") int minTurns,
+                                 @Value("${app.ai.memory-compaction.keep-recent:6}") int keepRecent,
+                                 @Value("${app.ai.memory-compaction.max-turns-per-run:40}") int maxTurnsPerRun,
+                                 @Value("${app.ai.memory-compaction.max-transcript-tokens:6000}") int maxTranscriptTokens,
+                                 @Value("${app.ai.memory-compaction.max-conversations-per-run:10}") int maxConversationsPerRun,
+                                 @Value("${app.ai.memory-compaction.pause:2s}") Duration pause) {
+        this.vectorStore = vectorStore;
+        this.chatModel = chatModel;
+        this.chatMemoryRepository = chatMemoryRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.outboundScheduler = outboundScheduler;
+        this.promptRegistry = promptRegistry;
+        this.table = schema + "." + table;
+        this.idle = idle;
+        this.minTurns = minTurns;
+        this.keepRecent = keepRecent;
+        this.maxTurnsPerRun = maxTurnsPerRun;
+        this.maxTranscriptTokens = maxTranscriptTokens;
+        this.maxConversationsPerRun = maxConversationsPerRun;
+        this.pause = pause;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("conversation-compactor").daemon().factory());
+        if (enabled) {
+            scheduler.scheduleWithFixedDelay(this::compactSafely, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // one pass over the conversations that are due, returns how many were compacted.
+    public int compactAll() {
+        runs.increment();
+        long idleSince = System.currentTimeMillis() - idle.toMillis();
+        List<String> due = jdbcTemplate.queryForList("""
+                SELECT metadata->>'conversationId' FROM %s
+                WHERE metadata->>'conversationId' IS NOT NULL AND metadata->>'messageType' IN ('USER', 'ASSISTANT')
+                GROUP BY 1
+                HAVING count(*) > ? AND coalesce(max((metadata->>'timestamp')::bigint), 0) < ?
+                ORDER BY count(*) DESC
+                LIMIT ?
+                """.formatted(table), String.class, minTurns, idleSince, maxConversationsPerRun);
+
+        int compacted = 0;
+        for (String conversationId : due) {
+            if (outboundScheduler.chat().queueDepth() > 0) {
+                skippedBusy.increment();
+                log.debug("Chat lane is busy, compaction stops after {} conversations", compacted);
+                break;
+            }
+            if (compacted > 0) {
+                sleep(pause);
+            }
+            if (chatMemoryRepository.lastSaved(conversationId) >= idleSince) {
+                skippedBusy.increment(); // idle in the vector store, but talking on /chat right now
+                continue;
+            }
+            compact(conversationId);
+            compacted++;
+        }
+        return compacted;
+    }
+
+    public void compact(String conversationId) {
+        List<Turn> turns = jdbcTemplate.query("""
+                SELECT id, content, metadata->>'messageType' AS message_type FROM %s
+                WHERE metadata->>'conversationId' = ? AND metadata->>'messageType' IN ('USER', 'ASSISTANT')
+                ORDER BY coalesce((metadata->>'timestamp')::bigint, 0), id
+                """.formatted(table), (rs, rowNum) -> new Turn(rs.getString("id"), rs.getString("message_type"),
+                rs.getString("content")), conversationId);
+        if (turns.size() <= keepRecent) {
+            return;
+        }
+        List<Turn> old = oldest(turns.subList(0, turns.size() - keepRecent));
+        String summaryId = summaryId(conversationId);
+        List<String> previous = jdbcTemplate.queryForList("SELECT content FROM " + table + " WHERE id::text = ?",
+                String.class, summaryId);
+
+        String summary = summarize(previous.isEmpty() ? "(none)" : previous.getFirst(), old);
+        if (summary == null || summary.isBlank()) {
+            return;
+        }
+
+        // summary first, then the raw turns go, a failure in between leaves both instead of neither.
+        vectorStore.add(List.of(Document.builder()
+                .id(summaryId)
+                .text(summary)
+                .metadata(Map.of(
+                        ParallelRetrievalAdvisor.CONVERSATION_ID_METADATA, conversationId,
+                        ParallelRetrievalAdvisor.MESSAGE_TYPE_METADATA, SUMMARY_MESSAGE_TYPE,
+                        ParallelRetrievalAdvisor.TIMESTAMP_METADATA, System.currentTimeMillis()))
+                .build()));
+        vectorStore.delete(old.stream().map(Turn::id).toList());
+        keepInShortTermMemory(conversationId, summary);
+
+        conversations.increment();
+        turnsEvicted.add(old.size());
+        log.info("Compacted {} turn vectors of conversation {} into a summary", old.size(), conversationId);
+    }
+
+    public Stats stats() {
+        return new Stats(runs.sum(), skippedBusy.sum(), conversations.sum(), turnsEvicted.sum());
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.shutdownNow();
+    }
+
+    private String summarize(String previousSummary, List<Turn> turns) {
+        String transcript = turns.stream()
+                .map(turn -> turn.messageType() + ": " + turn.text())
+                .collect(Collectors.joining("\n"));
+        Prompt prompt = new Prompt(List.of(
+                new SystemMessage(promptRegistry.get("memory-summary-system").render()),
+                new UserMessage(promptRegistry.get("memory-summary-user")
+                        .render(Map.of("summary", previousSummary, "turns", transcript)))));
+        ChatResponse response = Priority.BACKGROUND.call(() -> chatModel.call(prompt));
+        return response != null && response.getResult() != null ? response.getResult().getOutput().getText() : null;
+    }
+
+    // one prompt per run, sized for the context window: legacy conversations can have thousands of turns.
+    private List<Turn> oldest(List<Turn> old) {
+        int tokens = 0;
+        int n = 0;
+        while (n < old.size() && n < maxTurnsPerRun) {
+            tokens += Tokens.estimate(old.get(n).text());
+            if (n > 0 && tokens > maxTranscriptTokens) {
+                break;
+            }
+            n++;
+        }
+        return old.subList(0, n);
+    }
+
+    /*
+        The old summary is replaced, the rest of the window stays in order behind the new one. Read and rewrite
+        happen under the conversation's lock, so a turn saved meanwhile is kept. The window is one message over
+        its limit until the next turn, MessageWindowChatMemory trims it then and keeps the system message.
+     */
+    private void keepInShortTermMemory(String conversationId, String summary) {
+        chatMemoryRepository.update(conversationId, window -> {
+            List<Message> updated = new ArrayList<>(window.size() + 1);
+            updated.add(new SystemMessage(SUMMARY_PREFIX + summary));
+            window.stream()
+                    .filter(message -> !(message instanceof SystemMessage system
+                            && system.getText() != null && system.getText().startsWith(SUMMARY_PREFIX)))
+                    .forEach(updated::add);
+            return updated;
+        });
+    }
+
+    private void compactSafely() {
+        try {
+            compactAll();
+        } catch (RuntimeException e) {
+            log.warn("Conversation compaction failed, retrying on the next run", e);
+        }
+    }
+
+    private static String summaryId(String conversationId) {
+        return UUID.nameUUIDFromBytes(("summary:" + conversationId).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record Turn(String id, String messageType, String text) {
+    }
+
+    public record Stats(long runs, long skippedBusy, long conversations, long turnsEvicted) {
+    }
+}
@@ -0,0 +1,245 @@
+package com.karandev.learn_spring_ai.memory;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+
+/*
+    MessageWindowChatMemory reads the whole window and then rewrites it (delete + insert) on every single turn.
+    This keeps the window of every active conversation in memory and writes it to the real repository later:
+
+    - reads are served from memory after the first load,
+    - saveAll only replaces the in-memory window and marks the conversation dirty,
+    - a background task flushes dirty conversations in batches, one transaction per batch,
+    - when too many conversations are dirty the caller flushes a batch itself (backpressure),
+    - everything still dirty is flushed on shutdown.
+    - update() rewrites a window under its lock, for background writers (the compactor) that must not lose a turn.
+
+    Locks are striped by conversation id so two users never wait on each other, only turns of the same conversation do.
+ */
+@Slf4j
+public class WriteBehindChatMemoryRepository implements ChatMemoryRepository, DisposableBean {
+
+    private static final int STRIPES = 64;
+
+    private final ChatMemoryRepository delegate;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final int maxDirtyConversations;
+    private final int maxCachedConversations;
+
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Map<String, List<Message>> windows = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final Map<String, Long> savedAt = new ConcurrentHashMap<>(); // last saveAll per cached conversation
+    private final ScheduledExecutorService flusher;
+
+    public WriteBehindChatMemoryRepository(ChatMemoryRepository delegate, TransactionTemplate transactionTemplate,
+                                           Duration flushInterval, int batchSize, int maxDirtyConversations,
+                                           int maxCachedConversations) {
+        this.delegate = delegate;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.maxDirtyConversations = maxDirtyConversations;
+        this.maxCachedConversations = maxCachedConversations;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("chat-memory-flusher").daemon().factory());
+        this.flusher.scheduleWithFixedDelay(this::flushSafely,
+                flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public List<String> findConversationIds() {
+        Set<String> ids = new LinkedHashSet<>(delegate.findConversationIds());
+        ids.addAll(windows.keySet());
+        return new ArrayList<>(ids);
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        List<Message> window = windows.get(conversationId);
+        if (window != null) {
+            return window;
+        }
+        ReentrantLock lock = lockFor(conversationId);
+        lock.lock();
+        try {
+            return windows.computeIfAbsent(conversationId, id -> List.copyOf(delegate.findByConversationId(id)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        ReentrantLock lock = lockFor(conversationId);
+        lock.lock();
+        try {
+            windows.put(conversationId, List.copyOf(messages));
+            dirty.add(conversationId);
+            savedAt.put(conversationId, System.currentTimeMillis());
+        } finally {
+            lock.unlock();
+        }
+
+        if (dirty.size() > maxDirtyConversations) {
+            flush(batchSize); // the background flusher is behind, help it out instead of growing without bound
+        }
+    }
+
+    /*
+        Read, change and write the window in one step, no saveAll of the same conversation can come in between.
+        Does not count as activity, lastSaved() keeps the time of the last real turn.
+     */
+    public void update(String conversationId, UnaryOperator<List<Message>> change) {
+        ReentrantLock lock = lockFor(conversationId);
+        lock.lock();
+        try {
+            List<Message> window = windows.get(conversationId);
+            if (window == null) {
+                window = List.copyOf(delegate.findByConversationId(conversationId));
+            }
+            windows.put(conversationId, List.copyOf(change.apply(window)));
+            dirty.add(conversationId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // millis of the last saveAll, 0 when the conversation is not cached (no turn since startup or evicted as clean).
+    public long lastSaved(String conversationId) {
+        return savedAt.getOrDefault(conversationId, 0L);
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        // the flush lock makes sure a flush in progress cannot write the window back after we deleted it.
+        flushLock.lock();
+        ReentrantLock lock = lockFor(conversationId);
+        lock.lock();
+        try {
+            windows.remove(conversationId);
+            dirty.remove(conversationId);
+            savedAt.remove(conversationId);
+            delegate.deleteByConversationId(conversationId);
+        } finally {
+            lock.unlock();
+            flushLock.unlock();
+        }
+    }
+
+    public int dirtyConversations() {
+        return dirty.size();
+    }
+
+    public void flushAll() {
+        while (!dirty.isEmpty()) {
+            if (flush(Integer.MAX_VALUE) == 0) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        flusher.shutdown();
+        flushAll();
+    }
+
+    // returns how many conversations were written.
+    private int flush(int limit) {
+        flushLock.lock();
+        try {
+            int written = 0;
+            while (!dirty.isEmpty() && written < limit) {
+                Map<String, List<Message>> batch = takeBatch(Math.min(batchSize, limit - written));
+                if (batch.isEmpty()) {
+                    break;
+                }
+                try {
+                    transactionTemplate.executeWithoutResult(status -> batch.forEach(delegate::saveAll));
+                    written += batch.size();
+                } catch (RuntimeException e) {
+                    batch.keySet().forEach(dirty::add); // keep them dirty, the next flush tries again
+                    throw e;
+                }
+            }
+            evictCleanConversations();
+            return written;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private Map<String, List<Message>> takeBatch(int size) {
+        Map<String, List<Message>> batch = new LinkedHashMap<>();
+        for (String conversationId : dirty) {
+            if (batch.size() >= size) {
+                break;
+            }
+            ReentrantLock lock = lockFor(conversationId);
+            lock.lock();
+            try {
+                if (dirty.remove(conversationId)) {
+                    batch.put(conversationId, windows.get(conversationId));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return batch;
+    }
+
+    private void evictCleanConversations() {
+        if (windows.size() <= maxCachedConversations) {
+            return;
+        }
+        for (String conversationId : windows.keySet()) {
+            if (windows.size() <= maxCachedConversations) {
+                return;
+            }
+            ReentrantLock lock = lockFor(conversationId);
+            lock.lock();
+            try {
+                if (!dirty.contains(conversationId)) {
+                    windows.remove(conversationId);
+                    savedAt.remove(conversationId);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush(Integer.MAX_VALUE);
+        } catch (RuntimeException e) {
+            log.warn("Flushing chat memory failed, {} conversations are still pending", dirty.size(), e);
+        }
+    }
+
+    private ReentrantLock lockFor(String conversationId) {
+        return stripes[(conversationId.hashCode() & 0x7fffffff) % STRIPES];
+    }
+}
@@ -0,0 +1,230 @@
+package com.karandev.learn_spring_ai.outbound;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/*
+    One rate limited stream of outbound calls (chat or embeddings), with its own requests-per-minute and
+    tokens-per-minute bucket. Callers queue up by priority (then arrival), a single dispatcher hands out
+    permits as soon as both buckets can pay for the head of the queue. Token costs are estimates up front and
+    settled with the real usage afterwards.
+
+    Identical calls (same coalescing key) that are already queued or running are not sent twice, the later
+    callers get the result of the first one.
+ */
+@Slf4j
+public class OutboundLane implements AutoCloseable {
+
+    private final String name;
+    private final TokenBucket requests;
+    private final TokenBucket tokens;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Ticket> queue = new PriorityQueue<>(
+            Comparator.comparing(Ticket::priority).thenComparingLong(Ticket::sequence));
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    private final Map<Priority, Timer> waitTimers = new EnumMap<>(Priority.class);
+    private final Counter coalesced;
+
+    public OutboundLane(String name, long requestsPerMinute, long tokensPerMinute, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.requests = new TokenBucket(requestsPerMinute);
+        this.tokens = new TokenBucket(tokensPerMinute);
+
+        for (Priority priority : Priority.values()) {
+            waitTimers.put(priority, Timer.builder("ai.outbound.wait")
+                    .tag("lane", name)
+                    .tag("priority", priority.name().toLowerCase())
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry));
+        }
+        coalesced = Counter.builder("ai.outbound.coalesced").tag("lane", name).register(meterRegistry);
+        Gauge.builder("ai.outbound.queue.depth", this, OutboundLane::queueDepth).tag("lane", name).register(meterRegistry);
+        Gauge.builder("ai.outbound.budget.tokens", this, lane -> lane.available(lane.tokens)).tag("lane", name).register(meterRegistry);
+        Gauge.builder("ai.outbound.budget.requests", this, lane -> lane.available(lane.requests)).tag("lane", name).register(meterRegistry);
+
+        dispatcher = Thread.ofVirtual().name("outbound-" + name).start(this::dispatch);
+    }
+
+    /*
+        Runs the call once the budgets allow it and returns its result. actualTokens reads the real token usage
+        from the result, coalescingKey null means the call is never shared.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T call(String coalescingKey, long estimatedTokens, ToLongFunction<T> actualTokens, Supplier<T> call) {
+        if (coalescingKey == null) {
+            return execute(estimatedTokens, actualTokens, call);
+        }
+
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(coalescingKey, mine);
+        if (running != null) {
+            coalesced.increment();
+            return (T) await(running);
+        }
+        try {
+            T result = execute(estimatedTokens, actualTokens, call);
+            mine.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(coalescingKey, mine);
+        }
+    }
+
+    // for streams: the permit completes once the call may start, settle it with the real usage when the stream ends.
+    public CompletableFuture<Permit> acquire(long estimatedTokens) {
+        Ticket ticket = new Ticket(Priority.current(), sequence.incrementAndGet(), Math.max(1, estimatedTokens),
+                System.nanoTime(), new CompletableFuture<>());
+        lock.lock();
+        try {
+            queue.add(ticket);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+        return ticket.permit();
+    }
+
+    public int queueDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        dispatcher.interrupt();
+        lock.lock();
+        try {
+            queue.forEach(ticket -> ticket.permit().completeExceptionally(new IllegalStateException("Outbound lane " + name + " is closed")));
+            queue.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private <T> T execute(long estimatedTokens, ToLongFunction<T> actualTokens, Supplier<T> call) {
+        Permit permit = await(acquire(estimatedTokens));
+        T result = null;
+        try {
+            result = call.get();
+            return result;
+        } finally {
+            permit.settle(result == null ? permit.estimatedTokens() : actualTokens.applyAsLong(result));
+        }
+    }
+
+    private void dispatch() {
+        while (running) {
+            List<Ticket> granted = new ArrayList<>();
+            lock.lock();
+            try {
+                Ticket head = queue.peek();
+                if (head == null) {
+                    changed.await();
+                    continue;
+                }
+                if (head.permit().isDone()) { // the caller gave up (stream cancelled)
+                    queue.poll();
+                    continue;
+                }
+                long waitNanos = Math.max(requests.nanosUntil(1), tokens.nanosUntil(head.estimatedTokens()));
+                if (waitNanos > 0) {
+                    // wakes up early when something with a higher priority is queued.
+                    changed.awaitNanos(waitNanos);
+                    continue;
+                }
+                queue.poll();
+                requests.take(1);
+                tokens.take(head.estimatedTokens());
+                granted.add(head);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            // completed outside the lock, the caller's continuation may run right here.
+            for (Ticket ticket : granted) {
+                waitTimers.get(ticket.priority()).record(System.nanoTime() - ticket.queuedAt(), TimeUnit.NANOSECONDS);
+                ticket.permit().complete(new Permit(this, ticket.estimatedTokens()));
+            }
+        }
+    }
+
+    private void settle(long estimatedTokens, long actualTokens) {
+        if (actualTokens <= 0 || actualTokens == estimatedTokens) {
+            return;
+        }
+        lock.lock();
+        try {
+            tokens.adjust(actualTokens - estimatedTokens);
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private double available(TokenBucket bucket) {
+        lock.lock();
+        try {
+            return bucket.available();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private record Ticket(Priority priority, long sequence, long estimatedTokens, long queuedAt,
+                          CompletableFuture<Permit> permit) {
+    }
+
+    public record Permit(OutboundLane lane, long estimatedTokens) {
+
+        public void settle(long actualTokens) {
+            lane.settle(estimatedTokens, actualTokens);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.karandev.learn_spring_ai.outbound;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/*
+    The OpenAI budgets of this app: one lane for chat completions and one for embeddings, they have separate
+    limits on OpenAI's side. RateLimitedChatModel and RateLimitedEmbeddingModel send every call through them.
+ */
+@Component
+public class OutboundScheduler implements DisposableBean {
+
+    private final OutboundLane chat;
+    private final OutboundLane embedding;
+    private final long completionTokenEstimate;
+
+    public OutboundScheduler(MeterRegistry meterRegistry,
+                             @Value("${app.ai.outbound.chat.requests-per-minute:500}") long chatRequestsPerMinute,
+                             @Value("${app.ai.outbound.chat.tokens-per-minute:200000}") long chatTokensPerMinute,
+                             @Value("${app.ai.outbound.chat.completion-token-estimate:500}") long completionTokenEstimate,
+                             @Value("${app.ai.outbound.embedding.requests-per-minute:3000}") long embeddingRequestsPerMinute,
+                             @Value("${app.ai.outbound.embedding.tokens-per-minute:1000000}") long embeddingTokensPerMinute) {
+        this.chat = new OutboundLane("chat", chatRequestsPerMinute, chatTokensPerMinute, meterRegistry);
+        this.embedding = new OutboundLane("embedding", embeddingRequestsPerMinute, embeddingTokensPerMinute, meterRegistry);
+        this.completionTokenEstimate = completionTokenEstimate;
+    }
+
+    public OutboundLane chat() {
+        return chat;
+    }
+
+    public OutboundLane embedding() {
+        return embedding;
+    }
+
+    // what we reserve for the answer when the request doesn't set max tokens.
+    public long completionTokenEstimate() {
+        return completionTokenEstimate;
+    }
+
+    @Override
+    public void destroy() {
+        chat.close();
+        embedding.close();
+    }
+}
@@ -0,0 +1,36 @@
+package com.karandev.learn_spring_ai.outbound;
+
+import java.util.function.Supplier;
+
+/*
+    Priority of the OpenAI calls made by the current thread, INTERACTIVE unless the caller says otherwise.
+    Background work (ingestion) wraps itself in Priority.BACKGROUND.run(...) so user facing calls overtake it
+    in the OutboundScheduler queues.
+ */
+public enum Priority {
+
+    INTERACTIVE, BACKGROUND;
+
+    private static final ThreadLocal<Priority> CURRENT = ThreadLocal.withInitial(() -> INTERACTIVE);
+
+    public static Priority current() {
+        return CURRENT.get();
+    }
+
+    public <T> T call(Supplier<T> work) {
+        Priority previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return work.get();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    public void run(Runnable work) {
+        call(() -> {
+            work.run();
+            return null;
+        });
+    }
+}
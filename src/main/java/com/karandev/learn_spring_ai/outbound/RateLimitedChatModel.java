@@ -0,0 +1,83 @@
+package com.karandev.learn_spring_ai.outbound;
+
+import com.karandev.learn_spring_ai.util.Hashing;
+import com.karandev.learn_spring_ai.util.Tokens;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.ModelOptionsUtils;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.util.CollectionUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    ChatModel that waits for the chat lane of the OutboundScheduler before calling the real model.
+    The tool round trips OpenAiChatModel makes inside one call are not queued separately, but the usage it reports
+    is cumulative over all of them, so the token bucket is still charged for the whole conversation turn.
+ */
+public class RateLimitedChatModel implements ChatModel {
+
+    private final ChatModel delegate;
+    private final OutboundScheduler scheduler;
+
+    public RateLimitedChatModel(ChatModel delegate, OutboundScheduler scheduler) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return scheduler.chat().call(coalescingKey(prompt), estimate(prompt), RateLimitedChatModel::totalTokens,
+                () -> delegate.call(prompt));
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        long estimate = estimate(prompt);
+        return Mono.fromFuture(() -> scheduler.chat().acquire(estimate))
+                .flatMapMany(permit -> {
+                    AtomicReference<ChatResponse> last = new AtomicReference<>();
+                    return delegate.stream(prompt)
+                            .doOnNext(last::set)
+                            .doFinally(signal -> permit.settle(last.get() != null ? totalTokens(last.get()) : estimate));
+                });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return delegate.getDefaultOptions();
+    }
+
+    private long estimate(Prompt prompt) {
+        Integer maxTokens = prompt.getOptions() != null ? prompt.getOptions().getMaxTokens() : null;
+        return Tokens.estimate(prompt.getContents()) + (maxTokens != null ? maxTokens : scheduler.completionTokenEstimate());
+    }
+
+    /*
+        Identical prompts with identical options can share one call. Calls with a tool context can't, the tools
+        they run act on per request state.
+     */
+    private static String coalescingKey(Prompt prompt) {
+        if (prompt.getOptions() instanceof ToolCallingChatOptions options && !CollectionUtils.isEmpty(options.getToolContext())) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder();
+        for (Message message : prompt.getInstructions()) {
+            key.append(message.getMessageType()).append(':').append(message.getText()).append('\n');
+        }
+        if (prompt.getOptions() != null) {
+            key.append(ModelOptionsUtils.toJsonString(prompt.getOptions()));
+        }
+        return Hashing.sha256(key.toString());
+    }
+
+    private static long totalTokens(ChatResponse response) {
+        var usage = response.getMetadata().getUsage();
+        return usage != null && usage.getTotalTokens() != null ? usage.getTotalTokens() : 0;
+    }
+}
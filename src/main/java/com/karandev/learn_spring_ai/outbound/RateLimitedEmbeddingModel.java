@@ -0,0 +1,49 @@
+package com.karandev.learn_spring_ai.outbound;
+
+import com.karandev.learn_spring_ai.util.Hashing;
+import com.karandev.learn_spring_ai.util.Tokens;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.model.ModelOptionsUtils;
+
+// EmbeddingModel that waits for the embedding lane of the OutboundScheduler before calling the real model.
+public class RateLimitedEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final OutboundScheduler scheduler;
+
+    public RateLimitedEmbeddingModel(EmbeddingModel delegate, OutboundScheduler scheduler) {
+        this.delegate = delegate;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        long estimate = request.getInstructions().stream().mapToLong(Tokens::estimate).sum();
+        return scheduler.embedding().call(coalescingKey(request), estimate,
+                response -> response.getMetadata().getUsage() != null && response.getMetadata().getUsage().getTotalTokens() != null
+                        ? response.getMetadata().getUsage().getTotalTokens()
+                        : estimate,
+                () -> delegate.call(request));
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        String text = document.getFormattedContent(MetadataMode.EMBED);
+        return scheduler.embedding().call(Hashing.sha256("document:" + text), Tokens.estimate(text), vector -> Tokens.estimate(text),
+                () -> delegate.embed(document));
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+
+    private static String coalescingKey(EmbeddingRequest request) {
+        return Hashing.sha256(String.join("\u0000", request.getInstructions())
+                + ModelOptionsUtils.toJsonString(request.getOptions()));
+    }
+}
@@ -0,0 +1,233 @@
+package com.karandev.learn_spring_ai.outbound;
+
+import com.karandev.learn_spring_ai.util.Tokens;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.util.CollectionUtils;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    ChatModel in front of a cheap local model (Ollama) and the remote one (OpenAI, rate limited).
+
+    Where a request goes:
+        hint        the last user message carries ROUTE_METADATA = LOCAL or REMOTE (getJoke asks for LOCAL, the RAG
+                    answers for REMOTE), the caller knows best
+        size        otherwise small prompts (estimated tokens and messages under the limits, e.g. a short /chat turn
+                    with a tool lookup) go LOCAL, everything else REMOTE
+
+    A local call that fails falls back to the remote model. With racing on, a local call that has not answered
+    within the SLO gets the remote model started next to it, the first answer wins and the other call is cancelled
+    (its thread interrupted). Prompts with tools are neither raced nor retried remotely: the local model runs the
+    tools inside its call, a second model would run them again (a booking twice).
+
+    Metrics: ai.model.routing.decisions{route,reason}, ai.model.routing.duration{route} (per model called),
+    ai.model.routing.race{winner} and ai.model.routing.fallbacks.
+ */
+@Slf4j
+public class RoutingChatModel implements ChatModel {
+
+    public static final String ROUTE_METADATA = "route";
+
+    public enum Route {
+        LOCAL, REMOTE
+    }
+
+    private final ChatModel local;
+    private final ChatModel remote;
+    private final Executor executor;
+    private final int localMaxTokens;
+    private final int localMaxMessages;
+    private final boolean race;
+    private final Duration slo;
+    private final MeterRegistry meterRegistry;
+
+    public RoutingChatModel(ChatModel local, ChatModel remote, Executor executor, int localMaxTokens,
+                            int localMaxMessages, boolean race, Duration slo, MeterRegistry meterRegistry) {
+        this.local = local;
+        this.remote = remote;
+        this.executor = executor;
+        this.localMaxTokens = localMaxTokens;
+        this.localMaxMessages = localMaxMessages;
+        this.race = race;
+        this.slo = slo;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        if (route(prompt) == Route.REMOTE) {
+            return timedCall(Route.REMOTE, prompt);
+        }
+        if (race && !hasTools(prompt)) {
+            return race(prompt);
+        }
+        if (hasTools(prompt)) {
+            return timedCall(Route.LOCAL, prompt); // the tools it ran before failing would run again remotely
+        }
+        try {
+            return timedCall(Route.LOCAL, prompt);
+        } catch (RuntimeException e) {
+            log.warn("Local model failed, falling back to the remote one", e);
+            fallbacks().increment();
+            return timedCall(Route.REMOTE, prompt);
+        }
+    }
+
+    // no racing for streams, a local stream without tools that fails before its first token is retried remotely.
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        if (route(prompt) == Route.REMOTE) {
+            return remote.stream(prompt);
+        }
+        if (hasTools(prompt)) {
+            return local.stream(localPrompt(prompt));
+        }
+        AtomicBoolean started = new AtomicBoolean();
+        return local.stream(localPrompt(prompt))
+                .doOnNext(response -> started.set(true))
+                .onErrorResume(e -> !started.get(), e -> {
+                    log.warn("Local model failed, falling back to the remote one", e);
+                    fallbacks().increment();
+                    return remote.stream(prompt);
+                });
+    }
+
+    @Override
+    public ChatOptions getDefaultOptions() {
+        return remote.getDefaultOptions();
+    }
+
+    Route route(Prompt prompt) {
+        Object hint = prompt.getUserMessage().getMetadata().get(ROUTE_METADATA);
+        if (hint != null) {
+            Route route = Route.valueOf(hint.toString());
+            decision(route, "hint");
+            return route;
+        }
+        Route route = Tokens.estimate(prompt.getContents()) <= localMaxTokens
+                && prompt.getInstructions().size() <= localMaxMessages ? Route.LOCAL : Route.REMOTE;
+        decision(route, "size");
+        return route;
+    }
+
+    private ChatResponse race(Prompt prompt) {
+        ExecutorCompletionService<Answer> racers = new ExecutorCompletionService<>(executor);
+        Future<Answer> localCall = racers.submit(() -> new Answer(Route.LOCAL, timedCall(Route.LOCAL, prompt)));
+        Future<Answer> remoteCall = null;
+        try {
+            Future<Answer> first = racers.poll(slo.toNanos(), TimeUnit.NANOSECONDS);
+            if (first != null) { // within the SLO, no race
+                try {
+                    return first.get().response();
+                } catch (ExecutionException e) {
+                    log.warn("Local model failed, falling back to the remote one", e.getCause());
+                    fallbacks().increment();
+                    return timedCall(Route.REMOTE, prompt);
+                }
+            }
+
+            // first answer wins, a failed call leaves it to the other one
+            remoteCall = racers.submit(() -> new Answer(Route.REMOTE, timedCall(Route.REMOTE, prompt)));
+            ExecutionException failure = null;
+            for (int i = 0; i < 2; i++) {
+                try {
+                    Answer answer = racers.take().get();
+                    Counter.builder("ai.model.routing.race")
+                            .tag("winner", answer.route().name().toLowerCase())
+                            .register(meterRegistry)
+                            .increment();
+                    return answer.response();
+                } catch (ExecutionException e) {
+                    failure = e;
+                }
+            }
+            throw unwrap(failure);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the chat models", e);
+        } finally {
+            // the loser, or both when we were interrupted
+            localCall.cancel(true);
+            if (remoteCall != null) {
+                remoteCall.cancel(true);
+            }
+        }
+    }
+
+    private ChatResponse timedCall(Route route, Prompt prompt) {
+        long start = System.nanoTime();
+        try {
+            return route == Route.LOCAL ? local.call(localPrompt(prompt)) : remote.call(prompt);
+        } finally {
+            Timer.builder("ai.model.routing.duration")
+                    .tag("route", route.name().toLowerCase())
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /*
+        ChatClient fills the options from getDefaultOptions(), which are the remote model's. Sent to Ollama as they
+        are, the OpenAI model name would replace the local one, so only the portable options are kept.
+     */
+    private static Prompt localPrompt(Prompt prompt) {
+        ChatOptions options = prompt.getOptions();
+        if (options == null) {
+            return prompt;
+        }
+        ChatOptions portable = options instanceof ToolCallingChatOptions tools
+                ? ToolCallingChatOptions.builder()
+                        .toolCallbacks(tools.getToolCallbacks())
+                        .toolNames(tools.getToolNames())
+                        .toolContext(tools.getToolContext())
+                        .internalToolExecutionEnabled(tools.getInternalToolExecutionEnabled())
+                        .temperature(tools.getTemperature())
+                        .maxTokens(tools.getMaxTokens())
+                        .build()
+                : ChatOptions.builder()
+                        .temperature(options.getTemperature())
+                        .maxTokens(options.getMaxTokens())
+                        .build();
+        return new Prompt(prompt.getInstructions(), portable);
+    }
+
+    private static boolean hasTools(Prompt prompt) {
+        return prompt.getOptions() instanceof ToolCallingChatOptions tools
+                && (!CollectionUtils.isEmpty(tools.getToolCallbacks()) || !CollectionUtils.isEmpty(tools.getToolNames()));
+    }
+
+    private static RuntimeException unwrap(ExecutionException e) {
+        return e.getCause() instanceof RuntimeException runtime ? runtime : new IllegalStateException(e.getCause());
+    }
+
+    private void decision(Route route, String reason) {
+        Counter.builder("ai.model.routing.decisions")
+                .tag("route", route.name().toLowerCase())
+                .tag("reason", reason)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private Counter fallbacks() {
+        return Counter.builder("ai.model.routing.fallbacks").register(meterRegistry);
+    }
+
+    private record Answer(Route route, ChatResponse response) {
+    }
+}
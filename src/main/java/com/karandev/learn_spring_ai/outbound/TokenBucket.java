@@ -0,0 +1,55 @@
+package com.karandev.learn_spring_ai.outbound;
+
+/*
+    Classic token bucket: holds up to capacity tokens and refills capacity tokens per minute, continuously.
+    Not thread safe, OutboundLane only touches it under its lock.
+ */
+class TokenBucket {
+
+    private static final double NANOS_PER_MINUTE = 60_000_000_000d;
+
+    private final long capacity;
+    private final double refillPerNano;
+    private double available;
+    private long refilledAt;
+
+    TokenBucket(long perMinute) {
+        this.capacity = perMinute;
+        this.refillPerNano = perMinute / NANOS_PER_MINUTE;
+        this.available = perMinute;
+        this.refilledAt = System.nanoTime();
+    }
+
+    long capacity() {
+        return capacity;
+    }
+
+    double available() {
+        refill();
+        return available;
+    }
+
+    // how long until the bucket holds the given amount, 0 if it already does.
+    long nanosUntil(long amount) {
+        refill();
+        double missing = Math.min(amount, capacity) - available;
+        return missing <= 0 ? 0 : (long) Math.ceil(missing / refillPerNano);
+    }
+
+    void take(long amount) {
+        refill();
+        available -= amount;
+    }
+
+    // the estimate was off, settle the difference (the bucket may go below zero, later callers then wait a bit longer).
+    void adjust(long delta) {
+        refill();
+        available = Math.min(capacity, available - delta);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - refilledAt) * refillPerNano);
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,94 @@
+package com.karandev.learn_spring_ai.prompts;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+    A prompt template parsed once: literal parts and {variable} slots. Rendering is one pre-sized StringBuilder,
+    no parsing and no template engine per request (PromptTemplate re-parses its StringTemplate every time).
+    Only plain {name} placeholders are supported, which is all our templates use.
+ */
+public final class CompiledPrompt {
+
+    private final String name;
+    private final String[] literals; // literals[i] comes before variables[i], the last one after the last variable
+    private final String[] variables;
+    private final int literalLength;
+
+    private CompiledPrompt(String name, String[] literals, String[] variables) {
+        this.name = name;
+        this.literals = literals;
+        this.variables = variables;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    public static CompiledPrompt compile(String name, String template) {
+        List<String> literals = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+        int from = 0;
+        while (true) {
+            int open = template.indexOf('{', from);
+            if (open < 0) {
+                break;
+            }
+            int close = template.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Prompt '" + name + "' has an unclosed '{' at " + open);
+            }
+            String variable = template.substring(open + 1, close).strip();
+            if (variable.isEmpty() || !variable.chars().allMatch(c -> Character.isLetterOrDigit(c) || c == '_')) {
+                throw new IllegalArgumentException("Prompt '" + name + "' has an invalid placeholder '{" + variable + "}'");
+            }
+            literals.add(template.substring(from, open));
+            variables.add(variable);
+            from = close + 1;
+        }
+        literals.add(template.substring(from));
+        return new CompiledPrompt(name, literals.toArray(String[]::new), variables.toArray(String[]::new));
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public Set<String> variables() {
+        return new LinkedHashSet<>(List.of(variables));
+    }
+
+    // a template without placeholders, the same String every time.
+    public String render() {
+        if (variables.length > 0) {
+            throw new IllegalArgumentException("Prompt '" + name + "' needs " + variables());
+        }
+        return literals[0];
+    }
+
+    public String render(String variable, Object value) {
+        return render(Map.of(variable, value));
+    }
+
+    public String render(Map<String, ?> values) {
+        String[] rendered = new String[variables.length];
+        int length = literalLength;
+        for (int i = 0; i < variables.length; i++) {
+            Object value = values.get(variables[i]);
+            if (value == null) {
+                throw new IllegalArgumentException("Prompt '" + name + "' is missing a value for '" + variables[i] + "'");
+            }
+            rendered[i] = value.toString();
+            length += rendered[i].length();
+        }
+        StringBuilder prompt = new StringBuilder(length);
+        for (int i = 0; i < variables.length; i++) {
+            prompt.append(literals[i]).append(rendered[i]);
+        }
+        return prompt.append(literals[variables.length]).toString();
+    }
+}
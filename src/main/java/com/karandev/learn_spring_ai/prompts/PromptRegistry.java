@@ -0,0 +1,50 @@
+package com.karandev.learn_spring_ai.prompts;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.core.io.support.ResourcePatternUtils;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    All prompts of the app, compiled once at startup from src/main/resources/prompts/<name>.st.
+
+    They are written for provider side prefix caching (OpenAI caches the longest prefix it has seen, from 1024 tokens):
+    the static instructions are a system prompt of their own, rendered once, and anything per user or per request
+    (user id, retrieved context, memory) goes into the last user message. Two users then share the same prefix.
+ */
+@Slf4j
+@Component
+public class PromptRegistry {
+
+    private final Map<String, CompiledPrompt> prompts = new HashMap<>();
+
+    public PromptRegistry(ResourceLoader resourceLoader,
+                          @Value("${app.ai.prompts.location:classpath:prompts/*.st}") String location) {
+        try {
+            for (Resource resource : ResourcePatternUtils.getResourcePatternResolver(resourceLoader).getResources(location)) {
+                String filename = resource.getFilename();
+                String name = filename.substring(0, filename.length() - ".st".length());
+                prompts.put(name, CompiledPrompt.compile(name, resource.getContentAsString(StandardCharsets.UTF_8)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load prompts from " + location, e);
+        }
+        log.info("Compiled {} prompts from {}", prompts.size(), location);
+    }
+
+    public CompiledPrompt get(String name) {
+        CompiledPrompt prompt = prompts.get(name);
+        if (prompt == null) {
+            throw new IllegalArgumentException("No prompt named '" + name + "', known: " + prompts.keySet());
+        }
+        return prompt;
+    }
+}
@@ -1,10 +1,16 @@
 package com.karandev.learn_spring_ai.repository;
 
+import com.karandev.learn_spring_ai.dto.BookingKey;
+import com.karandev.learn_spring_ai.entity.BookingStatus;
 import com.karandev.learn_spring_ai.entity.FlightBooking;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -13,4 +19,42 @@ public interface FlightBookingRepository extends JpaRepository<FlightBooking, Lo
     List<FlightBooking> findByUserIdOrderByDepartureTimeDesc(String userId);
 
     boolean existsByUserIdAndDestinationAndDepartureTime(String userId, String destination, Instant departureTime);
+
+    /*
+        Keyset pages, both served by the (userId, departureTime) index: the position is the last row of the previous
+        page instead of an offset, so page 50 costs the same as page 1. id breaks ties between equal departure times.
+     */
+    @Query("""
+            select b from FlightBooking b
+            where b.userId = :userId and b.bookingStatus in :statuses
+              and (b.departureTime > :afterTime or (b.departureTime = :afterTime and b.id > :afterId))
+            order by b.departureTime asc, b.id asc
+            """)
+    List<FlightBooking> findUpcomingPage(@Param("userId") String userId,
+                                         @Param("statuses") Collection<BookingStatus> statuses,
+                                         @Param("afterTime") Instant afterTime,
+                                         @Param("afterId") long afterId,
+                                         Limit limit);
+
+    @Query("""
+            select b from FlightBooking b
+            where b.userId = :userId and b.bookingStatus in :statuses
+              and (b.departureTime < :beforeTime or (b.departureTime = :beforeTime and b.id < :beforeId))
+            order by b.departureTime desc, b.id desc
+            """)
+    List<FlightBooking> findPastPage(@Param("userId") String userId,
+                                     @Param("statuses") Collection<BookingStatus> statuses,
+                                     @Param("beforeTime") Instant beforeTime,
+                                     @Param("beforeId") long beforeId,
+                                     Limit limit);
+
+    // one query for a slice of a batch (the service keeps it under the bind parameter limit), may return a few extra combinations, the caller matches the exact keys.
+    @Query("""
+            select new com.karandev.learn_spring_ai.dto.BookingKey(b.userId, b.destination, b.departureTime)
+            from FlightBooking b
+            where b.userId = :userId and b.destination in :destinations and b.departureTime in :departureTimes
+            """)
+    List<BookingKey> findExistingKeys(@Param("userId") String userId,
+                                      @Param("destinations") Collection<String> destinations,
+                                      @Param("departureTimes") Collection<Instant> departureTimes);
 }
@@ -0,0 +1,209 @@
+package com.karandev.learn_spring_ai.retrieval;
+
+import com.karandev.learn_spring_ai.vectorstore.MetadataFilter;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+    In-memory inverted index with BM25 scoring, the lexical half of HybridVectorStore.
+
+    Dense embeddings are bad at exact terms: class names, property keys and error codes from the slides come back
+    as "something about advisors". Here a term either is in a chunk or it is not.
+    Identifiers are indexed whole and split, "QuestionAnswerAdvisor" matches both itself and "advisor".
+ */
+public class Bm25Index {
+
+    private static final Pattern TOKEN = Pattern.compile("[\\p{L}\\p{N}_]+");
+    private static final Pattern IDENTIFIER_PART = Pattern.compile("\\p{Lu}?\\p{Ll}+|\\p{Lu}+(?!\\p{Ll})|\\p{N}+");
+
+    private final double k1;
+    private final double b;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Map<Integer, Integer>> postings = new HashMap<>(); // term -> doc number -> term frequency
+    private final List<Entry> entries = new ArrayList<>(); // by doc number, null once removed
+    private final Map<String, Integer> docNumbers = new HashMap<>();
+    private long totalLength;
+
+    public Bm25Index() {
+        this(1.2, 0.75);
+    }
+
+    public Bm25Index(double k1, double b) {
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    public void add(List<Document> documents) {
+        lock.writeLock().lock();
+        try {
+            for (Document document : documents) {
+                remove(document.getId());
+                insert(document);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // for bulk loads that can race newer writes: a document already indexed is kept, returns how many were added.
+    public int addIfAbsent(List<Document> documents) {
+        lock.writeLock().lock();
+        try {
+            int added = 0;
+            for (Document document : documents) {
+                if (!docNumbers.containsKey(document.getId())) {
+                    insert(document);
+                    added++;
+                }
+            }
+            return added;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void delete(Collection<String> ids) {
+        lock.writeLock().lock();
+        try {
+            ids.forEach(this::remove);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void delete(Filter.Expression filterExpression) {
+        lock.writeLock().lock();
+        try {
+            List<String> matching = new ArrayList<>();
+            for (Entry entry : entries) {
+                if (entry != null && MetadataFilter.matches(filterExpression, entry.document().getMetadata())) {
+                    matching.add(entry.document().getId());
+                }
+            }
+            matching.forEach(this::remove);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // best `topK` documents for the query, filterExpression may be null.
+    public List<Hit> search(String query, int topK, Filter.Expression filterExpression) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        lock.readLock().lock();
+        try {
+            int documentCount = docNumbers.size();
+            if (documentCount == 0 || terms.isEmpty()) {
+                return List.of();
+            }
+            double averageLength = (double) totalLength / documentCount;
+            Map<Integer, Double> scores = new HashMap<>();
+            Map<Integer, Boolean> accepted = new HashMap<>();
+
+            for (String term : terms) {
+                Map<Integer, Integer> postingList = postings.get(term);
+                if (postingList == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (documentCount - postingList.size() + 0.5) / (postingList.size() + 0.5));
+                postingList.forEach((docNumber, frequency) -> {
+                    Entry entry = entries.get(docNumber);
+                    if (filterExpression != null && !accepted.computeIfAbsent(docNumber,
+                            n -> MetadataFilter.matches(filterExpression, entry.document().getMetadata()))) {
+                        return;
+                    }
+                    double norm = k1 * (1 - b + b * entry.length() / averageLength);
+                    scores.merge(docNumber, idf * frequency * (k1 + 1) / (frequency + norm), Double::sum);
+                });
+            }
+
+            return scores.entrySet().stream()
+                    .sorted(Map.Entry.<Integer, Double>comparingByValue().reversed())
+                    .limit(topK)
+                    .map(e -> new Hit(entries.get(e.getKey()).document(), e.getValue()))
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docNumbers.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // under the write lock
+    private void insert(Document document) {
+        List<String> terms = tokenize(document.getText());
+        Map<String, Integer> frequencies = new HashMap<>();
+        terms.forEach(term -> frequencies.merge(term, 1, Integer::sum));
+
+        int docNumber = entries.size();
+        entries.add(new Entry(document, terms.size(), frequencies.keySet()));
+        docNumbers.put(document.getId(), docNumber);
+        totalLength += terms.size();
+        frequencies.forEach((term, frequency) ->
+                postings.computeIfAbsent(term, t -> new HashMap<>()).put(docNumber, frequency));
+    }
+
+    // under the write lock. Doc numbers are not reused, removals only happen on re-ingestion.
+    private void remove(String id) {
+        Integer docNumber = docNumbers.remove(id);
+        if (docNumber == null) {
+            return;
+        }
+        Entry entry = entries.set(docNumber, null);
+        totalLength -= entry.length();
+        for (String term : entry.terms()) {
+            Map<Integer, Integer> postingList = postings.get(term);
+            postingList.remove(docNumber);
+            if (postingList.isEmpty()) {
+                postings.remove(term);
+            }
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        Matcher tokens = TOKEN.matcher(text);
+        while (tokens.find()) {
+            String token = tokens.group();
+            terms.add(token.toLowerCase(Locale.ROOT));
+            // camelCase and snake_case parts, only when there is more than one
+            List<String> parts = new ArrayList<>();
+            Matcher identifierParts = IDENTIFIER_PART.matcher(token);
+            while (identifierParts.find()) {
+                parts.add(identifierParts.group().toLowerCase(Locale.ROOT));
+            }
+            if (parts.size() > 1) {
+                terms.addAll(parts);
+            }
+        }
+        return terms;
+    }
+
+    public record Hit(Document document, double score) {
+    }
+
+    private record Entry(Document document, int length, Set<String> terms) {
+    }
+}
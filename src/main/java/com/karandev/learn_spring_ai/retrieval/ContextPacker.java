@@ -0,0 +1,187 @@
+package com.karandev.learn_spring_ai.retrieval;
+
+import com.karandev.learn_spring_ai.util.Tokens;
+import com.karandev.learn_spring_ai.vectorstore.VectorLookup;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+    Fits the retrieved context of a prompt into a token budget instead of pasting in whatever came back.
+
+        knowledge         by relevance, up to knowledgeShare of the budget. Near duplicates (cosine >= duplicateSimilarity
+                          to a chunk already kept) are dropped, overlapping chunks of the same page are common.
+        short term memory newest first with what is left, the oldest messages go first.
+        long term memory  last, it is older than anything in the short term memory. Entries that repeat a message
+                          we already kept are dropped.
+
+    Token counts of ingested chunks come from their metadata (Tokens.METADATA_KEY), everything else is estimated.
+    The vectors for the duplicate check come from the in-process vector stores (VectorLookup), a document they do not
+    know is only compared by text.
+ */
+@Component
+public class ContextPacker {
+
+    private final Function<String, float[]> vectors; // document id -> normalized vector, or null
+    private final int maxTokens;
+    private final double knowledgeShare;
+    private final double duplicateSimilarity;
+
+    @Autowired
+    public ContextPacker(ObjectProvider<VectorStore> vectorStore,
+                         @Value("${app.ai.context.max-tokens:2000}") int maxTokens,
+                         @Value("${app.ai.context.knowledge-share:0.6}") double knowledgeShare,
+                         @Value("${app.ai.context.duplicate-similarity:0.95}") double duplicateSimilarity) {
+        this(id -> {
+            VectorStore store = vectorStore.getIfAvailable();
+            return store instanceof VectorLookup lookup ? lookup.vector(id) : null;
+        }, maxTokens, knowledgeShare, duplicateSimilarity);
+    }
+
+    public ContextPacker(Function<String, float[]> vectors, int maxTokens, double knowledgeShare, double duplicateSimilarity) {
+        this.vectors = vectors;
+        this.maxTokens = maxTokens;
+        this.knowledgeShare = knowledgeShare;
+        this.duplicateSimilarity = duplicateSimilarity;
+    }
+
+    public int knowledgeBudget() {
+        return (int) (maxTokens * knowledgeShare);
+    }
+
+    public Context pack(List<Message> history, List<Document> longTermMemory, List<Document> knowledge) {
+        Packed<Document> packedKnowledge = documents(knowledge, knowledgeBudget());
+        int remaining = maxTokens - packedKnowledge.tokens();
+
+        Packed<Message> packedHistory = history(history, remaining);
+        remaining -= packedHistory.tokens();
+
+        Set<String> remembered = packedHistory.kept().stream()
+                .map(Message::getText)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        int repeated = 0;
+        List<Document> unseen = new ArrayList<>(longTermMemory.size());
+        for (Document document : longTermMemory) {
+            if (remembered.contains(document.getText())) {
+                repeated += Tokens.of(document);
+            } else {
+                unseen.add(document);
+            }
+        }
+        Packed<Document> packedLongTerm = documents(unseen, remaining);
+
+        return new Context(packedHistory.kept(), packedLongTerm.kept(), packedKnowledge.kept(),
+                packedKnowledge.tokens() + packedHistory.tokens() + packedLongTerm.tokens(),
+                packedKnowledge.dropped() + packedHistory.dropped() + packedLongTerm.dropped() + repeated);
+    }
+
+    // best first: keeps what fits and is not a near duplicate of something kept, a big chunk can make room for a smaller one.
+    public Packed<Document> documents(List<Document> ranked, int budget) {
+        List<Document> kept = new ArrayList<>();
+        List<float[]> keptVectors = new ArrayList<>();
+        int used = 0;
+        int dropped = 0;
+        for (Document document : ranked) {
+            int tokens = Tokens.of(document);
+            float[] vector = vectors.apply(document.getId());
+            if (used + tokens > budget || isDuplicate(document, vector, kept, keptVectors)) {
+                dropped += tokens;
+                continue;
+            }
+            kept.add(document);
+            keptVectors.add(vector);
+            used += tokens;
+        }
+        return new Packed<>(kept, used, dropped);
+    }
+
+    // oldest first in and out: keeps the newest messages that fit, without gaps. System messages (the rolling summary
+    // of ConversationCompactor) stand for everything older and get the budget first, one that does not fit is cut
+    // to what is left (or dropped when nothing is).
+    public Packed<Message> history(List<Message> history, int budget) {
+        List<Message> pinned = new ArrayList<>();
+        List<Message> turns = new ArrayList<>(history.size());
+        int used = 0;
+        int dropped = 0;
+        for (Message message : history) {
+            if (message.getMessageType() != MessageType.SYSTEM) {
+                turns.add(message);
+                continue;
+            }
+            String text = message.getText() == null ? "" : message.getText();
+            int tokens = Tokens.estimate(text);
+            int left = budget - used;
+            if (tokens <= left) {
+                pinned.add(message);
+                used += tokens;
+            } else if (left > 0) {
+                String cut = text.substring(0, Math.min(text.length(), left * 4));
+                pinned.add(new SystemMessage(cut));
+                used += Tokens.estimate(cut);
+                dropped += tokens - Tokens.estimate(cut);
+            } else {
+                dropped += tokens;
+            }
+        }
+        int from = turns.size();
+        while (from > 0) {
+            int tokens = Tokens.estimate(turns.get(from - 1).getText());
+            if (used + tokens > budget) {
+                break;
+            }
+            used += tokens;
+            from--;
+        }
+        for (int i = 0; i < from; i++) {
+            dropped += Tokens.estimate(turns.get(i).getText());
+        }
+        if (pinned.isEmpty()) {
+            return new Packed<>(Collections.unmodifiableList(turns.subList(from, turns.size())), used, dropped);
+        }
+        List<Message> kept = new ArrayList<>(pinned);
+        kept.addAll(turns.subList(from, turns.size()));
+        return new Packed<>(kept, used, dropped);
+    }
+
+    private boolean isDuplicate(Document document, float[] vector, List<Document> kept, List<float[]> keptVectors) {
+        for (int i = 0; i < kept.size(); i++) {
+            float[] other = keptVectors.get(i);
+            if (vector != null && other != null ? dot(vector, other) >= duplicateSimilarity
+                    : Objects.equals(document.getText(), kept.get(i).getText())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double dot = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+        }
+        return dot;
+    }
+
+    // tokens = what is kept, dropped = tokens left out (over budget or duplicate)
+    public record Packed<T>(List<T> kept, int tokens, int dropped) {
+    }
+
+    public record Context(List<Message> history, List<Document> longTermMemory, List<Document> knowledge,
+                          int tokens, int tokensSaved) {
+    }
+}
@@ -0,0 +1,172 @@
+package com.karandev.learn_spring_ai.retrieval;
+
+import com.karandev.learn_spring_ai.util.MetadataJson;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/*
+    Knowledge base search that runs the vector search of the delegate and a BM25 search at the same time and merges
+    the two rankings with reciprocal rank fusion: score(d) = sum over both lists of 1 / (rrfK + rank(d)).
+    RRF only looks at ranks, so cosine similarities and BM25 scores never have to be put on one scale.
+
+    It is a VectorStore, so it plugs into QuestionAnswerAdvisor and ParallelRetrievalAdvisor as is. Writes go to
+    the delegate and the lexical index, the ingestion writes through it. The similarity threshold of a request only
+    applies to the vector side, an exact term hit is kept however far its embedding is. Returned documents carry
+    the fused score.
+
+    The lexical index is rebuilt from the text of the knowledge and demo tables at startup (no embeddings, chat memory
+    rows excluded). It runs in the background, until it is done searches are vector only.
+ */
+@Slf4j
+public class HybridVectorStore implements VectorStore, InitializingBean {
+
+    private final VectorStore delegate;
+    private final Bm25Index lexicalIndex;
+    private final JdbcTemplate jdbcTemplate; // null = start with an empty lexical index
+    private final List<String> tables;
+    private final Executor executor;
+    private final int rrfK;
+    private final int candidates;
+    private final MeterRegistry meterRegistry;
+
+    public HybridVectorStore(VectorStore delegate, Bm25Index lexicalIndex, JdbcTemplate jdbcTemplate, List<String> tables,
+                             Executor executor, int rrfK, int candidates, MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.lexicalIndex = lexicalIndex;
+        this.jdbcTemplate = jdbcTemplate;
+        this.tables = tables;
+        this.executor = executor;
+        this.rrfK = rrfK;
+        this.candidates = candidates;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (jdbcTemplate != null) {
+            Thread.ofVirtual().name("bm25-index-load").start(this::loadLexicalIndex);
+        }
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        delegate.add(documents);
+        lexicalIndex.add(documents);
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        delegate.delete(idList);
+        lexicalIndex.delete(idList);
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        delegate.delete(filterExpression);
+        lexicalIndex.delete(filterExpression);
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        long start = System.nanoTime();
+        int depth = Math.max(candidates, request.getTopK());
+
+        CompletableFuture<List<Bm25Index.Hit>> lexical = CompletableFuture.supplyAsync(() -> timed("lexical",
+                () -> lexicalIndex.search(request.getQuery(), depth, request.getFilterExpression())), executor);
+        List<Document> dense = timed("dense", () -> delegate.similaritySearch(SearchRequest.from(request)
+                .topK(depth)
+                .build()));
+        List<Bm25Index.Hit> lexicalHits = lexical.join();
+
+        Map<String, Double> fused = new LinkedHashMap<>();
+        Map<String, Document> byId = new HashMap<>();
+        for (int rank = 0; rank < dense.size(); rank++) {
+            Document document = dense.get(rank);
+            fused.merge(document.getId(), 1.0 / (rrfK + rank + 1), Double::sum);
+            byId.putIfAbsent(document.getId(), document);
+        }
+        for (int rank = 0; rank < lexicalHits.size(); rank++) {
+            Document document = lexicalHits.get(rank).document();
+            fused.merge(document.getId(), 1.0 / (rrfK + rank + 1), Double::sum);
+            byId.putIfAbsent(document.getId(), document); // the dense copy wins, it has the distance
+        }
+
+        List<Document> results = new ArrayList<>(request.getTopK());
+        fused.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                .limit(request.getTopK())
+                .forEach(e -> {
+                    Document document = byId.get(e.getKey());
+                    results.add(Document.builder()
+                            .id(document.getId())
+                            .text(document.getText())
+                            .metadata(document.getMetadata())
+                            .score(e.getValue())
+                            .build());
+                });
+        record("hybrid", System.nanoTime() - start);
+        return results;
+    }
+
+    public Bm25Index lexicalIndex() {
+        return lexicalIndex;
+    }
+
+    private void loadLexicalIndex() {
+        try {
+            long start = System.nanoTime();
+            List<Document> documents = new ArrayList<>();
+            for (String table : tables) {
+                jdbcTemplate.query("SELECT id, content, metadata::text AS metadata FROM " + table
+                        + " WHERE metadata->>'conversationId' IS NULL", rs -> {
+                    String metadata = rs.getString("metadata");
+                    documents.add(Document.builder()
+                            .id(rs.getString("id"))
+                            .text(rs.getString("content"))
+                            .metadata(MetadataJson.parse(metadata))
+                            .build());
+                });
+            }
+            // chunks written while the rows were read are newer than these, they stay
+            int added = lexicalIndex.addIfAbsent(documents);
+            log.info("BM25 index loaded {} documents from {} in {} ms", added, tables,
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException e) {
+            log.warn("Could not load the BM25 index from {}, knowledge base searches stay vector only", tables, e);
+        }
+    }
+
+    private <T> T timed(String source, Supplier<T> search) {
+        long start = System.nanoTime();
+        try {
+            return search.get();
+        } finally {
+            record(source, System.nanoTime() - start);
+        }
+    }
+
+    private void record(String source, long nanos) {
+        Timer.builder("ai.retrieval.duration")
+                .tag("source", source)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,155 @@
+package com.karandev.learn_spring_ai.retrieval;
+
+import com.karandev.learn_spring_ai.util.VectorMath;
+import com.karandev.learn_spring_ai.vectorstore.VectorLookup;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/*
+    Two stage retrieval: the store returns a wide candidate list (candidates, 50 by default) cheaply, then the
+    candidates are scored again in process and only the best topK go into the prompt.
+
+        score = (1 - lexicalWeight) * cosine(query, chunk) + lexicalWeight * share of the query terms in the chunk
+
+    The query vector comes from the caching embedding model (the first stage has just embedded the same query),
+    the chunk vectors from the in-process vector stores (VectorLookup), so nothing here goes over the network.
+    A chunk without a local vector is scored on its terms only.
+
+    Scoring has a latency budget. When it runs out the candidates keep the order of the first stage, the request
+    never waits on the re-ranker. Timed as ai.retrieval.duration{source=rerank}, next to the hybrid search stages.
+ */
+@Slf4j
+@Component
+public class Reranker {
+
+    private final Function<String, float[]> queryVectors;
+    private final Function<String, float[]> vectors; // document id -> normalized vector, or null
+    private final int candidates;
+    private final double lexicalWeight;
+    private final long budgetNanos;
+    private final Timer timer;
+    private final Counter budgetExceeded;
+    private final Counter reordered;
+
+    @Autowired
+    public Reranker(EmbeddingModel embeddingModel,
+                    ObjectProvider<VectorStore> vectorStore,
+                    MeterRegistry meterRegistry,
+                    @Value("${app.ai.rerank.candidates:50}") int candidates,
+                    @Value("${app.ai.rerank.lexical-weight:0.3}") double lexicalWeight,
+                    @Value("${app.ai.rerank.budget:25ms}") Duration budget) {
+        this(embeddingModel::embed, id -> {
+            VectorStore store = vectorStore.getIfAvailable();
+            return store instanceof VectorLookup lookup ? lookup.vector(id) : null;
+        }, candidates, lexicalWeight, budget, meterRegistry);
+    }
+
+    public Reranker(Function<String, float[]> queryVectors, Function<String, float[]> vectors, int candidates,
+                    double lexicalWeight, Duration budget, MeterRegistry meterRegistry) {
+        this.queryVectors = queryVectors;
+        this.vectors = vectors;
+        this.candidates = candidates;
+        this.lexicalWeight = lexicalWeight;
+        this.budgetNanos = budget.toNanos();
+        this.timer = Timer.builder("ai.retrieval.duration")
+                .tag("source", "rerank")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.budgetExceeded = Counter.builder("ai.retrieval.rerank.budget.exceeded").register(meterRegistry);
+        this.reordered = Counter.builder("ai.retrieval.rerank.reordered").register(meterRegistry);
+    }
+
+    // the request as it would have been sent, only its topK is fetched wider.
+    public List<Document> search(VectorStore store, SearchRequest request) {
+        List<Document> found = store.similaritySearch(SearchRequest.from(request)
+                .topK(Math.max(candidates, request.getTopK()))
+                .build());
+        return rerank(request.getQuery(), found, request.getTopK());
+    }
+
+    public List<Document> rerank(String query, List<Document> found, int topK) {
+        if (found.size() <= 1) {
+            return found;
+        }
+        long start = System.nanoTime();
+        try {
+            List<Scored> scored = score(query, found, start);
+            if (scored == null) {
+                budgetExceeded.increment();
+                return found.subList(0, Math.min(topK, found.size()));
+            }
+            scored.sort(Comparator.comparingDouble(Scored::score).reversed()
+                    .thenComparingInt(Scored::rank));
+
+            List<Document> results = new ArrayList<>(Math.min(topK, scored.size()));
+            for (Scored s : scored.subList(0, Math.min(topK, scored.size()))) {
+                if (s.rank() >= topK) {
+                    reordered.increment(); // would not have made it into the prompt without the second stage
+                }
+                results.add(Document.builder()
+                        .id(s.document().getId())
+                        .text(s.document().getText())
+                        .metadata(s.document().getMetadata())
+                        .score(s.score())
+                        .build());
+            }
+            return results;
+        } catch (RuntimeException e) {
+            log.warn("Re-ranking failed, keeping the order of the first stage", e);
+            return found.subList(0, Math.min(topK, found.size()));
+        } finally {
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // null when the budget ran out
+    private List<Scored> score(String query, List<Document> found, long start) {
+        float[] queryVector = VectorMath.normalize(queryVectors.apply(query));
+        Set<String> queryTerms = new HashSet<>(Bm25Index.tokenize(query));
+
+        List<Scored> scored = new ArrayList<>(found.size());
+        for (int rank = 0; rank < found.size(); rank++) {
+            if (System.nanoTime() - start > budgetNanos) {
+                return null;
+            }
+            Document document = found.get(rank);
+            float[] vector = document.getId() != null ? vectors.apply(document.getId()) : null;
+            double semantic = vector != null && vector.length == queryVector.length
+                    ? VectorMath.dot(queryVector, vector)
+                    : 0;
+            scored.add(new Scored(document, rank,
+                    (1 - lexicalWeight) * semantic + lexicalWeight * overlap(queryTerms, document.getText())));
+        }
+        return scored;
+    }
+
+    private static double overlap(Set<String> queryTerms, String text) {
+        if (queryTerms.isEmpty() || text == null) {
+            return 0;
+        }
+        Set<String> terms = new HashSet<>(Bm25Index.tokenize(text));
+        return queryTerms.stream().filter(terms::contains).count() / (double) queryTerms.size();
+    }
+
+    private record Scored(Document document, int rank, double score) {
+    }
+}
@@ -1,10 +1,14 @@
 package com.karandev.learn_spring_ai.service;
 
+import com.karandev.learn_spring_ai.advisors.TokenUsageAdvisor;
 import com.karandev.learn_spring_ai.dto.Joke;
+import com.karandev.learn_spring_ai.outbound.RoutingChatModel;
+import com.karandev.learn_spring_ai.prompts.PromptRegistry;
+import com.karandev.learn_spring_ai.retrieval.Reranker;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.client.advisor.SimpleLoggerAdvisor;
-import org.springframework.ai.chat.prompt.PromptTemplate;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.vectorstore.SearchRequest;
@@ -12,7 +16,6 @@ import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
-import java.util.Map;
 import java.util.stream.Collectors;
 
 @Service
@@ -22,13 +25,17 @@ public class AIService {
     private final ChatClient chatClient;
     private final EmbeddingModel embeddingModel;
     private final VectorStore vectorStore;
+    private final PromptRegistry promptRegistry;
+    private final Reranker reranker;
+    private final MeterRegistry meterRegistry;
 
     public float[] getEmbedding(String text) {
         return embeddingModel.embed(text);
     }
 
     public List<Document> similaritySearch(String text) {
-        return vectorStore.similaritySearch(SearchRequest.builder()
+        // the store over-fetches candidates, the reranker keeps the best 3 of them.
+        return reranker.search(vectorStore, SearchRequest.builder()
                         .query(text)
                         .topK(3)
                         .similarityThreshold(0.3)
@@ -36,13 +43,9 @@ public class AIService {
     }
 
     public String getJoke(String topic) {
-        String systemPrompt = """
-            You are a sarcastic joker, you make poetic jokes in 4 lines
-            You don't make jokes about politics.
-            Give a joke on the topic : {topic}
-            """;
-        PromptTemplate promptTemplate = new PromptTemplate(systemPrompt);
-        String renderedTest = promptTemplate.render(Map.of("topic", topic));
+        // static instructions as the system prompt, the topic last, so every joke request shares the same prefix.
+        String systemPrompt = promptRegistry.get("joke-system").render();
+        String userPrompt = promptRegistry.get("joke-user").render("topic", topic);
 
 /*        With the help of advisor we can intercept our requests, we can do some things with the prompt(modify it).
           that way the modified prompt will be sent to the llm;
@@ -55,9 +58,12 @@ public class AIService {
           for example, we don't want to get a string joke we want to get a DTO here.
           also we would have to do manual parsing here if we were using the REST API instead of springAI.
 */        var response = chatClient.prompt()
-                .user(renderedTest)
+                .system(systemPrompt)
+                // a joke does not need the big model
+                .user(u -> u.text(userPrompt).metadata(RoutingChatModel.ROUTE_METADATA, RoutingChatModel.Route.LOCAL.name()))
                 .advisors(
-                        new SimpleLoggerAdvisor()
+                        new SimpleLoggerAdvisor(),
+                        new TokenUsageAdvisor("getJoke", meterRegistry)
                 )
                 .call()
                 .entity(Joke.class);
@@ -0,0 +1,44 @@
+package com.karandev.learn_spring_ai.service;
+
+import com.karandev.learn_spring_ai.entity.FlightBooking;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+
+/*
+    Keyset position in the upcoming-first booking listing: upcoming flights ascending, then past flights descending.
+    Encoded as an opaque string like "U~2025-12-25T14:30:00Z~42" so the model can hand it back as is.
+ */
+public record BookingCursor(boolean upcoming, Instant departureTime, long id) {
+
+    private static final String SEPARATOR = "~";
+
+    static BookingCursor firstUpcoming(Instant now) {
+        return new BookingCursor(true, now, 0);
+    }
+
+    static BookingCursor firstPast(Instant now) {
+        return new BookingCursor(false, now, 0);
+    }
+
+    // pivot is the "now" the page was read with, it decides which half of the listing the booking belongs to.
+    public static BookingCursor after(FlightBooking booking, Instant pivot) {
+        return new BookingCursor(!booking.getDepartureTime().isBefore(pivot), booking.getDepartureTime(), booking.getId());
+    }
+
+    public String encode() {
+        return (upcoming ? "U" : "P") + SEPARATOR + departureTime + SEPARATOR + id;
+    }
+
+    public static BookingCursor decode(String cursor) {
+        String[] parts = cursor.split(SEPARATOR);
+        if (parts.length != 3 || !(parts[0].equals("U") || parts[0].equals("P"))) {
+            throw new IllegalArgumentException("Invalid cursor, use the nextCursor of the previous page");
+        }
+        try {
+            return new BookingCursor(parts[0].equals("U"), Instant.parse(parts[1]), Long.parseLong(parts[2]));
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor, use the nextCursor of the previous page");
+        }
+    }
+}
@@ -1,20 +1,31 @@
 package com.karandev.learn_spring_ai.service;
 
+import com.karandev.learn_spring_ai.dto.BookingKey;
+import com.karandev.learn_spring_ai.dto.BookingOutcome;
+import com.karandev.learn_spring_ai.dto.BookingRequest;
 import com.karandev.learn_spring_ai.entity.BookingStatus;
 import com.karandev.learn_spring_ai.entity.FlightBooking;
 import com.karandev.learn_spring_ai.repository.FlightBookingRepository;
 import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 @Service
 @RequiredArgsConstructor
 @Transactional
 public class FlightBookingService {
 
+    // every key binds a destination and a departure time, postgres takes at most 32767 bind parameters per query.
+    private static final int KEYS_PER_QUERY = 1000;
+
     private final FlightBookingRepository repository;
 
     public FlightBooking createBooking(String userId, String destination, Instant departureTime) {
@@ -36,10 +47,79 @@ public class FlightBookingService {
         return repository.save(booking);
     }
 
+    /*
+        Books a whole batch for one user: one query per KEYS_PER_QUERY requests finds the duplicates of the batch (also
+        duplicates inside it), the new bookings are saved together so hibernate sends them as JDBC batches (see
+        hibernate.jdbc.batch_size).
+        Duplicates don't fail the batch, every request gets its own outcome, in the same order.
+     */
+    public List<BookingOutcome> createBookings(String userId, List<BookingRequest> requests) {
+        if (requests.isEmpty()) {
+            return List.of();
+        }
+
+        Set<BookingKey> taken = findExistingKeys(userId, requests);
+
+        List<FlightBooking> toSave = new ArrayList<>();
+        List<Integer> savedAt = new ArrayList<>();
+        BookingOutcome[] outcomes = new BookingOutcome[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            BookingRequest request = requests.get(i);
+            if (!taken.add(new BookingKey(userId, request.destination(), request.departureTime()))) {
+                outcomes[i] = new BookingOutcome(request.destination(), request.departureTime(),
+                        BookingOutcome.Result.DUPLICATE, null,
+                        "You already have a booking to " + request.destination() + " on that date.");
+                continue;
+            }
+            toSave.add(FlightBooking.builder()
+                    .userId(userId)
+                    .destination(request.destination())
+                    .departureTime(request.departureTime())
+                    .bookingStatus(BookingStatus.CONFIRMED)
+                    .build());
+            savedAt.add(i);
+        }
+
+        List<FlightBooking> saved = repository.saveAll(toSave);
+        for (int i = 0; i < saved.size(); i++) {
+            FlightBooking booking = saved.get(i);
+            outcomes[savedAt.get(i)] = new BookingOutcome(booking.getDestination(), booking.getDepartureTime(),
+                    BookingOutcome.Result.CREATED, booking.getId(), "Booking confirmed.");
+        }
+        return List.of(outcomes);
+    }
+
     public List<FlightBooking> getUserBookings(String userId) {
         return repository.findByUserIdOrderByDepartureTimeDesc(userId);
     }
 
+    /*
+        One page of the user's bookings, upcoming flights first (soonest first) then past ones (most recent first).
+        status null means any status, cursor null means the first page.
+     */
+    public BookingPage getBookingPage(String userId, BookingStatus status, String cursor, int limit) {
+        Instant now = Instant.now();
+        var statuses = status == null ? EnumSet.allOf(BookingStatus.class) : EnumSet.of(status);
+        BookingCursor position = cursor == null || cursor.isBlank() ? BookingCursor.firstUpcoming(now) : BookingCursor.decode(cursor);
+
+        // one row more than asked for tells us whether there is a next page.
+        List<FlightBooking> bookings = new ArrayList<>(limit + 1);
+        if (position.upcoming()) {
+            bookings.addAll(repository.findUpcomingPage(userId, statuses, position.departureTime(), position.id(),
+                    Limit.of(limit + 1)));
+            position = BookingCursor.firstPast(now);
+        }
+        if (bookings.size() <= limit) {
+            bookings.addAll(repository.findPastPage(userId, statuses, position.departureTime(), position.id(),
+                    Limit.of(limit + 1 - bookings.size())));
+        }
+
+        boolean hasMore = bookings.size() > limit;
+        return new BookingPage(hasMore ? bookings.subList(0, limit) : bookings, hasMore, now);
+    }
+
+    public record BookingPage(List<FlightBooking> bookings, boolean hasMore, Instant pivot) {}
+
     public FlightBooking updateBookingStatus(Long bookingId, String userId, BookingStatus newStatus) {
         FlightBooking booking = repository.findById(bookingId)
                 .orElseThrow(() -> new IllegalArgumentException("Booking not found"));
@@ -51,4 +131,18 @@ public class FlightBookingService {
         booking.setBookingStatus(newStatus);
         return repository.save(booking);
     }
+
+    private Set<BookingKey> findExistingKeys(String userId, List<BookingRequest> requests) {
+        Set<BookingKey> taken = new HashSet<>();
+        for (int from = 0; from < requests.size(); from += KEYS_PER_QUERY) {
+            Set<String> destinations = new HashSet<>();
+            Set<Instant> departureTimes = new HashSet<>();
+            for (BookingRequest request : requests.subList(from, Math.min(from + KEYS_PER_QUERY, requests.size()))) {
+                destinations.add(request.destination());
+                departureTimes.add(request.departureTime());
+            }
+            taken.addAll(repository.findExistingKeys(userId, destinations, departureTimes));
+        }
+        return taken;
+    }
 }
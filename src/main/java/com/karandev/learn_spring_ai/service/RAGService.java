@@ -1,28 +1,42 @@
 package com.karandev.learn_spring_ai.service;
 
+import com.karandev.learn_spring_ai.advisors.ParallelRetrievalAdvisor;
+import com.karandev.learn_spring_ai.advisors.SemanticCacheAdvisor;
 import com.karandev.learn_spring_ai.advisors.TokenUsageAdvisor;
+import com.karandev.learn_spring_ai.cache.SemanticCache;
+import com.karandev.learn_spring_ai.ingestion.IngestionLedger;
+import com.karandev.learn_spring_ai.ingestion.IngestionReport;
+import com.karandev.learn_spring_ai.ingestion.PdfIngestionPipeline;
+import com.karandev.learn_spring_ai.outbound.Priority;
+import com.karandev.learn_spring_ai.outbound.RoutingChatModel;
+import com.karandev.learn_spring_ai.prompts.PromptRegistry;
+import com.karandev.learn_spring_ai.retrieval.ContextPacker;
+import com.karandev.learn_spring_ai.retrieval.HybridVectorStore;
+import com.karandev.learn_spring_ai.retrieval.Reranker;
+import com.karandev.learn_spring_ai.vectorstore.LocalVectorStore;
+import com.karandev.learn_spring_ai.vectorstore.RoutingVectorStore;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 import org.springframework.ai.chat.client.advisor.SafeGuardAdvisor;
 import org.springframework.ai.chat.client.advisor.SimpleLoggerAdvisor;
-import org.springframework.ai.chat.client.advisor.vectorstore.QuestionAnswerAdvisor;
-import org.springframework.ai.chat.client.advisor.vectorstore.VectorStoreChatMemoryAdvisor;
 import org.springframework.ai.chat.memory.ChatMemory;
 import org.springframework.ai.chat.memory.MessageWindowChatMemory;
-import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.reader.pdf.PagePdfDocumentReader;
-import org.springframework.ai.transformer.splitter.TokenTextSplitter;
+import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @Service
 @RequiredArgsConstructor
@@ -31,100 +45,108 @@ public class RAGService {
     private final ChatClient chatClient;
     private final VectorStore vectorStore;
     private final ChatMemory chatMemory;
+    private final EmbeddingModel embeddingModel;
+    private final AsyncTaskExecutor applicationTaskExecutor; // boot's executor, runs on virtual threads when they are enabled
+    private final SemanticCache semanticCache;
+    private final PdfIngestionPipeline pdfIngestionPipeline;
+    private final IngestionLedger ingestionLedger;
+    private final HybridVectorStore knowledgeBase; // BM25 + vector search, for the pdf and the other ingested documents
+    private final ContextPacker contextPacker;
+    private final PromptRegistry promptRegistry;
+    private final Reranker reranker;
+    private final MeterRegistry meterRegistry;
+
+    private static final String ASK_AI_CACHE_SCOPE = "askAI";
 
     @Value("classpath:lec8.pdf")
     Resource pdfFile;
 
     public String askAIWithAdvisors(String prompt, String userId) {
+        return askAIWithAdvisors(prompt, userId, true);
+    }
+
+    public String askAIWithAdvisors(String prompt, String userId, boolean useSemanticCache) {
         return chatClient.prompt()
-                .system("""
-                        You are an AI assistant Cody greet users with your name (Cody) and the user name if your know their name.
-                        Answer in a friendly and conversational tone.
-                        """)
-                .user(prompt)
+                .system(promptRegistry.get("cody-system").render())
+                .user(u -> u.text(prompt).metadata(RoutingChatModel.ROUTE_METADATA, RoutingChatModel.Route.REMOTE.name()))
                 .advisors( // we have both short term memory and long term memory.
 
                         new SafeGuardAdvisor(List.of("Politics", "Gaming")),
 
-                        MessageChatMemoryAdvisor.builder(chatMemory) // first this short term memory advisor will work, so this basically considers the last 10 or 20 messages of teh chat and not too long hence the name short term.
-                                .conversationId(userId)// after passing through this short term advisor we will have an enhanced prompt which will be passed on to the long term memory advisor
-                                .build(),
+                        // a cache hit skips the retrieval below and the model call, the turn still goes into short term memory.
+                        new SemanticCacheAdvisor(semanticCache, chatMemory),
 
-                        VectorStoreChatMemoryAdvisor.builder(vectorStore) // vector store will store the chat history and the knowledge base in the same table only.
-                                .conversationId(userId) // but since we have the userId with the conversation id hence we can differentiate between the chat history of multiple users and the knowledge base.
-                                .defaultTopK(4)// With this type of advisor we will have a long term memory because teh conversations are getting stored in the postgres vector db hence if a user asks something about what he talked 10 days ago we will be able to answer that.
-                                .build(),
-
-                        // With this is the model will answer based only on the pdf that is provided and if it cannot find the relevant information then it
-                        // will just say that it does not know the answer.
-                        QuestionAnswerAdvisor.builder(vectorStore)
-                                .searchRequest(SearchRequest.builder()
-                                        .filterExpression("file_name == lec8.pdf")
+                        // short term memory (last 10 messages from jdbc), long term memory (old conversations stored in the vector store,
+                        // filtered on the userId) and the pdf knowledge base are fetched at the same time instead of one after another.
+                        // With the knowledge base in the prompt the model answers based only on the pdf, and if it cannot find the
+                        // relevant information then it will just say that it does not know the answer.
+                        ParallelRetrievalAdvisor.builder(chatMemory, vectorStore, embeddingModel)
+                                .knowledgeBase(knowledgeBase)
+                                .contextPacker(contextPacker)
+                                .executor(applicationTaskExecutor)
+                                .conversationId(userId)
+                                .longTermTopK(4)
+                                .knowledgeSearchRequest(SearchRequest.builder()
+                                        .filterExpression("file_name == 'lec8.pdf'")
                                         .topK(4)
                                         .build())
                                 .build(),
 
-                        new TokenUsageAdvisor()
+                        new TokenUsageAdvisor("askAIWithAdvisors", meterRegistry)
                 )
+                .advisors(a -> a
+                        .param(ChatMemory.CONVERSATION_ID, userId)
+                        .param(SemanticCacheAdvisor.SCOPE, userId)
+                        .param(SemanticCacheAdvisor.BYPASS, !useSemanticCache))
                 .call()
                 .content();
     }
 
     public String askAI(String prompt) {
+        // check the semantic cache first, a reworded question we have already answered costs one embedding call only.
+        var cacheLookup = semanticCache.lookup(ASK_AI_CACHE_SCOPE, prompt);
+        if (cacheLookup.isHit()) {
+            return cacheLookup.answer();
+        }
+        long startTime = System.nanoTime();
 
-        String template = """
-                        You are a highly knowledgeable technical assistant specializing in Spring AI.
-                        
-                        Your task is to answer the user's question using ONLY the information provided in the context.
-                        The context consists of retrieved documents from a vector store and may contain partial,
-                        overlapping, or loosely related information.
-                        
-                        Instructions:
-                        - Carefully read and analyze the entire context before answering.
-                        - Extract only the information that is directly relevant to the user's question.
-                        - Do NOT introduce external knowledge, assumptions, or hallucinations.
-                        - If the context does not contain sufficient information to answer the question,
-                          clearly state that the answer cannot be determined from the provided context.
-                        - Keep the response clear, precise, and technically accurate.
-                        - Prefer concise explanations, but include technical detail when necessary for correctness.
-                        
-                        Context:
-                        {context}
-                        
-                        Final Answer:
-                        """;
-
-        List<Document> documents = vectorStore.similaritySearch(SearchRequest.builder()
+        // hybrid search: exact terms (class names, error codes) are found by BM25 even when the embedding is far off.
+        // It fetches a wide candidate list, the reranker picks the 2 that go into the prompt.
+        List<Document> documents = reranker.search(knowledgeBase, SearchRequest.builder()
                 .query(prompt)
                 .topK(2)
                 .similarityThreshold(0.5)
-                .filterExpression("file_name == 'lec8'")
+                .filterExpression("file_name == 'lec8.pdf'")
                 .build());
 
-        String context = documents.stream()
+        // by relevance into the knowledge budget, near duplicates out.
+        var packed = contextPacker.documents(documents, contextPacker.knowledgeBudget());
+        String context = packed.kept().stream()
                 .map(Document::getText)
                 .collect(Collectors.joining("\n\n"));
 
-        PromptTemplate promptTemplate = new PromptTemplate(template);
-        String systemPrompt = promptTemplate.render(Map.of("context", context));
+        // the instructions are the same for every question (a cacheable prefix), context and question go last.
+        String userPrompt = promptRegistry.get("ask-ai-user").render(Map.of("context", context, "question", prompt));
 
         // Using advisors we can augment our prompt better.
-        return chatClient.prompt()
-                .system(systemPrompt)
-                .user(prompt)
+        ChatResponse chatResponse = chatClient.prompt()
+                .system(promptRegistry.get("ask-ai-system").render())
+                // answers from retrieved context stay on the remote model
+                .user(u -> u.text(userPrompt).metadata(RoutingChatModel.ROUTE_METADATA, RoutingChatModel.Route.REMOTE.name()))
+                .advisors(new TokenUsageAdvisor("askAI", meterRegistry))
+                .advisors(a -> a.param(TokenUsageAdvisor.PROMPT_TOKENS_SAVED, packed.dropped()))
                 .call()
-                .content();
-    }
+                .chatResponse();
 
-    public void ingestPDFToVectorStore() {
-        PagePdfDocumentReader reader = new PagePdfDocumentReader(pdfFile);
-        List<Document> pages = reader.get(); // we now have a list of documents.
-        TokenTextSplitter tokenTextSplitter = TokenTextSplitter.builder()
-                .withChunkSize(200)
-                .build();
+        semanticCache.put(cacheLookup, chatResponse, System.nanoTime() - startTime);
+        return chatResponse != null ? chatResponse.getResult().getOutput().getText() : null;
+    }
 
-        List<Document> chunks = tokenTextSplitter.apply(pages);
-        vectorStore.add(chunks);
+    public IngestionReport ingestPDFToVectorStore() {
+        // pages are read, split and embedded in bounded batches instead of loading the whole pdf at once.
+        IngestionReport report = pdfIngestionPipeline.ingest(pdfFile);
+        writeVectorSnapshot();
+        return report;
     }
 
     public static List<Document> getSpringAI() {
@@ -232,7 +254,41 @@ public class RAGService {
                 )
         );
 
-        vectorStore.add(movieDocuments);
-        vectorStore.add(getSpringAI());
+        // these never change between runs, so after the first run the ledger turns this into two cheap lookups.
+        boolean changed = ingestIncrementally("movies", movieDocuments);
+        changed |= ingestIncrementally("spring-ai", getSpringAI());
+        if (changed) {
+            writeVectorSnapshot();
+        }
+    }
+
+    // the next restart maps the new chunks from disk instead of loading them from pgvector.
+    private void writeVectorSnapshot() {
+        if (vectorStore instanceof RoutingVectorStore routingVectorStore) {
+            routingVectorStore.writeSnapshots();
+        } else if (vectorStore instanceof LocalVectorStore localVectorStore) {
+            localVectorStore.writeSnapshot();
+        }
+    }
+
+    // true when the ledger found something to add or delete.
+    private boolean ingestIncrementally(String source, List<Document> documents) {
+        return Priority.BACKGROUND.call(() -> ingestChanges(source, documents));
+    }
+
+    private boolean ingestChanges(String source, List<Document> documents) {
+        List<IngestionLedger.LedgerChunk> chunks = IntStream.range(0, documents.size())
+                .mapToObj(i -> IngestionLedger.chunk(source, 0, i, documents.get(i)))
+                .toList();
+
+        var diff = ingestionLedger.diff(source, Set.of(0), chunks);
+        if (!diff.stale().isEmpty()) {
+            knowledgeBase.delete(diff.staleDocumentIds());
+        }
+        if (!diff.changed().isEmpty()) {
+            knowledgeBase.add(diff.changedDocuments());
+        }
+        ingestionLedger.apply(source, diff);
+        return !diff.stale().isEmpty() || !diff.changed().isEmpty();
     }
 }
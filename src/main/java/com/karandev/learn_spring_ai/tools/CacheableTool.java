@@ -0,0 +1,20 @@
+package com.karandev.learn_spring_ai.tools;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/*
+    Marks a read-only @Tool whose result only depends on its arguments, so ToolResultCache may answer repeated calls
+    from memory. ttl is a duration like "5m", empty means app.ai.tool-cache.ttl.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CacheableTool {
+
+    String ttl() default "";
+
+    // the argument holding the user the result belongs to, EvictsToolCache of that user drops it.
+    String userIdParam() default "userId";
+}
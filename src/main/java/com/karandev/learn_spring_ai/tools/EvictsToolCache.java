@@ -0,0 +1,14 @@
+package com.karandev.learn_spring_ai.tools;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Marks a @Tool that writes user data, calling it drops every cached tool result of that user.
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface EvictsToolCache {
+
+    String userIdParam() default "userId";
+}
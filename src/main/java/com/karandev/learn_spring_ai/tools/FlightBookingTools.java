@@ -1,38 +1,56 @@
 package com.karandev.learn_spring_ai.tools;
 
+import com.karandev.learn_spring_ai.dto.BookingOutcome;
+import com.karandev.learn_spring_ai.dto.BookingRequest;
 import com.karandev.learn_spring_ai.dto.BookingResponse;
 import com.karandev.learn_spring_ai.dto.BookingsListResponse;
+import com.karandev.learn_spring_ai.dto.BookingsPageResponse;
+import com.karandev.learn_spring_ai.dto.BulkBookingResponse;
 import com.karandev.learn_spring_ai.entity.BookingStatus;
 import com.karandev.learn_spring_ai.entity.FlightBooking;
+import com.karandev.learn_spring_ai.service.BookingCursor;
 import com.karandev.learn_spring_ai.service.FlightBookingService;
-import lombok.RequiredArgsConstructor;
+import com.karandev.learn_spring_ai.util.Tokens;
+import org.springframework.ai.chat.model.ToolContext;
 import org.springframework.ai.tool.annotation.Tool;
 import org.springframework.ai.tool.annotation.ToolParam;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 
 @Component
-@RequiredArgsConstructor
 public class FlightBookingTools {
 
     private final FlightBookingService flightBookingService;
+    private final int pageSize;
+    private final int maxTokens;
+
+    public FlightBookingTools(FlightBookingService flightBookingService,
+                              @Value("${app.ai.tools.bookings.page-size:20}") int pageSize,
+                              @Value("${app.ai.tools.bookings.max-tokens:800}") int maxTokens) {
+        this.flightBookingService = flightBookingService;
+        this.pageSize = pageSize;
+        this.maxTokens = maxTokens;
+    }
 
+    @EvictsToolCache
     @Tool(
             name = "flight_booking_tool",
             description = "Create a new flight booking for a user"
     )
     public BookingResponse createBooking(
-            @ToolParam(description = "The unique user id (e.g. userId is user123)")
-            String userId,
-
             @ToolParam(description = "The destination for the flight booking (e.g. city like Delhi, London, etc.)")
             String destination,
 
             @ToolParam(description = "Departure date and time in ISO-8601 format (e.g., 2025-12-25T14:30:00Z)")
-            Instant departureTime) {
+            Instant departureTime,
+
+            ToolContext toolContext) {
 
+        String userId = userId(toolContext);
         var flightBooking = flightBookingService.createBooking(userId, destination, departureTime);
         return new BookingResponse(
                 flightBooking.getId(),
@@ -41,17 +59,41 @@ public class FlightBookingTools {
                 flightBooking.getBookingStatus());
     }
 
+    @EvictsToolCache
+    @Tool(
+            name = "bulk_flight_booking_tool",
+            description = "Create several flight bookings for a user in one call (e.g. group travel or a multi city trip). " +
+                    "Use this instead of calling flight_booking_tool repeatedly. " +
+                    "Returns the outcome of every booking, duplicates are reported and skipped."
+    )
+    public BulkBookingResponse createBookings(
+            @ToolParam(description = "The bookings to create, each with a destination and a departure time in ISO-8601 format")
+            List<BookingRequest> bookings,
+
+            ToolContext toolContext) {
+
+        String userId = userId(toolContext);
+        List<BookingOutcome> outcomes = flightBookingService.createBookings(userId, bookings);
+        long created = outcomes.stream().filter(o -> o.result() == BookingOutcome.Result.CREATED).count();
 
+        String message = created == outcomes.size()
+                ? "All " + created + " bookings are confirmed."
+                : created + " of " + outcomes.size() + " bookings are confirmed, the others already existed.";
 
+        return new BulkBookingResponse(outcomes, message);
+    }
+
+    @CacheableTool
     @Tool(
             name = "get_user_bookings",
             description = "Retrieve all flight bookings for the current user, sorted by departure time (most recent first). " +
-                    "Returns an empty list message if none exist."
+                    "Returns an empty list message if none exist. " +
+                    "Prefer get_upcoming_bookings, this one returns every booking the user ever made."
     )
     public BookingsListResponse getUserBookings(
-            @ToolParam(description = "The unique user ID")
-            String userId
+            ToolContext toolContext
     ) {
+        String userId = userId(toolContext);
         List<FlightBooking> bookings = flightBookingService.getUserBookings(userId);
 
         List<BookingResponse> responses = bookings.stream()
@@ -70,22 +112,74 @@ public class FlightBookingTools {
         return new BookingsListResponse(responses, message);
     }
 
+    /*
+        Bounded variant of get_user_bookings: at most page-size bookings and at most max-tokens of them,
+        whatever doesn't fit is left for the next page.
+     */
+    @CacheableTool
+    @Tool(
+            name = "get_upcoming_bookings",
+            description = "Retrieve one page of the user's flight bookings: upcoming flights first (soonest first), " +
+                    "then past flights (most recent first). Optionally filter by status. " +
+                    "If nextCursor is not null there are more bookings, call again with it as cursor to get them."
+    )
+    public BookingsPageResponse getUpcomingBookings(
+            @ToolParam(description = "Only return bookings with this status: CONFIRMED, CANCELLED, or PENDING", required = false)
+            BookingStatus status,
+
+            @ToolParam(description = "The nextCursor of the previous page, leave empty for the first page", required = false)
+            String cursor,
+
+            ToolContext toolContext
+    ) {
+        String userId = userId(toolContext);
+        var page = flightBookingService.getBookingPage(userId, status, cursor, pageSize);
+
+        List<BookingResponse> responses = new ArrayList<>();
+        int tokens = 0;
+        for (FlightBooking b : page.bookings()) {
+            var response = new BookingResponse(b.getId(), b.getDestination(), b.getDepartureTime(), b.getBookingStatus());
+            tokens += Tokens.estimate(response.toString());
+            if (tokens > maxTokens && !responses.isEmpty()) {
+                break;
+            }
+            responses.add(response);
+        }
+
+        boolean hasMore = page.hasMore() || responses.size() < page.bookings().size();
+        String nextCursor = hasMore
+                ? BookingCursor.after(page.bookings().get(responses.size() - 1), page.pivot()).encode()
+                : null;
+
+        String message;
+        if (responses.isEmpty()) {
+            message = cursor == null || cursor.isBlank() ? "You have no flight bookings." : "There are no more bookings.";
+        } else {
+            message = hasMore
+                    ? "Here are some of your flight bookings, there are more:"
+                    : "Here are your flight bookings:";
+        }
+
+        return new BookingsPageResponse(responses, nextCursor, message);
+    }
+
+    @EvictsToolCache
     @Tool(
             name = "update_booking_status",
             description = "Update the status of an existing flight booking (e.g., cancel it). " +
-                    "Only the owner of the booking can modify it. " +
+                    "Only bookings of the current user can be modified. " +
                     "Common use: set status to CANCELLED."
     )
     public BookingResponse updateBookingStatus(
             @ToolParam(description = "The booking ID returned from create or get bookings", required = true)
             Long bookingId,
 
-            @ToolParam(description = "The user ID who owns the booking", required = true)
-            String userId,
-
             @ToolParam(description = "New status: CONFIRMED, CANCELLED, or PENDING", required = true)
-            BookingStatus newStatus
+            BookingStatus newStatus,
+
+            ToolContext toolContext
     ) {
+        String userId = userId(toolContext);
         FlightBooking updated = flightBookingService.updateBookingStatus(bookingId, userId, newStatus);
         return new BookingResponse(
                 updated.getId(),
@@ -95,5 +189,12 @@ public class FlightBookingTools {
         );
     }
 
-
+    // the signed-in user from the tool context, not a tool argument: the model must not be able to pick another user.
+    private static String userId(ToolContext toolContext) {
+        String userId = ToolResultCache.userId(toolContext);
+        if (userId == null) {
+            throw new IllegalStateException("No signed-in user in the tool context");
+        }
+        return userId;
+    }
 }
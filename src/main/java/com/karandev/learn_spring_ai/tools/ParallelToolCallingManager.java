@@ -0,0 +1,326 @@
+package com.karandev.learn_spring_ai.tools;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.DefaultToolCallingManager;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.model.tool.ToolCallingManager;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.execution.ToolExecutionException;
+import org.springframework.ai.tool.execution.ToolExecutionExceptionProcessor;
+import org.springframework.ai.tool.resolution.ToolCallbackResolver;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+    Drop-in for DefaultToolCallingManager that runs the tool calls of one assistant message at the same time
+    (weather for three cities + a bookings lookup = the slowest call, not the sum of the four).
+
+        - at most maxConcurrency tool calls run at once over all chat requests
+        - every call has a timeout (per tool name, or the default) counted from when it starts, a call that times
+          out answers the model with an error instead of holding up the turn
+        - UserDataWrite calls for the same user run one after the other, in the order the model asked for them.
+          After one of them times out the rest are not run
+        - the tool responses keep the order of the tool calls
+
+    The groups run on the executor passed in (the application task executor), every call of a group on a virtual
+    thread of its own, so it can be given up on. A group waiting for its call never needs a second thread from the
+    pool it holds one of: with the classic bounded pool (spring.threads.virtual.enabled=false) it would starve itself.
+
+    The wall clock saved per turn (sum of the call durations minus the time the turn took) is published as
+    ai.tool.turn.saved next to ai.tool.turn.duration.
+ */
+@Slf4j
+public class ParallelToolCallingManager implements ToolCallingManager, DisposableBean {
+
+    private final ToolCallingManager delegate;
+    private final ToolCallbackResolver toolCallbackResolver;
+    private final ToolExecutionExceptionProcessor exceptionProcessor;
+    private final AsyncTaskExecutor executor;
+    private final ExecutorService calls = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("tool-call-", 0).factory());
+    private final Semaphore permits;
+    private final Duration defaultTimeout;
+    private final Map<String, Duration> timeouts;
+    private final MeterRegistry meterRegistry;
+
+    public ParallelToolCallingManager(ToolCallbackResolver toolCallbackResolver,
+                                      ToolExecutionExceptionProcessor exceptionProcessor,
+                                      AsyncTaskExecutor executor,
+                                      int maxConcurrency,
+                                      Duration defaultTimeout,
+                                      Map<String, Duration> timeouts,
+                                      MeterRegistry meterRegistry) {
+        this.delegate = DefaultToolCallingManager.builder()
+                .toolCallbackResolver(toolCallbackResolver)
+                .toolExecutionExceptionProcessor(exceptionProcessor)
+                .build();
+        this.toolCallbackResolver = toolCallbackResolver;
+        this.exceptionProcessor = exceptionProcessor;
+        this.executor = executor;
+        this.permits = new Semaphore(maxConcurrency);
+        this.defaultTimeout = defaultTimeout;
+        this.timeouts = Map.copyOf(timeouts);
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public void destroy() {
+        calls.shutdownNow();
+    }
+
+    @Override
+    public List<ToolDefinition> resolveToolDefinitions(ToolCallingChatOptions chatOptions) {
+        return delegate.resolveToolDefinitions(chatOptions);
+    }
+
+    @Override
+    public ToolExecutionResult executeToolCalls(Prompt prompt, ChatResponse chatResponse) {
+        AssistantMessage assistantMessage = chatResponse.getResults().stream()
+                .map(Generation::getOutput)
+                .filter(output -> !CollectionUtils.isEmpty(output.getToolCalls()))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No tool call requested by the chat model"));
+
+        List<AssistantMessage.ToolCall> toolCalls = assistantMessage.getToolCalls();
+        ToolContext toolContext = toolContext(prompt, assistantMessage);
+        List<ToolCallback> callbacks = toolCalls.stream().map(toolCall -> resolve(prompt, toolCall.name())).toList();
+
+        long start = System.nanoTime();
+        long[] durations = new long[toolCalls.size()];
+        AtomicReferenceArray<String> results = new AtomicReferenceArray<>(toolCalls.size());
+
+        if (toolCalls.size() == 1) {
+            runGroup(List.of(0), toolCalls, callbacks, toolContext, durations, results);
+        } else {
+            runConcurrently(groups(toolCalls, callbacks, toolContext), toolCalls, callbacks, toolContext, durations, results);
+        }
+
+        List<ToolResponseMessage.ToolResponse> responses = new ArrayList<>(toolCalls.size());
+        boolean returnDirect = true;
+        for (int i = 0; i < toolCalls.size(); i++) {
+            AssistantMessage.ToolCall toolCall = toolCalls.get(i);
+            responses.add(new ToolResponseMessage.ToolResponse(toolCall.id(), toolCall.name(), results.get(i)));
+            returnDirect &= callbacks.get(i).getToolMetadata().returnDirect();
+        }
+
+        record(toolCalls.size(), System.nanoTime() - start, durations);
+
+        List<Message> conversationHistory = new ArrayList<>(prompt.copy().getInstructions());
+        conversationHistory.add(assistantMessage);
+        conversationHistory.add(ToolResponseMessage.builder().responses(responses).build());
+
+        return ToolExecutionResult.builder()
+                .conversationHistory(conversationHistory)
+                .returnDirect(returnDirect)
+                .build();
+    }
+
+    // every write of the same user goes into one group (run in order), every other call is a group on its own.
+    private List<List<Integer>> groups(List<AssistantMessage.ToolCall> toolCalls, List<ToolCallback> callbacks,
+                                       ToolContext toolContext) {
+        List<List<Integer>> groups = new ArrayList<>();
+        Map<String, List<Integer>> writesByUser = new LinkedHashMap<>();
+        for (int i = 0; i < toolCalls.size(); i++) {
+            String userId = callbacks.get(i) instanceof UserDataWrite write
+                    ? write.writtenUserId(arguments(toolCalls.get(i)), toolContext)
+                    : null;
+            if (userId == null) {
+                groups.add(List.of(i));
+            } else {
+                List<Integer> group = writesByUser.get(userId);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    writesByUser.put(userId, group);
+                    groups.add(group);
+                }
+                group.add(i);
+            }
+        }
+        return groups;
+    }
+
+    private void runConcurrently(List<List<Integer>> groups, List<AssistantMessage.ToolCall> toolCalls,
+                                 List<ToolCallback> callbacks, ToolContext toolContext,
+                                 long[] durations, AtomicReferenceArray<String> results) {
+        List<Future<?>> futures = new ArrayList<>(groups.size());
+        for (List<Integer> group : groups) {
+            futures.add(executor.submit(() -> runGroup(group, toolCalls, callbacks, toolContext, durations, results)));
+        }
+
+        // every call of a group has its own timeout, so a group always finishes.
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(f -> f.cancel(true));
+                throw new IllegalStateException("Interrupted while waiting for tool calls", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /*
+        The calls of a group one after the other. Once a call times out (or the group is cancelled) the rest of the
+        group is not run: the model is told they failed, so a later write must not happen behind its back.
+     */
+    private void runGroup(List<Integer> group, List<AssistantMessage.ToolCall> toolCalls, List<ToolCallback> callbacks,
+                          ToolContext toolContext, long[] durations, AtomicReferenceArray<String> results) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            group.forEach(i -> results.compareAndSet(i, null, notRun(toolCalls.get(i), callbacks.get(i))));
+            return;
+        }
+        try {
+            boolean stopped = false;
+            for (int i : group) {
+                if (stopped || Thread.currentThread().isInterrupted()) {
+                    results.compareAndSet(i, null, notRun(toolCalls.get(i), callbacks.get(i)));
+                    continue;
+                }
+                String result = executeWithTimeout(toolCalls.get(i), callbacks.get(i), toolContext, durations, i);
+                stopped = result == null;
+                results.compareAndSet(i, null, result != null ? result : timedOut(toolCalls.get(i), callbacks.get(i)));
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    // on a virtual thread of its own so it can be given up on. The timeout starts when the call does. null = timed out.
+    private String executeWithTimeout(AssistantMessage.ToolCall toolCall, ToolCallback callback, ToolContext toolContext,
+                                      long[] durations, int index) {
+        Future<String> call = calls.submit(() -> execute(toolCall, callback, toolContext, durations, index));
+        try {
+            return call.get(timeout(toolCall.name()).toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            call.cancel(true);
+            log.warn("Tool call {} timed out after {}", toolCall.name(), timeout(toolCall.name()));
+            return null;
+        } catch (InterruptedException e) {
+            call.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    // a RuntimeException on purpose: the exception processor rethrows checked causes, which would fail the whole turn.
+    private String timedOut(AssistantMessage.ToolCall toolCall, ToolCallback callback) {
+        String name = toolCall.name();
+        return exceptionProcessor.process(new ToolExecutionException(callback.getToolDefinition(),
+                new IllegalStateException("Tool " + name + " did not answer within " + timeout(name).toMillis() + " ms")));
+    }
+
+    private String notRun(AssistantMessage.ToolCall toolCall, ToolCallback callback) {
+        return exceptionProcessor.process(new ToolExecutionException(callback.getToolDefinition(),
+                new IllegalStateException("Tool " + toolCall.name() + " was not run, an earlier call of this turn failed")));
+    }
+
+    private String execute(AssistantMessage.ToolCall toolCall, ToolCallback callback, ToolContext toolContext,
+                           long[] durations, int index) {
+        long start = System.nanoTime();
+        try {
+            return callback.call(arguments(toolCall), toolContext);
+        } catch (ToolExecutionException e) {
+            return exceptionProcessor.process(e);
+        } finally {
+            durations[index] = System.nanoTime() - start;
+        }
+    }
+
+    private void record(int calls, long wallNanos, long[] durations) {
+        long sequentialNanos = 0;
+        for (long duration : durations) {
+            sequentialNanos += duration;
+        }
+        long savedNanos = Math.max(0, sequentialNanos - wallNanos);
+
+        String parallel = String.valueOf(calls > 1);
+        Timer.builder("ai.tool.turn.duration")
+                .tag("parallel", parallel)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry)
+                .record(wallNanos, TimeUnit.NANOSECONDS);
+        Timer.builder("ai.tool.turn.saved")
+                .tag("parallel", parallel)
+                .register(meterRegistry)
+                .record(savedNanos, TimeUnit.NANOSECONDS);
+
+        log.debug("Tool turn: calls={} | WallMs={} | SequentialMs={} | SavedMs={}", calls,
+                TimeUnit.NANOSECONDS.toMillis(wallNanos), TimeUnit.NANOSECONDS.toMillis(sequentialNanos),
+                TimeUnit.NANOSECONDS.toMillis(savedNanos));
+    }
+
+    private Duration timeout(String toolName) {
+        return timeouts.getOrDefault(toolName, defaultTimeout);
+    }
+
+    private ToolCallback resolve(Prompt prompt, String toolName) {
+        if (prompt.getOptions() instanceof ToolCallingChatOptions options) {
+            for (ToolCallback callback : options.getToolCallbacks()) {
+                if (callback.getToolDefinition().name().equals(toolName)) {
+                    return callback;
+                }
+            }
+        }
+        ToolCallback callback = toolCallbackResolver.resolve(toolName);
+        if (callback == null) {
+            throw new IllegalStateException("No ToolCallback found for tool name: " + toolName);
+        }
+        return callback;
+    }
+
+    private static String arguments(AssistantMessage.ToolCall toolCall) {
+        return StringUtils.hasText(toolCall.arguments()) ? toolCall.arguments() : "{}";
+    }
+
+    // same tool context DefaultToolCallingManager builds: the one of the request plus the conversation so far.
+    private static ToolContext toolContext(Prompt prompt, AssistantMessage assistantMessage) {
+        Map<String, Object> context = Map.of();
+        if (prompt.getOptions() instanceof ToolCallingChatOptions options && !CollectionUtils.isEmpty(options.getToolContext())) {
+            context = new HashMap<>(options.getToolContext());
+            List<Message> history = new ArrayList<>(prompt.copy().getInstructions());
+            history.add(assistantMessage);
+            context.put(ToolContext.TOOL_CALL_HISTORY, history);
+        }
+        return new ToolContext(context);
+    }
+}
@@ -0,0 +1,399 @@
+package com.karandev.learn_spring_ai.tools;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.support.ToolCallbacks;
+import org.springframework.ai.tool.annotation.Tool;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
+import org.springframework.ai.tool.support.ToolUtils;
+import org.springframework.ai.util.json.JsonParser;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+    Memoizes the results of @CacheableTool methods so the model asking for the same bookings or the same weather
+    three times in one turn costs one execution:
+
+        1. request memo   - lives in the ToolContext of one chat call (see requestContext()), never goes stale
+                            on its own because the request only lasts a few model round trips
+        2. shared cache   - across requests for a short ttl, bounded LRU
+        3. single-flight  - identical calls running at the same time share one execution
+
+    @EvictsToolCache tools drop the user's entries from all three. A per-user generation makes sure a read that
+    started before a write can't put its (now stale) result back into the cache afterwards.
+ */
+@Slf4j
+@Component
+public class ToolResultCache {
+
+    public static final String REQUEST_MEMO = "tool_result_memo";
+    // the signed-in user, set by the controller. Tools read it from here, the model never gets to choose it.
+    public static final String USER_ID = "user_id";
+
+    private final boolean enabled;
+    private final Duration defaultTtl;
+    private final int maxEntries;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // access ordered, so the eldest entry is always the least recently used one.
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<Key, Flight> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> generations = new ConcurrentHashMap<>();
+
+    private final LongAdder requestHits = new LongAdder();
+    private final LongAdder sharedHits = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public ToolResultCache(@Value("${app.ai.tool-cache.enabled:true}") boolean enabled,
+                           @Value("${app.ai.tool-cache.ttl:30s}") Duration defaultTtl,
+                           @Value("${app.ai.tool-cache.max-entries:10000}") int maxEntries) {
+        this.enabled = enabled;
+        this.defaultTtl = defaultTtl;
+        this.maxEntries = maxEntries;
+    }
+
+    // Tool callbacks for the @Tool methods of the given objects, the annotated ones wrapped with the cache.
+    // Write tools are wrapped even when the cache is disabled, they must stay recognisable as UserDataWrite.
+    public ToolCallback[] wrap(Object... toolObjects) {
+        Map<String, Method> methods = new HashMap<>();
+        for (Object toolObject : toolObjects) {
+            for (Method method : ReflectionUtils.getAllDeclaredMethods(AopUtils.getTargetClass(toolObject))) {
+                if (method.isAnnotationPresent(Tool.class)) {
+                    methods.put(ToolUtils.getToolName(method), method);
+                }
+            }
+        }
+
+        return Arrays.stream(ToolCallbacks.from(toolObjects))
+                .map(callback -> {
+                    Method method = methods.get(callback.getToolDefinition().name());
+                    if (method == null) {
+                        return callback;
+                    }
+                    if (enabled && method.isAnnotationPresent(CacheableTool.class)) {
+                        CacheableTool cacheable = method.getAnnotation(CacheableTool.class);
+                        Duration ttl = cacheable.ttl().isBlank() ? defaultTtl : DurationStyle.detectAndParse(cacheable.ttl());
+                        return new CachingToolCallback(callback, cacheable.userIdParam(), ttl);
+                    }
+                    if (method.isAnnotationPresent(EvictsToolCache.class)) {
+                        return new EvictingToolCallback(callback, method.getAnnotation(EvictsToolCache.class).userIdParam());
+                    }
+                    return callback;
+                })
+                .toArray(ToolCallback[]::new);
+    }
+
+    // tool context for one chat call, pass it with ChatClient's .toolContext(...) to get the per request memo.
+    public Map<String, Object> requestContext() {
+        return Map.of(REQUEST_MEMO, new ConcurrentHashMap<Key, String>());
+    }
+
+    // the same for a signed-in user, the user tools act on.
+    public Map<String, Object> requestContext(String userId) {
+        return Map.of(REQUEST_MEMO, new ConcurrentHashMap<Key, String>(), USER_ID, userId);
+    }
+
+    // the user of the tool context, null outside a chat call with a signed-in user.
+    public static String userId(ToolContext toolContext) {
+        return toolContext != null && toolContext.getContext().get(USER_ID) instanceof String userId ? userId : null;
+    }
+
+    public void invalidateUser(String userId) {
+        if (userId == null) {
+            return;
+        }
+        generations.merge(userId, 1L, Long::sum);
+        lock.lock();
+        try {
+            entries.keySet().removeIf(key -> userId.equals(key.userId()));
+        } finally {
+            lock.unlock();
+        }
+        invalidations.increment();
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Stats stats() {
+        long hits = requestHits.sum() + sharedHits.sum() + coalesced.sum();
+        long total = hits + executions.sum();
+        int size;
+        lock.lock();
+        try {
+            size = entries.size();
+        } finally {
+            lock.unlock();
+        }
+        return new Stats(requestHits.sum(), sharedHits.sum(), coalesced.sum(), executions.sum(),
+                total == 0 ? 0 : (double) hits / total, invalidations.sum(), size);
+    }
+
+    private String call(ToolCallback delegate, String userIdParam, Duration ttl, String input, ToolContext toolContext) {
+        JsonNode arguments = parse(input);
+        String userId = userId(arguments, userIdParam, toolContext);
+        Key key = new Key(delegate.getToolDefinition().name(), arguments, userId);
+        Map<Key, String> memo = requestMemo(toolContext);
+
+        if (memo != null && memo.get(key) instanceof String result) {
+            requestHits.increment();
+            return result;
+        }
+
+        long generation = generation(userId);
+        String cached = getShared(key);
+        if (cached != null) {
+            sharedHits.increment();
+            remember(memo, key, cached);
+            return cached;
+        }
+
+        Flight mine = new Flight(new CompletableFuture<>(), generation);
+        Flight running = inFlight.putIfAbsent(key, mine);
+        if (running != null && running.generation() == generation) {
+            coalesced.increment();
+            String result = await(running.result());
+            remember(memo, key, result);
+            return result;
+        }
+        if (running != null) {
+            // started before a write of this user, its result is stale for us: run our own (not coalesced) call.
+            mine = null;
+        }
+
+        executions.increment();
+        try {
+            String result = toolContext != null ? delegate.call(input, toolContext) : delegate.call(input);
+            if (generation(userId) == generation) {
+                putShared(key, result, ttl);
+                remember(memo, key, result);
+            }
+            if (mine != null) {
+                mine.result().complete(result);
+            }
+            return result;
+        } catch (RuntimeException e) {
+            if (mine != null) {
+                mine.result().completeExceptionally(e);
+            }
+            throw e;
+        } finally {
+            if (mine != null) {
+                inFlight.remove(key, mine);
+            }
+        }
+    }
+
+    private void evict(String userIdParam, String input, ToolContext toolContext) {
+        String userId = userId(parse(input), userIdParam, toolContext);
+        invalidateUser(userId);
+        Map<Key, String> memo = requestMemo(toolContext);
+        if (memo != null && userId != null) {
+            memo.keySet().removeIf(key -> userId.equals(key.userId()));
+        }
+    }
+
+    private String getShared(Key key) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (now > entry.expiresAt()) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.result();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void putShared(Key key, String result, Duration ttl) {
+        if (ttl.isZero() || ttl.isNegative()) {
+            return;
+        }
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            entries.put(key, new Entry(result, now + ttl.toNanos()));
+            if (entries.size() > maxEntries) {
+                // drop the expired ones first, then the least recently used until we fit again.
+                entries.values().removeIf(entry -> now > entry.expiresAt());
+                Iterator<Key> eldest = entries.keySet().iterator();
+                while (entries.size() > maxEntries && eldest.hasNext()) {
+                    eldest.next();
+                    eldest.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long generation(String userId) {
+        return userId == null ? 0 : generations.getOrDefault(userId, 0L);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Key, String> requestMemo(ToolContext toolContext) {
+        if (toolContext == null) {
+            return null;
+        }
+        return toolContext.getContext().get(REQUEST_MEMO) instanceof Map<?, ?> memo ? (Map<Key, String>) memo : null;
+    }
+
+    private static void remember(Map<Key, String> memo, Key key, String result) {
+        if (memo != null) {
+            memo.put(key, result);
+        }
+    }
+
+    private static String await(CompletableFuture<String> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    // parsed, so {"a":1, "b":2} and {"b":2,"a":1} are the same call (ObjectNode equality ignores field order).
+    private static JsonNode parse(String input) {
+        try {
+            return JsonParser.getObjectMapper().readTree(input);
+        } catch (JsonProcessingException e) {
+            return TextNode.valueOf(input);
+        }
+    }
+
+    private static String userId(JsonNode arguments, String userIdParam, ToolContext toolContext) {
+        String contextUserId = userId(toolContext);
+        if (contextUserId != null) {
+            return contextUserId;
+        }
+        JsonNode userId = arguments.get(userIdParam);
+        return userId == null || userId.isNull() ? null : userId.asText();
+    }
+
+    record Key(String tool, JsonNode arguments, String userId) {
+    }
+
+    private record Entry(String result, long expiresAt) {
+    }
+
+    private record Flight(CompletableFuture<String> result, long generation) {
+    }
+
+    public record Stats(long requestHits, long sharedHits, long coalesced, long executions, double hitRate,
+                        long invalidations, int size) {
+    }
+
+    private class CachingToolCallback implements ToolCallback {
+
+        private final ToolCallback delegate;
+        private final String userIdParam;
+        private final Duration ttl;
+
+        CachingToolCallback(ToolCallback delegate, String userIdParam, Duration ttl) {
+            this.delegate = delegate;
+            this.userIdParam = userIdParam;
+            this.ttl = ttl;
+        }
+
+        @Override
+        public ToolDefinition getToolDefinition() {
+            return delegate.getToolDefinition();
+        }
+
+        @Override
+        public ToolMetadata getToolMetadata() {
+            return delegate.getToolMetadata();
+        }
+
+        @Override
+        public String call(String toolInput) {
+            return ToolResultCache.this.call(delegate, userIdParam, ttl, toolInput, null);
+        }
+
+        @Override
+        public String call(String toolInput, ToolContext toolContext) {
+            return ToolResultCache.this.call(delegate, userIdParam, ttl, toolInput, toolContext);
+        }
+    }
+
+    private class EvictingToolCallback implements ToolCallback, UserDataWrite {
+
+        private final ToolCallback delegate;
+        private final String userIdParam;
+
+        EvictingToolCallback(ToolCallback delegate, String userIdParam) {
+            this.delegate = delegate;
+            this.userIdParam = userIdParam;
+        }
+
+        @Override
+        public ToolDefinition getToolDefinition() {
+            return delegate.getToolDefinition();
+        }
+
+        @Override
+        public ToolMetadata getToolMetadata() {
+            return delegate.getToolMetadata();
+        }
+
+        @Override
+        public String call(String toolInput) {
+            return call(toolInput, null);
+        }
+
+        @Override
+        public String writtenUserId(String toolInput, ToolContext toolContext) {
+            return userId(parse(toolInput), userIdParam, toolContext);
+        }
+
+        // evict after the write too, so a read that ran while we were writing doesn't survive either.
+        @Override
+        public String call(String toolInput, ToolContext toolContext) {
+            evict(userIdParam, toolInput, toolContext);
+            try {
+                return toolContext != null ? delegate.call(toolInput, toolContext) : delegate.call(toolInput);
+            } finally {
+                evict(userIdParam, toolInput, toolContext);
+            }
+        }
+    }
+}
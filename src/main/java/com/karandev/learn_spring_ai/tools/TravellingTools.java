@@ -7,6 +7,7 @@ import org.springframework.stereotype.Service;
 @Service
 public class TravellingTools {
 
+    @CacheableTool(ttl = "5m")
     @Tool(description = "Get the weather of a city")
     public String getWeather(@ToolParam(description = "City name for which to get the weather information") String city) {
         return switch(city) {
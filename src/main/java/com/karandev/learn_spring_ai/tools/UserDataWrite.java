@@ -0,0 +1,10 @@
+package com.karandev.learn_spring_ai.tools;
+
+import org.springframework.ai.chat.model.ToolContext;
+
+// A tool callback that changes the data of one user, ParallelToolCallingManager never runs two of them for the same user at once.
+public interface UserDataWrite {
+
+    // the user the given call writes to (from the tool context, else the tool input), null when it can't tell.
+    String writtenUserId(String toolInput, ToolContext toolContext);
+}
@@ -0,0 +1,20 @@
+package com.karandev.learn_spring_ai.util;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.springframework.ai.util.json.JsonParser;
+
+import java.util.Map;
+
+// document metadata as the vector stores keep it (a json column / snapshot entry), typed so callers need no casts.
+public final class MetadataJson {
+
+    private static final TypeReference<Map<String, Object>> METADATA = new TypeReference<>() {
+    };
+
+    private MetadataJson() {
+    }
+
+    public static Map<String, Object> parse(String json) {
+        return json == null ? Map.of() : JsonParser.fromJson(json, METADATA);
+    }
+}
@@ -0,0 +1,23 @@
+package com.karandev.learn_spring_ai.util;
+
+import org.springframework.ai.document.Document;
+
+// Rough token count (~4 characters per token for english text), good enough for budgets, not for billing.
+public final class Tokens {
+
+    // chunks get their count at ingestion (see IngestionLedger.chunk), so it is stored with them and never recomputed.
+    public static final String METADATA_KEY = "token_count";
+
+    private Tokens() {
+    }
+
+    public static int estimate(String text) {
+        return text == null ? 0 : (text.length() + 3) / 4;
+    }
+
+    public static int of(Document document) {
+        return document.getMetadata().get(METADATA_KEY) instanceof Number count
+                ? count.intValue()
+                : estimate(document.getText());
+    }
+}
@@ -0,0 +1,50 @@
+package com.karandev.learn_spring_ai.util;
+
+public final class VectorMath {
+
+    private VectorMath() {
+    }
+
+    public static float cosineSimilarity(float[] a, float[] b) {
+        if (a.length != b.length) {
+            throw new IllegalArgumentException("Vectors must have the same dimensions: " + a.length + " vs " + b.length);
+        }
+        float dot = 0f;
+        float normA = 0f;
+        float normB = 0f;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+        }
+        if (normA == 0f || normB == 0f) {
+            return 0f;
+        }
+        return dot / (float) Math.sqrt(normA * normB);
+    }
+
+    // unit length copy, so a dot product of two of them is their cosine similarity.
+    public static float[] normalize(float[] vector) {
+        float norm = 0f;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float[] normalized = new float[vector.length];
+        if (norm == 0f) {
+            return normalized;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+
+    public static float dot(float[] a, float[] b) {
+        float dot = 0f;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+        }
+        return dot;
+    }
+}
@@ -0,0 +1,298 @@
+package com.karandev.learn_spring_ai.vectorstore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.function.IntPredicate;
+
+/*
+    Hierarchical navigable small world graph (Malkov & Yashunin) over cosine similarity.
+
+    Vectors are normalized on the way in and kept in one flat float[] (node i lives at [i * dimensions]), the links
+    of a node are int[] per level with the neighbour count in slot 0, so a search touches primitive arrays only.
+    Deleted nodes stay in the graph to keep it navigable but never show up in results.
+
+    Not thread safe: LocalVectorStore guards it with a read/write lock (searches only read).
+ */
+public final class HnswIndex {
+
+    private final int dimensions;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMultiplier;
+    private final SplittableRandom random = new SplittableRandom(42);
+
+    private float[] vectors;
+    private int[][][] links;
+    private final BitSet deleted = new BitSet();
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswIndex(int dimensions, int m, int efConstruction) {
+        this.dimensions = dimensions;
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = efConstruction;
+        this.levelMultiplier = 1 / Math.log(m);
+        this.vectors = new float[16 * dimensions];
+        this.links = new int[16][][];
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int liveSize() {
+        return size - deleted.cardinality();
+    }
+
+    public int deletedCount() {
+        return deleted.cardinality();
+    }
+
+    // adds the vector and returns its node id, ids are handed out 0, 1, 2, ...
+    public int add(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions but got " + vector.length);
+        }
+        int node = size;
+        ensureCapacity(node + 1);
+        float[] normalized = normalize(vector);
+        System.arraycopy(normalized, 0, vectors, node * dimensions, dimensions);
+
+        int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[(l == 0 ? maxM0 : m) + 1];
+        }
+        size++;
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return node;
+        }
+
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedyClosest(normalized, current, l);
+        }
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Scored> found = searchLayer(normalized, current, efConstruction, l, null);
+            int maxLinks = l == 0 ? maxM0 : m;
+            for (int i = 0, linked = 0; i < found.size() && linked < maxLinks; i++) {
+                int neighbour = found.get(i).node();
+                if (neighbour != node) {
+                    link(node, neighbour, l);
+                    link(neighbour, node, l);
+                    linked++;
+                }
+            }
+            current = found.getFirst().node();
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+        return node;
+    }
+
+    public void delete(int node) {
+        deleted.set(node);
+    }
+
+    // the stored (normalized) vector of a node.
+    public float[] vector(int node) {
+        return Arrays.copyOfRange(vectors, node * dimensions, (node + 1) * dimensions);
+    }
+
+    public boolean isDeleted(int node) {
+        return deleted.get(node);
+    }
+
+    // approximate k nearest live nodes that pass accept, best first. ef is the size of the search beam.
+    public List<Scored> search(float[] query, int k, int ef, IntPredicate accept) {
+        if (entryPoint < 0 || k <= 0) {
+            return List.of();
+        }
+        float[] normalized = normalize(query);
+        int current = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            current = greedyClosest(normalized, current, l);
+        }
+        List<Scored> found = searchLayer(normalized, current, Math.max(ef, k), 0, live(accept));
+        return found.size() > k ? found.subList(0, k) : found;
+    }
+
+    // brute force over every live node, the reference for recall and the better choice when few nodes pass the filter.
+    public List<Scored> exactSearch(float[] query, int k, IntPredicate accept) {
+        float[] normalized = normalize(query);
+        IntPredicate live = live(accept);
+        PriorityQueue<Scored> best = new PriorityQueue<>(Comparator.comparingDouble(Scored::score));
+        for (int node = 0; node < size; node++) {
+            if (!live.test(node)) {
+                continue;
+            }
+            float score = similarity(normalized, node);
+            if (best.size() < k) {
+                best.add(new Scored(node, score));
+            } else if (score > best.peek().score()) {
+                best.poll();
+                best.add(new Scored(node, score));
+            }
+        }
+        List<Scored> result = new ArrayList<>(best);
+        result.sort(Comparator.comparingDouble(Scored::score).reversed());
+        return result;
+    }
+
+    private IntPredicate live(IntPredicate accept) {
+        return accept == null ? node -> !deleted.get(node) : node -> !deleted.get(node) && accept.test(node);
+    }
+
+    private int greedyClosest(float[] query, int start, int level) {
+        int current = start;
+        float best = similarity(query, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] neighbours = links[current][level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                float score = similarity(query, neighbours[i]);
+                if (score > best) {
+                    best = score;
+                    current = neighbours[i];
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /*
+        Beam search on one level. Every node is walked through, but only nodes passing accept (null = all) make it
+        into the results, so a filter narrows the answer without cutting the graph apart.
+     */
+    private List<Scored> searchLayer(float[] query, int entry, int ef, int level, IntPredicate accept) {
+        BitSet visited = new BitSet(size);
+        PriorityQueue<Scored> candidates = new PriorityQueue<>(Comparator.comparingDouble(Scored::score).reversed());
+        PriorityQueue<Scored> results = new PriorityQueue<>(Comparator.comparingDouble(Scored::score));
+
+        Scored start = new Scored(entry, similarity(query, entry));
+        visited.set(entry);
+        candidates.add(start);
+        if (accept == null || accept.test(entry)) {
+            results.add(start);
+        }
+
+        while (!candidates.isEmpty()) {
+            Scored candidate = candidates.poll();
+            if (results.size() >= ef && candidate.score() < results.peek().score()) {
+                break;
+            }
+            int[] neighbours = links[candidate.node()][level];
+            for (int i = 1; i <= neighbours[0]; i++) {
+                int neighbour = neighbours[i];
+                if (visited.get(neighbour)) {
+                    continue;
+                }
+                visited.set(neighbour);
+                float score = similarity(query, neighbour);
+                if (results.size() < ef || score > results.peek().score()) {
+                    Scored scored = new Scored(neighbour, score);
+                    candidates.add(scored);
+                    if (accept == null || accept.test(neighbour)) {
+                        results.add(scored);
+                        if (results.size() > ef) {
+                            results.poll();
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Scored> found = new ArrayList<>(results);
+        found.sort(Comparator.comparingDouble(Scored::score).reversed());
+        return found;
+    }
+
+    // adds to -> from's links, when from is full keep the maxLinks closest of the old links plus the new one.
+    private void link(int from, int to, int level) {
+        int[] neighbours = links[from][level];
+        int count = neighbours[0];
+        int maxLinks = neighbours.length - 1;
+        if (count < maxLinks) {
+            neighbours[count + 1] = to;
+            neighbours[0] = count + 1;
+            return;
+        }
+
+        Scored[] all = new Scored[count + 1];
+        for (int i = 0; i < count; i++) {
+            all[i] = new Scored(neighbours[i + 1], similarity(from, neighbours[i + 1]));
+        }
+        all[count] = new Scored(to, similarity(from, to));
+        Arrays.sort(all, Comparator.comparingDouble(Scored::score).reversed());
+        for (int i = 0; i < maxLinks; i++) {
+            neighbours[i + 1] = all[i].node();
+        }
+    }
+
+    private float similarity(float[] query, int node) {
+        int offset = node * dimensions;
+        float dot = 0;
+        for (int i = 0; i < dimensions; i++) {
+            dot += query[i] * vectors[offset + i];
+        }
+        return dot;
+    }
+
+    private float similarity(int a, int b) {
+        int offsetA = a * dimensions;
+        int offsetB = b * dimensions;
+        float dot = 0;
+        for (int i = 0; i < dimensions; i++) {
+            dot += vectors[offsetA + i] * vectors[offsetB + i];
+        }
+        return dot;
+    }
+
+    private void ensureCapacity(int nodes) {
+        if (nodes > links.length) {
+            int capacity = Math.max(nodes, links.length * 2);
+            vectors = Arrays.copyOf(vectors, capacity * dimensions);
+            links = Arrays.copyOf(links, capacity);
+        }
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float[] normalized = new float[vector.length];
+        if (norm == 0) {
+            return normalized;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+
+    // score is the cosine similarity, 1 = same direction.
+    public record Scored(int node, float score) {
+    }
+}
@@ -0,0 +1,544 @@
+package com.karandev.learn_spring_ai.vectorstore;
+
+import com.karandev.learn_spring_ai.util.MetadataJson;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+
+/*
+    VectorStore that answers similarity searches from an in-process HNSW index instead of a round trip to pgvector.
+
+    pgvector stays the source of truth: the index is loaded from its table at startup (resync()), and every add or
+    delete goes to pgvector first and is then applied locally. The vectors of added documents come from the same
+    (caching) embedding model pgvector uses, so embedding them for both costs one model call.
+
+    When only a few documents can match (small store or a selective filter) an exact scan is cheaper than the graph
+    and gives perfect recall, see exactSearchThreshold.
+
+    With a snapshot path the store has two layers: the documents of the last VectorSnapshot (memory mapped) and the
+    HNSW index for everything written since. Startup only maps the file and catches up with pgvector in the
+    background, writeSnapshot() (called by the ingestion) folds the index into a new file, and does nothing when no
+    document changed since the last one.
+
+    Searching the snapshot is an int8 scan + full precision re-rank, linear in its size, with nothing but the mapping
+    on the heap. With snapshotGraph on, a graph over the snapshot nodes is built in the background after it is mapped
+    and takes over for every search where more than exactSearchThreshold snapshot documents can match. It is the same
+    HNSW, so it keeps a full precision copy of every vector on the heap: only worth it when the scan gets too slow.
+ */
+@Slf4j
+public class LocalVectorStore implements VectorStore, VectorLookup, InitializingBean {
+
+    private final VectorStore delegate;
+    private final EmbeddingModel embeddingModel;
+    private final JdbcTemplate jdbcTemplate;
+    private final String table;
+    private final int m;
+    private final int efConstruction;
+    private final int efSearch;
+    private final int exactSearchThreshold;
+    private final Path snapshotPath; // null = no snapshot, load everything from pgvector
+    private final int rerankCandidates;
+    private final boolean snapshotGraph;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private HnswIndex index; // null until the first vector tells us the dimensions
+    private List<Document> documents = new ArrayList<>(); // by node id, null once deleted
+    private Map<String, Integer> nodes = new HashMap<>();
+    // which nodes pass a filter, most searches use one of a handful of filters. Cleared on every write.
+    private final Map<Filter.Expression, BitSet> filterCache = new ConcurrentHashMap<>();
+
+    private VectorSnapshot base; // null without a snapshot
+    private Map<String, Integer> baseNodes = new HashMap<>(); // live documents of the snapshot
+    private BitSet baseDeleted = new BitSet(); // deleted or overwritten since the snapshot was written
+    private HnswIndex baseIndex; // graph over the snapshot nodes (same node ids), only with snapshotGraph, null until built
+    private boolean changed = true; // a document was added or removed since the snapshot was written
+    // the snapshot never changes, so these only go when it is replaced.
+    private final Map<Filter.Expression, BitSet> baseFilterCache = new ConcurrentHashMap<>();
+
+    public LocalVectorStore(VectorStore delegate, EmbeddingModel embeddingModel, JdbcTemplate jdbcTemplate, String table,
+                            int m, int efConstruction, int efSearch, int exactSearchThreshold) {
+        this(delegate, embeddingModel, jdbcTemplate, table, m, efConstruction, efSearch, exactSearchThreshold, null, 0, false);
+    }
+
+    public LocalVectorStore(VectorStore delegate, EmbeddingModel embeddingModel, JdbcTemplate jdbcTemplate, String table,
+                            int m, int efConstruction, int efSearch, int exactSearchThreshold,
+                            Path snapshotPath, int rerankCandidates, boolean snapshotGraph) {
+        this.delegate = delegate;
+        this.embeddingModel = embeddingModel;
+        this.jdbcTemplate = jdbcTemplate;
+        this.table = table;
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.exactSearchThreshold = exactSearchThreshold;
+        this.snapshotPath = snapshotPath;
+        this.rerankCandidates = rerankCandidates;
+        this.snapshotGraph = snapshotGraph;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (snapshotPath != null && Files.exists(snapshotPath)) {
+            try {
+                loadSnapshot();
+                Thread.ofVirtual().name("vector-snapshot-catch-up").start(this::catchUp);
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Could not load vector snapshot {}, loading from {} instead", snapshotPath, table, e);
+            }
+        }
+        resync();
+        writeSnapshot(); // the next start can skip pgvector
+    }
+
+    // (re)loads the index from the pgvector table, searches keep using the old one until the new one is ready.
+    // Writes made through this store while it runs are lost locally, so call it at startup or when idle.
+    public void resync() {
+        long start = System.nanoTime();
+        List<Document> loaded = new ArrayList<>();
+        List<float[]> vectors = new ArrayList<>();
+        load("", null, loaded, vectors);
+
+        Rebuilt rebuilt = build(loaded, vectors);
+        lock.writeLock().lock();
+        try {
+            index = rebuilt.index();
+            documents = rebuilt.documents();
+            nodes = rebuilt.nodes();
+            filterCache.clear();
+            base = null;
+            baseNodes = new HashMap<>();
+            baseDeleted = new BitSet();
+            baseIndex = null;
+            baseFilterCache.clear();
+            changed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Local vector index loaded {} documents from {} in {} ms", loaded.size(), table,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /*
+        Writes every live document into a new snapshot and serves from it, the HNSW index starts empty again.
+        Holds the write lock while the file is written, searches wait for it (tens of ms for a few thousand chunks).
+        Without a change since the last snapshot the file is left alone.
+     */
+    public void writeSnapshot() {
+        if (snapshotPath == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            if (!changed && base != null) {
+                log.debug("Vector snapshot {} is up to date", snapshotPath);
+                return;
+            }
+            List<Document> live = new ArrayList<>(baseNodes.size() + nodes.size());
+            List<float[]> vectors = new ArrayList<>(baseNodes.size() + nodes.size());
+            for (int node : baseNodes.values()) {
+                live.add(base.document(node));
+                vectors.add(base.vector(node));
+            }
+            for (int node : nodes.values()) {
+                live.add(documents.get(node));
+                vectors.add(index.vector(node));
+            }
+            VectorSnapshot.write(snapshotPath, live, vectors);
+            useSnapshot(VectorSnapshot.open(snapshotPath));
+            index = null;
+            documents = new ArrayList<>();
+            nodes = new HashMap<>();
+            filterCache.clear();
+            changed = false;
+            log.info("Vector snapshot {} written with {} documents in {} ms", snapshotPath, live.size(),
+                    (System.nanoTime() - start) / 1_000_000);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        List<float[]> vectors = embeddingModel.embed(documents.stream()
+                .map(document -> document.getFormattedContent(MetadataMode.EMBED))
+                .toList());
+        delegate.add(documents);
+
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                upsert(documents.get(i), vectors.get(i));
+            }
+            filterCache.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        delegate.delete(idList);
+        lock.writeLock().lock();
+        try {
+            idList.forEach(this::remove);
+            filterCache.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactIfNeeded();
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        delegate.delete(filterExpression);
+        lock.writeLock().lock();
+        try {
+            List<String> matching = new ArrayList<>();
+            for (Document document : documents) {
+                if (document != null && MetadataFilter.matches(filterExpression, document.getMetadata())) {
+                    matching.add(document.getId());
+                }
+            }
+            baseNodes.forEach((id, node) -> {
+                if (MetadataFilter.matches(filterExpression, base.metadata(node))) {
+                    matching.add(id);
+                }
+            });
+            matching.forEach(this::remove);
+            filterCache.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        compactIfNeeded();
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        float[] query = embeddingModel.embed(request.getQuery());
+        int topK = request.getTopK();
+
+        lock.readLock().lock();
+        try {
+            List<Hit> hits = new ArrayList<>();
+            if (index != null) {
+                BitSet allowed = request.hasFilterExpression()
+                        ? filterCache.computeIfAbsent(request.getFilterExpression(), this::matching)
+                        : null;
+                IntPredicate accept = allowed == null ? null : allowed::get;
+                int candidates = allowed == null ? index.liveSize() : allowed.cardinality();
+
+                List<HnswIndex.Scored> scored = candidates <= exactSearchThreshold
+                        ? index.exactSearch(query, topK, accept)
+                        : index.search(query, topK, Math.max(efSearch, topK), accept);
+                scored.forEach(hit -> hits.add(new Hit(hit.score(), documents.get(hit.node()))));
+            }
+            if (base != null && !baseNodes.isEmpty()) {
+                BitSet allowed = request.hasFilterExpression()
+                        ? baseFilterCache.computeIfAbsent(request.getFilterExpression(), this::baseMatching)
+                        : null;
+                BitSet deleted = baseDeleted;
+                IntPredicate accept = allowed == null ? node -> !deleted.get(node) : node -> allowed.get(node) && !deleted.get(node);
+                int candidates = allowed == null ? baseNodes.size() : allowed.cardinality();
+
+                List<HnswIndex.Scored> scored = baseIndex != null && candidates > exactSearchThreshold
+                        ? baseIndex.search(query, topK, Math.max(efSearch, topK), accept)
+                        : base.search(query, topK, Math.max(rerankCandidates, topK), accept);
+                scored.forEach(hit -> hits.add(new Hit(hit.score(), base.document(hit.node()))));
+            }
+            hits.sort(Comparator.comparingDouble(Hit::score).reversed());
+
+            List<Document> results = new ArrayList<>(Math.min(hits.size(), topK));
+            for (Hit hit : hits) {
+                if (results.size() == topK) {
+                    break;
+                }
+                if (hit.score() < request.getSimilarityThreshold()) {
+                    continue;
+                }
+                Map<String, Object> metadata = new HashMap<>(hit.document().getMetadata());
+                metadata.put("distance", 1 - hit.score()); // same key pgvector fills in
+                results.add(Document.builder()
+                        .id(hit.document().getId())
+                        .text(hit.document().getText())
+                        .metadata(metadata)
+                        .score((double) hit.score())
+                        .build());
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public float[] vector(String id) {
+        lock.readLock().lock();
+        try {
+            Integer node = nodes.get(id);
+            if (node != null) {
+                return index.vector(node);
+            }
+            Integer baseNode = baseNodes.get(id);
+            return baseNode != null ? base.vector(baseNode) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodes.size() + baseNodes.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void loadSnapshot() {
+        long start = System.nanoTime();
+        VectorSnapshot snapshot = VectorSnapshot.open(snapshotPath);
+        lock.writeLock().lock();
+        try {
+            useSnapshot(snapshot);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.info("Local vector store mapped {} documents from {} in {} ms", snapshot.size(), snapshotPath,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // under the write lock
+    private void useSnapshot(VectorSnapshot snapshot) {
+        Map<String, Integer> ids = new HashMap<>(snapshot.size() * 2);
+        for (int node = 0; node < snapshot.size(); node++) {
+            ids.put(snapshot.id(node), node);
+        }
+        base = snapshot;
+        baseNodes = ids;
+        baseDeleted = new BitSet(snapshot.size());
+        baseIndex = null;
+        baseFilterCache.clear();
+        if (snapshotGraph && snapshot.size() > exactSearchThreshold) {
+            Thread.ofVirtual().name("vector-snapshot-graph").start(() -> buildBaseIndex(snapshot));
+        }
+    }
+
+    // outside the lock, the snapshot is read-only. Dropped when a newer snapshot replaced it meanwhile.
+    private void buildBaseIndex(VectorSnapshot snapshot) {
+        try {
+            long start = System.nanoTime();
+            HnswIndex built = new HnswIndex(snapshot.dimensions(), m, efConstruction);
+            for (int node = 0; node < snapshot.size(); node++) {
+                built.add(snapshot.vector(node)); // node ids line up with the snapshot's
+            }
+            lock.writeLock().lock();
+            try {
+                if (base != snapshot) {
+                    return;
+                }
+                baseIndex = built;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.info("Graph over the {} documents of vector snapshot {} built in {} ms", snapshot.size(),
+                    snapshot.path(), (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException e) {
+            log.warn("Could not build the graph over vector snapshot {}, its searches stay a scan", snapshot.path(), e);
+        }
+    }
+
+    /*
+        The snapshot can be behind pgvector (chat memory vectors written after the last ingestion, another instance).
+        Only the ids are compared, the rows we are missing are the only ones fetched with their embeddings.
+        A document deleted through this store while the missing rows are fetched can come back locally until the
+        next snapshot, deletes are rare enough (ingestion only) to live with that.
+     */
+    private void catchUp() {
+        try {
+            long start = System.nanoTime();
+            Set<String> stored = new HashSet<>(jdbcTemplate.queryForList("SELECT id::text FROM " + table, String.class));
+            List<String> missing = new ArrayList<>();
+            List<String> gone = new ArrayList<>();
+            lock.readLock().lock();
+            try {
+                for (String id : stored) {
+                    if (!baseNodes.containsKey(id) && !nodes.containsKey(id)) {
+                        missing.add(id);
+                    }
+                }
+                for (String id : baseNodes.keySet()) {
+                    if (!stored.contains(id)) {
+                        gone.add(id);
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            List<Document> loaded = new ArrayList<>();
+            List<float[]> vectors = new ArrayList<>();
+            if (!missing.isEmpty()) {
+                load(" WHERE id::text = ANY(?)",
+                        ps -> ps.setArray(1, ps.getConnection().createArrayOf("text", missing.toArray())),
+                        loaded, vectors);
+            }
+            lock.writeLock().lock();
+            try {
+                gone.forEach(this::remove);
+                for (int i = 0; i < loaded.size(); i++) {
+                    if (!nodes.containsKey(loaded.get(i).getId())) {
+                        upsert(loaded.get(i), vectors.get(i));
+                    }
+                }
+                filterCache.clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.info("Local vector store caught up with {}: {} added, {} removed in {} ms", table, loaded.size(),
+                    gone.size(), (System.nanoTime() - start) / 1_000_000);
+        } catch (RuntimeException e) {
+            log.warn("Local vector store could not catch up with {}, serving the snapshot only", table, e);
+        }
+    }
+
+    private void load(String where, PreparedStatementSetter parameters, List<Document> loaded, List<float[]> vectors) {
+        jdbcTemplate.query("SELECT id, content, metadata::text AS metadata, embedding::text AS embedding FROM " + table + where,
+                parameters, rs -> {
+                    String metadata = rs.getString("metadata");
+                    loaded.add(Document.builder()
+                            .id(rs.getString("id"))
+                            .text(rs.getString("content"))
+                            .metadata(MetadataJson.parse(metadata))
+                            .build());
+                    vectors.add(parseVector(rs.getString("embedding")));
+                });
+    }
+
+    // under the read lock
+    private BitSet matching(Filter.Expression filterExpression) {
+        BitSet allowed = new BitSet(documents.size());
+        for (int node = 0; node < documents.size(); node++) {
+            Document document = documents.get(node);
+            if (document != null && MetadataFilter.matches(filterExpression, document.getMetadata())) {
+                allowed.set(node);
+            }
+        }
+        return allowed;
+    }
+
+    // under the read lock, deleted snapshot nodes are checked separately
+    private BitSet baseMatching(Filter.Expression filterExpression) {
+        BitSet allowed = new BitSet(base.size());
+        for (int node = 0; node < base.size(); node++) {
+            if (MetadataFilter.matches(filterExpression, base.metadata(node))) {
+                allowed.set(node);
+            }
+        }
+        return allowed;
+    }
+
+    // under the write lock
+    private void upsert(Document document, float[] vector) {
+        remove(document.getId());
+        if (index == null) {
+            index = new HnswIndex(vector.length, m, efConstruction);
+        }
+        int node = index.add(vector);
+        documents.add(node, document);
+        nodes.put(document.getId(), node);
+        changed = true;
+    }
+
+    // under the write lock
+    private void remove(String id) {
+        Integer node = nodes.remove(id);
+        if (node != null) {
+            index.delete(node);
+            documents.set(node, null);
+            changed = true;
+        }
+        Integer baseNode = baseNodes.remove(id);
+        if (baseNode != null) {
+            baseDeleted.set(baseNode);
+            changed = true;
+        }
+    }
+
+    // deleted nodes still cost memory and hops, once they are half of the graph it is rebuilt from the live ones.
+    private void compactIfNeeded() {
+        lock.writeLock().lock();
+        try {
+            if (index == null || index.deletedCount() < 1000 || index.deletedCount() < index.size() / 2) {
+                return;
+            }
+            List<Document> live = new ArrayList<>(nodes.size());
+            List<float[]> vectors = new ArrayList<>(nodes.size());
+            for (int node = 0; node < documents.size(); node++) {
+                if (documents.get(node) != null) {
+                    live.add(documents.get(node));
+                    vectors.add(index.vector(node));
+                }
+            }
+            Rebuilt rebuilt = build(live, vectors);
+            index = rebuilt.index();
+            documents = rebuilt.documents();
+            nodes = rebuilt.nodes();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Rebuilt build(List<Document> loaded, List<float[]> vectors) {
+        List<Document> byNode = new ArrayList<>(loaded.size());
+        Map<String, Integer> nodesById = new HashMap<>();
+        HnswIndex built = vectors.isEmpty() ? null : new HnswIndex(vectors.getFirst().length, m, efConstruction);
+        for (int i = 0; i < loaded.size(); i++) {
+            int node = built.add(vectors.get(i));
+            byNode.add(node, loaded.get(i));
+            nodesById.put(loaded.get(i).getId(), node);
+        }
+        return new Rebuilt(built, byNode, nodesById);
+    }
+
+    // pgvector's text form: [0.1,0.2,...]
+    static float[] parseVector(String text) {
+        String[] parts = text.substring(1, text.length() - 1).split(",");
+        float[] vector = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            vector[i] = Float.parseFloat(parts[i]);
+        }
+        return vector;
+    }
+
+    private record Rebuilt(HnswIndex index, List<Document> documents, Map<String, Integer> nodes) {
+    }
+
+    private record Hit(float score, Document document) {
+    }
+}
@@ -0,0 +1,91 @@
+package com.karandev.learn_spring_ai.vectorstore;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntPredicate;
+
+/*
+    Evaluates spring ai filter expressions (what SearchRequest.filterExpression("file_name == 'lec8'") parses into)
+    against a document's metadata in memory, the local stand-in for pgvector's jsonpath translation.
+ */
+public final class MetadataFilter {
+
+    private MetadataFilter() {
+    }
+
+    public static boolean matches(Filter.Operand operand, Map<String, Object> metadata) {
+        if (operand instanceof Filter.Group group) {
+            return matches(group.content(), metadata);
+        }
+        if (!(operand instanceof Filter.Expression expression)) {
+            throw new IllegalArgumentException("Not a filter expression: " + operand);
+        }
+        return switch (expression.type()) {
+            case AND -> matches(expression.left(), metadata) && matches(expression.right(), metadata);
+            case OR -> matches(expression.left(), metadata) || matches(expression.right(), metadata);
+            case NOT -> !matches(expression.left(), metadata);
+            case EQ -> isEqual(value(expression, metadata), constant(expression));
+            case NE -> !isEqual(value(expression, metadata), constant(expression));
+            case GT -> compare(value(expression, metadata), constant(expression), c -> c > 0);
+            case GTE -> compare(value(expression, metadata), constant(expression), c -> c >= 0);
+            case LT -> compare(value(expression, metadata), constant(expression), c -> c < 0);
+            case LTE -> compare(value(expression, metadata), constant(expression), c -> c <= 0);
+            case IN -> in(value(expression, metadata), constant(expression));
+            case NIN -> !in(value(expression, metadata), constant(expression));
+            // a key that is missing and one stored as json null read the same
+            case ISNULL -> value(expression, metadata) == null;
+            case ISNOTNULL -> value(expression, metadata) != null;
+        };
+    }
+
+    private static Object value(Filter.Expression expression, Map<String, Object> metadata) {
+        if (!(expression.left() instanceof Filter.Key key)) {
+            throw new IllegalArgumentException("Expected a metadata key on the left of " + expression);
+        }
+        String name = key.key();
+        if (name.length() > 1 && (name.startsWith("\"") && name.endsWith("\"") || name.startsWith("'") && name.endsWith("'"))) {
+            name = name.substring(1, name.length() - 1);
+        }
+        return metadata.get(name);
+    }
+
+    private static Object constant(Filter.Expression expression) {
+        if (!(expression.right() instanceof Filter.Value value)) {
+            throw new IllegalArgumentException("Expected a value on the right of " + expression);
+        }
+        return value.value();
+    }
+
+    private static boolean in(Object actual, Object values) {
+        Collection<?> candidates = values instanceof Collection<?> collection ? collection : List.of(values);
+        return candidates.stream().anyMatch(candidate -> isEqual(actual, candidate));
+    }
+
+    // metadata that went through json comes back as Integer/Long/Double, the filter may hold any of them.
+    private static boolean isEqual(Object actual, Object expected) {
+        if (actual instanceof Number a && expected instanceof Number b) {
+            return Double.compare(a.doubleValue(), b.doubleValue()) == 0;
+        }
+        if (actual instanceof Collection<?> collection) {
+            return collection.stream().anyMatch(element -> isEqual(element, expected));
+        }
+        return actual != null && expected != null
+                ? Objects.equals(actual.toString(), expected.toString())
+                : actual == expected;
+    }
+
+    // a missing value is neither smaller nor bigger than anything.
+    private static boolean compare(Object actual, Object expected, IntPredicate outcome) {
+        if (actual == null || expected == null) {
+            return false;
+        }
+        if (actual instanceof Number a && expected instanceof Number b) {
+            return outcome.test(Double.compare(a.doubleValue(), b.doubleValue()));
+        }
+        return outcome.test(actual.toString().compareTo(expected.toString()));
+    }
+}
@@ -0,0 +1,138 @@
+package com.karandev.learn_spring_ai.vectorstore;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+    One VectorStore in front of a physical store per kind of document, so a knowledge base search never wades
+    through chat history and the other way round:
+
+        KNOWLEDGE   the ingested pdfs (file_name, page_number, ...), also where everything unknown goes
+        MEMORY      long term chat memory and its summaries (conversationId), split by tenant in TenantVectorStore
+        DEMO        the movie and Spring AI sample documents (movieId, docId, ...)
+
+    A document is written to the partition owning one of its metadata keys. A search or filtered delete goes to the
+    partitions owning a key of its filter expression, without a filter (or only unknown keys) to all of them and the
+    results are merged by score. Deletes by id go to all partitions, ids carry no partition.
+ */
+public class RoutingVectorStore implements VectorStore, VectorLookup {
+
+    public enum Partition {
+        KNOWLEDGE, MEMORY, DEMO
+    }
+
+    private final Map<Partition, VectorStore> stores;
+    private final Map<Partition, Set<String>> keys;
+
+    public RoutingVectorStore(Map<Partition, VectorStore> stores, Map<Partition, Set<String>> keys) {
+        this.stores = new EnumMap<>(stores);
+        this.keys = new EnumMap<>(keys);
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        Map<Partition, List<Document>> byPartition = new LinkedHashMap<>();
+        for (Document document : documents) {
+            byPartition.computeIfAbsent(partitionOf(document), p -> new ArrayList<>()).add(document);
+        }
+        byPartition.forEach((partition, batch) -> stores.get(partition).add(batch));
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        stores.values().forEach(store -> store.delete(idList));
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        partitionsOf(filterExpression).forEach(partition -> stores.get(partition).delete(filterExpression));
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        Set<Partition> partitions = request.hasFilterExpression()
+                ? partitionsOf(request.getFilterExpression())
+                : stores.keySet();
+        if (partitions.size() == 1) {
+            return stores.get(partitions.iterator().next()).similaritySearch(request);
+        }
+        List<Document> merged = new ArrayList<>();
+        partitions.forEach(partition -> merged.addAll(stores.get(partition).similaritySearch(request)));
+        merged.sort(Comparator.comparingDouble((Document d) -> d.getScore() != null ? d.getScore() : 0).reversed());
+        return merged.size() > request.getTopK() ? merged.subList(0, request.getTopK()) : merged;
+    }
+
+    @Override
+    public float[] vector(String id) {
+        for (VectorStore store : stores.values()) {
+            if (store instanceof VectorLookup lookup) {
+                float[] vector = lookup.vector(id);
+                if (vector != null) {
+                    return vector;
+                }
+            }
+        }
+        return null;
+    }
+
+    // the ingestion calls this after writing, only the local stores keep a snapshot.
+    public void writeSnapshots() {
+        stores.values().forEach(store -> {
+            if (store instanceof LocalVectorStore local) {
+                local.writeSnapshot();
+            }
+        });
+    }
+
+    public VectorStore partition(Partition partition) {
+        return stores.get(partition);
+    }
+
+    Partition partitionOf(Document document) {
+        for (Partition partition : List.of(Partition.MEMORY, Partition.DEMO)) {
+            for (String key : keys.getOrDefault(partition, Set.of())) {
+                if (document.getMetadata().containsKey(key)) {
+                    return partition;
+                }
+            }
+        }
+        return Partition.KNOWLEDGE;
+    }
+
+    Set<Partition> partitionsOf(Filter.Expression expression) {
+        Set<String> referenced = new HashSet<>();
+        collectKeys(expression, referenced);
+        Set<Partition> partitions = EnumSet.noneOf(Partition.class);
+        keys.forEach((partition, owned) -> {
+            if (owned.stream().anyMatch(referenced::contains)) {
+                partitions.add(partition);
+            }
+        });
+        return partitions.isEmpty() ? stores.keySet() : partitions;
+    }
+
+    private static void collectKeys(Filter.Operand operand, Set<String> keys) {
+        if (operand instanceof Filter.Key key) {
+            keys.add(key.key());
+        } else if (operand instanceof Filter.Group group) {
+            collectKeys(group.content(), keys);
+        } else if (operand instanceof Filter.Expression expression) {
+            collectKeys(expression.left(), keys);
+            if (expression.right() != null) {
+                collectKeys(expression.right(), keys);
+            }
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.karandev.learn_spring_ai.vectorstore;
+
+import com.karandev.learn_spring_ai.util.MetadataJson;
+import com.karandev.learn_spring_ai.util.VectorMath;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+    Chat memory vectors, one small in-process index per tenant (conversation id) in front of their own pgvector table.
+
+    A memory search always names its tenant (conversationId == 'x'), so it only ever scans that tenant's vectors:
+    an exact cosine scan over a few dozen turns, however many users there are. A tenant is loaded from pgvector on
+    its first search and the least recently used ones are dropped beyond maxTenants.
+    Searches without a tenant (rare, admin style) go straight to pgvector.
+
+    A tenant is registered before it is read from pgvector, writes and deletes that arrive during the load go
+    into it and win over the rows read; other searches of the tenant wait for the load.
+ */
+@Slf4j
+public class TenantVectorStore implements VectorStore, VectorLookup {
+
+    private final VectorStore delegate;
+    private final EmbeddingModel embeddingModel;
+    private final JdbcTemplate jdbcTemplate;
+    private final String table;
+    private final String tenantKey;
+    private final int maxTenants;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Tenant> tenants = new LinkedHashMap<>(16, 0.75f, true); // access order = LRU
+    private final HashMap<String, float[]> vectors = new HashMap<>(); // id -> vector over all loaded tenants
+
+    public TenantVectorStore(VectorStore delegate, EmbeddingModel embeddingModel, JdbcTemplate jdbcTemplate, String table,
+                             String tenantKey, int maxTenants) {
+        this.delegate = delegate;
+        this.embeddingModel = embeddingModel;
+        this.jdbcTemplate = jdbcTemplate;
+        this.table = table;
+        this.tenantKey = tenantKey;
+        this.maxTenants = maxTenants;
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        if (documents.isEmpty()) {
+            return;
+        }
+        List<float[]> embeddings = embeddingModel.embed(documents.stream()
+                .map(document -> document.getFormattedContent(MetadataMode.EMBED))
+                .toList());
+        delegate.add(documents);
+
+        // a tenant that is not registered yet will read these rows, they are committed by now.
+        lock.lock();
+        try {
+            for (int i = 0; i < documents.size(); i++) {
+                Tenant tenant = tenants.get(tenantOf(documents.get(i).getMetadata()));
+                if (tenant != null) {
+                    put(tenant, documents.get(i), VectorMath.normalize(embeddings.get(i)));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        delegate.delete(idList);
+        lock.lock();
+        try {
+            tenants.values().forEach(tenant -> idList.forEach(id -> remove(tenant, id)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        delegate.delete(filterExpression);
+        lock.lock();
+        try {
+            tenants.clear(); // reloaded on the next search, filtered deletes are rare
+            vectors.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        String tenantId = request.hasFilterExpression() ? tenantOf(request.getFilterExpression()) : null;
+        if (tenantId == null) {
+            return delegate.similaritySearch(request);
+        }
+        float[] query = VectorMath.normalize(embeddingModel.embed(request.getQuery()));
+        Tenant tenant = tenant(tenantId);
+
+        List<Document> results = new ArrayList<>();
+        // a tenant is only changed under the store lock, so the scan takes it too (tenants are small, it is short).
+        lock.lock();
+        try {
+            List<Entry> entries = new ArrayList<>(tenant.entries.values());
+            List<Integer> order = new ArrayList<>();
+            float[] scores = new float[entries.size()];
+            for (int i = 0; i < entries.size(); i++) {
+                if (MetadataFilter.matches(request.getFilterExpression(), entries.get(i).document().getMetadata())) {
+                    scores[i] = VectorMath.dot(query, entries.get(i).vector());
+                    order.add(i);
+                }
+            }
+            order.sort(Comparator.comparingDouble(i -> -scores[i]));
+            for (int i : order) {
+                float score = scores[i];
+                if (results.size() == request.getTopK()) {
+                    break;
+                }
+                if (score < request.getSimilarityThreshold()) {
+                    continue;
+                }
+                Entry entry = entries.get(i);
+                Document document = entry.document();
+                Map<String, Object> metadata = new HashMap<>(document.getMetadata());
+                metadata.put("distance", 1 - score);
+                results.add(Document.builder()
+                        .id(document.getId())
+                        .text(document.getText())
+                        .metadata(metadata)
+                        .score((double) score)
+                        .build());
+            }
+        } finally {
+            lock.unlock();
+        }
+        return results;
+    }
+
+    @Override
+    public float[] vector(String id) {
+        lock.lock();
+        try {
+            return vectors.get(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int loadedTenants() {
+        lock.lock();
+        try {
+            return tenants.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // the first search of a tenant loads it, the ones arriving meanwhile wait for that load.
+    private Tenant tenant(String tenantId) {
+        Tenant tenant;
+        boolean load = false;
+        lock.lock();
+        try {
+            tenant = tenants.get(tenantId);
+            if (tenant == null) {
+                tenant = new Tenant();
+                load = true;
+                tenants.put(tenantId, tenant);
+                while (tenants.size() > maxTenants) {
+                    evict(tenants.keySet().iterator().next());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (!load) {
+            tenant.loaded.join();
+            return tenant;
+        }
+
+        try {
+            List<Entry> rows = new ArrayList<>();
+            jdbcTemplate.query("SELECT id, content, metadata::text AS metadata, embedding::text AS embedding FROM " + table
+                    + " WHERE metadata->>'" + tenantKey + "' = ?", rs -> {
+                String metadata = rs.getString("metadata");
+                rows.add(new Entry(Document.builder()
+                        .id(rs.getString("id"))
+                        .text(rs.getString("content"))
+                        .metadata(MetadataJson.parse(metadata))
+                        .build(), VectorMath.normalize(LocalVectorStore.parseVector(rs.getString("embedding")))));
+            }, tenantId);
+            log.debug("Loaded {} memory vectors of tenant {} from {}", rows.size(), tenantId, table);
+
+            lock.lock();
+            try {
+                for (Entry row : rows) {
+                    String id = row.document().getId();
+                    // written or deleted while we were reading: that is newer than our row
+                    if (!tenant.entries.containsKey(id) && !tenant.deletedWhileLoading.contains(id)) {
+                        put(tenant, row.document(), row.vector());
+                    }
+                }
+                tenant.deletedWhileLoading = null;
+            } finally {
+                lock.unlock();
+            }
+            tenant.loaded.complete(null);
+            return tenant;
+        } catch (RuntimeException e) {
+            lock.lock();
+            try {
+                tenants.remove(tenantId, tenant);
+                tenant.entries.keySet().forEach(vectors::remove);
+            } finally {
+                lock.unlock();
+            }
+            tenant.loaded.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    // the helpers below run under the lock
+
+    private void put(Tenant tenant, Document document, float[] vector) {
+        tenant.entries.put(document.getId(), new Entry(document, vector));
+        if (tenant.deletedWhileLoading != null) {
+            tenant.deletedWhileLoading.remove(document.getId());
+        }
+        vectors.put(document.getId(), vector);
+    }
+
+    private void remove(Tenant tenant, String id) {
+        if (tenant.entries.remove(id) != null) {
+            vectors.remove(id);
+        }
+        if (tenant.deletedWhileLoading != null) {
+            tenant.deletedWhileLoading.add(id);
+        }
+    }
+
+    private void evict(String tenantId) {
+        Tenant evicted = tenants.remove(tenantId);
+        if (evicted != null) {
+            evicted.entries.keySet().forEach(vectors::remove);
+        }
+    }
+
+    private String tenantOf(Map<String, Object> metadata) {
+        Object tenant = metadata.get(tenantKey);
+        return tenant != null ? tenant.toString() : null;
+    }
+
+    // the tenant of `tenantKey == 'x'`, also when it is one side of an AND.
+    private String tenantOf(Filter.Expression expression) {
+        if (expression.type() == Filter.ExpressionType.EQ
+                && expression.left() instanceof Filter.Key key && tenantKey.equals(key.key())
+                && expression.right() instanceof Filter.Value value) {
+            return String.valueOf(value.value());
+        }
+        if (expression.type() == Filter.ExpressionType.AND) {
+            String left = expression.left() instanceof Filter.Expression e ? tenantOf(e) : null;
+            return left != null ? left : expression.right() instanceof Filter.Expression e ? tenantOf(e) : null;
+        }
+        return null;
+    }
+
+    private static final class Tenant {
+
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+        private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+        private Set<String> deletedWhileLoading = new HashSet<>(); // null once loaded
+    }
+
+    private record Entry(Document document, float[] vector) {
+    }
+}
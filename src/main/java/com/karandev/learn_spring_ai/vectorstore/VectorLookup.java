@@ -0,0 +1,8 @@
+package com.karandev.learn_spring_ai.vectorstore;
+
+// Stores that keep the vectors of their documents in memory and can hand them out without an embedding call.
+public interface VectorLookup {
+
+    // the normalized vector of a stored document, null when the store does not have it (in memory).
+    float[] vector(String id);
+}
@@ -0,0 +1,323 @@
+package com.karandev.learn_spring_ai.vectorstore;
+
+import com.karandev.learn_spring_ai.util.MetadataJson;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.util.json.JsonParser;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.IntPredicate;
+
+/*
+    Read-only, memory mapped file with the documents of the vector store, so a restart can serve searches right
+    away instead of pulling every embedding out of postgres and rebuilding the graph.
+
+        header      magic, version, count, dimensions
+        quantized   per document: float scale + dimensions x int8          (what the search scans)
+        vectors     per document: dimensions x float32                     (only read to re-rank the best candidates)
+        records     per document: long offset of its entry in data
+        data        per document: id, text, metadata json, length prefixed utf-8
+
+    Vectors are normalized before they are quantized (int8 = round(v / max|v| * 127)), a search scores every document
+    with its int8 vector and re-ranks the best `candidates` with the full precision ones.
+    Nothing but the mapping lives on the heap. Everything is little endian, the file must stay below 2 GB.
+ */
+public final class VectorSnapshot {
+
+    private static final int MAGIC = 0x504E5356; // "VSNP"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final int dimensions;
+    private final long quantizedOffset;
+    private final long vectorsOffset;
+    private final long recordsOffset;
+
+    private VectorSnapshot(Path path, MappedByteBuffer buffer) {
+        this.path = path;
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IllegalStateException(path + " is not a vector snapshot (or has an older version)");
+        }
+        this.count = buffer.getInt(8);
+        this.dimensions = buffer.getInt(12);
+        this.quantizedOffset = HEADER_BYTES;
+        this.vectorsOffset = quantizedOffset + (long) count * (4 + dimensions);
+        this.recordsOffset = vectorsOffset + (long) count * dimensions * 4;
+    }
+
+    public static VectorSnapshot open(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalStateException(path + " is bigger than 2 GB");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return new VectorSnapshot(path, buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open vector snapshot " + path, e);
+        }
+    }
+
+    // writes next to the target and moves it in place, a crash halfway leaves the old snapshot intact.
+    public static void write(Path path, List<Document> documents, List<float[]> vectors) {
+        int dimensions = vectors.isEmpty() ? 0 : vectors.getFirst().length;
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                Output out = new Output(channel);
+                out.putInt(MAGIC).putInt(VERSION).putInt(documents.size()).putInt(dimensions);
+
+                List<float[]> normalized = vectors.stream().map(VectorSnapshot::normalize).toList();
+                for (float[] vector : normalized) {
+                    float maxAbs = 0;
+                    for (float v : vector) {
+                        maxAbs = Math.max(maxAbs, Math.abs(v));
+                    }
+                    float scale = maxAbs == 0 ? 0 : maxAbs / 127f;
+                    out.putFloat(scale);
+                    for (float v : vector) {
+                        out.put(scale == 0 ? 0 : (byte) Math.round(v / scale));
+                    }
+                }
+                for (float[] vector : normalized) {
+                    for (float v : vector) {
+                        out.putFloat(v);
+                    }
+                }
+
+                List<byte[]> entries = new ArrayList<>(documents.size());
+                long offset = 0;
+                for (Document document : documents) {
+                    byte[] entry = entry(document);
+                    entries.add(entry);
+                    out.putLong(offset);
+                    offset += entry.length;
+                }
+                for (byte[] entry : entries) {
+                    out.put(entry);
+                }
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write vector snapshot " + path, e);
+        }
+    }
+
+    public Path path() {
+        return path;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /*
+        Scores every accepted document with its int8 vector, keeps the best `candidates` and returns the best k of
+        those after re-scoring them with the full precision vectors. Scores are cosine similarities.
+     */
+    public List<HnswIndex.Scored> search(float[] query, int k, int candidates, IntPredicate accept) {
+        if (count == 0 || k <= 0) {
+            return List.of();
+        }
+        float[] normalized = normalize(query);
+        byte[] codes = new byte[dimensions];
+        PriorityQueue<HnswIndex.Scored> best = new PriorityQueue<>(Comparator.comparingDouble(HnswIndex.Scored::score));
+        int keep = Math.max(k, candidates);
+
+        for (int node = 0; node < count; node++) {
+            if (accept != null && !accept.test(node)) {
+                continue;
+            }
+            int offset = (int) (quantizedOffset + (long) node * (4 + dimensions));
+            float scale = buffer.getFloat(offset);
+            buffer.get(offset + 4, codes);
+            float dot = 0;
+            for (int i = 0; i < dimensions; i++) {
+                dot += normalized[i] * codes[i];
+            }
+            float score = dot * scale;
+            if (best.size() < keep) {
+                best.add(new HnswIndex.Scored(node, score));
+            } else if (score > best.peek().score()) {
+                best.poll();
+                best.add(new HnswIndex.Scored(node, score));
+            }
+        }
+
+        List<HnswIndex.Scored> reranked = new ArrayList<>(best.size());
+        for (HnswIndex.Scored candidate : best) {
+            reranked.add(new HnswIndex.Scored(candidate.node(), exactScore(normalized, candidate.node())));
+        }
+        reranked.sort(Comparator.comparingDouble(HnswIndex.Scored::score).reversed());
+        return reranked.size() > k ? reranked.subList(0, k) : reranked;
+    }
+
+    // the full precision (normalized) vector of a document.
+    public float[] vector(int node) {
+        float[] vector = new float[dimensions];
+        int offset = (int) (vectorsOffset + (long) node * dimensions * 4);
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = buffer.getFloat(offset + i * 4);
+        }
+        return vector;
+    }
+
+    public String id(int node) {
+        int offset = entryOffset(node);
+        return string(offset);
+    }
+
+    public Document document(int node) {
+        int offset = entryOffset(node);
+        String id = string(offset);
+        offset += 4 + buffer.getInt(offset);
+        String text = string(offset);
+        offset += 4 + buffer.getInt(offset);
+        String metadata = string(offset);
+        return Document.builder()
+                .id(id)
+                .text(text)
+                .metadata(MetadataJson.parse(metadata))
+                .build();
+    }
+
+    // metadata only, what filters need, without copying the text.
+    public Map<String, Object> metadata(int node) {
+        int offset = entryOffset(node);
+        offset += 4 + buffer.getInt(offset);
+        offset += 4 + buffer.getInt(offset);
+        return MetadataJson.parse(string(offset));
+    }
+
+    private float exactScore(float[] query, int node) {
+        int offset = (int) (vectorsOffset + (long) node * dimensions * 4);
+        float dot = 0;
+        for (int i = 0; i < dimensions; i++) {
+            dot += query[i] * buffer.getFloat(offset + i * 4);
+        }
+        return dot;
+    }
+
+    private int entryOffset(int node) {
+        long dataOffset = recordsOffset + (long) count * 8;
+        return (int) (dataOffset + buffer.getLong((int) (recordsOffset + (long) node * 8)));
+    }
+
+    private String string(int offset) {
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        buffer.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] entry(Document document) {
+        byte[] id = document.getId().getBytes(StandardCharsets.UTF_8);
+        byte[] text = (document.getText() == null ? "" : document.getText()).getBytes(StandardCharsets.UTF_8);
+        byte[] metadata = JsonParser.toJson(document.getMetadata()).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(12 + id.length + text.length + metadata.length).order(ByteOrder.LITTLE_ENDIAN);
+        entry.putInt(id.length).put(id).putInt(text.length).put(text).putInt(metadata.length).put(metadata);
+        return entry.array();
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float[] normalized = new float[vector.length];
+        if (norm == 0) {
+            return normalized;
+        }
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            normalized[i] = vector[i] * scale;
+        }
+        return normalized;
+    }
+
+    // buffered little endian writer on top of the channel.
+    private static final class Output {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+        private Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        Output putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+            return this;
+        }
+
+        Output putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+            return this;
+        }
+
+        Output putFloat(float value) throws IOException {
+            ensure(4);
+            buffer.putFloat(value);
+            return this;
+        }
+
+        Output put(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+            return this;
+        }
+
+        Output put(byte[] bytes) throws IOException {
+            for (int written = 0; written < bytes.length; ) {
+                ensure(1);
+                int chunk = Math.min(buffer.remaining(), bytes.length - written);
+                buffer.put(bytes, written, chunk);
+                written += chunk;
+            }
+            return this;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+CREATE TABLE IF NOT EXISTS vector_ingestion_ledger (
+    source       VARCHAR(255) NOT NULL,
+    page         INT          NOT NULL,
+    chunk_index  INT          NOT NULL,
+    content_hash CHAR(64)     NOT NULL,
+    document_id  VARCHAR(36)  NOT NULL,
+    updated_at   TIMESTAMP    NOT NULL DEFAULT now(),
+    PRIMARY KEY (source, page, chunk_index)
+);
+
+CREATE TABLE IF NOT EXISTS vector_ingestion_source (
+    source       VARCHAR(255) PRIMARY KEY,
+    file_hash    CHAR(64)     NOT NULL,
+    page_count   INT          NOT NULL,
+    completed_at TIMESTAMP    NOT NULL DEFAULT now()
+);
+
+CREATE TABLE IF NOT EXISTS embedding_cache (
+    text_hash  CHAR(64)     NOT NULL,
+    model      VARCHAR(100) NOT NULL,
+    embedding  BYTEA        NOT NULL,
+    created_at TIMESTAMP    NOT NULL DEFAULT now(),
+    PRIMARY KEY (model, text_hash)
+);
+
+-- FlightBooking ids come from this sequence in blocks of 50 (allocationSize), so hibernate can batch the inserts.
+CREATE SEQUENCE IF NOT EXISTS flight_booking_seq START WITH 1 INCREMENT BY 50;
+
+-- Databases from before the sequence already hold IDENTITY ids, the sequence has to start past them.
+-- Only moves it forward, so every later start (or a second instance) leaves it alone.
+-- The body is quoted with '' instead of $$, the script runner only knows single quotes when it splits on ';'.
+DO '
+BEGIN
+    IF to_regclass(''flight_booking'') IS NOT NULL THEN
+        PERFORM setval(''flight_booking_seq'', ids.max_id)
+        FROM (SELECT max(id) AS max_id FROM flight_booking) ids, flight_booking_seq seq
+        WHERE ids.max_id >= seq.last_value;
+    END IF;
+END
+';
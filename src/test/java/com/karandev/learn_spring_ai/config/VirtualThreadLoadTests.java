@@ -0,0 +1,95 @@
+package com.karandev.learn_spring_ai.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// No spring context and no OpenAI here, the model is a stub that just blocks like a slow network call would.
+public class VirtualThreadLoadTests {
+
+    private static final int REQUESTS = 2_000;
+    private static final int TOMCAT_MAX_THREADS = 200;
+    private static final Duration MODEL_LATENCY = Duration.ofMillis(200);
+
+    @Test
+    public void testVirtualThreadsAgainstThreadPerRequest() throws Exception {
+        SlowChatModel chatModel = new SlowChatModel(MODEL_LATENCY);
+        ChatClient chatClient = ChatClient.create(chatModel);
+
+        LoadResult platform;
+        try (ExecutorService executor = Executors.newFixedThreadPool(TOMCAT_MAX_THREADS)) {
+            platform = run(chatClient, chatModel, executor);
+        }
+
+        LoadResult virtual;
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            virtual = run(chatClient, chatModel, executor);
+        }
+
+        System.out.println("Thread per request: " + platform);
+        System.out.println("Virtual threads:    " + virtual);
+        assertTrue(virtual.peakConcurrency() > platform.peakConcurrency());
+    }
+
+    private LoadResult run(ChatClient chatClient, SlowChatModel chatModel, ExecutorService executor) throws Exception {
+        chatModel.reset();
+        long startTime = System.nanoTime();
+        List<Future<String>> futures = new ArrayList<>(REQUESTS);
+        for (int i = 0; i < REQUESTS; i++) {
+            futures.add(executor.submit(() -> chatClient.prompt().user("Tell me a joke").call().content()));
+        }
+        for (Future<String> future : futures) {
+            future.get();
+        }
+        Duration duration = Duration.ofNanos(System.nanoTime() - startTime);
+        return new LoadResult(duration, REQUESTS / (duration.toNanos() / 1_000_000_000.0), chatModel.peakConcurrency());
+    }
+
+    record LoadResult(Duration duration, double requestsPerSecond, int peakConcurrency) {}
+
+    static class SlowChatModel implements ChatModel {
+
+        private final Duration latency;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger peak = new AtomicInteger();
+
+        SlowChatModel(Duration latency) {
+            this.latency = latency;
+        }
+
+        @Override
+        public ChatResponse call(Prompt prompt) {
+            peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            return new ChatResponse(List.of(new Generation(new AssistantMessage("ok"))));
+        }
+
+        void reset() {
+            peak.set(0);
+        }
+
+        int peakConcurrency() {
+            return peak.get();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.karandev.learn_spring_ai.embedding;
+
+import com.karandev.learn_spring_ai.outbound.Priority;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// No OpenAI, the delegate "embeds" a text as its number and records every request it gets.
+public class MicroBatchingEmbeddingModelTests {
+
+    @Test
+    public void testConcurrentCallersShareOneBatch() throws Exception {
+        RecordingModel delegate = new RecordingModel();
+        MicroBatchingEmbeddingModel model = new MicroBatchingEmbeddingModel(delegate, Duration.ofMillis(300), 64);
+
+        List<Future<float[]>> results = embedConcurrently(model, 10, n -> Priority.INTERACTIVE);
+
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, results.get(i).get()[0]); // every caller gets its own slice back
+        }
+        assertEquals(1, delegate.requests.size());
+        assertEquals(10, delegate.requests.getFirst().texts().size());
+        assertEquals(10, model.stats().requests());
+    }
+
+    @Test
+    public void testAFullBatchIsSentWithoutWaitingForTheWindow() throws Exception {
+        RecordingModel delegate = new RecordingModel();
+        MicroBatchingEmbeddingModel model = new MicroBatchingEmbeddingModel(delegate, Duration.ofSeconds(30), 4);
+
+        long start = System.nanoTime();
+        List<Future<float[]>> results = embedConcurrently(model, 4, n -> Priority.INTERACTIVE);
+        for (Future<float[]> result : results) {
+            result.get();
+        }
+        assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(Duration.ofSeconds(5)) < 0);
+        assertEquals(1, delegate.requests.size());
+
+        // a request that fills a batch on its own goes straight through
+        model.embed(List.of("0", "1", "2", "3"));
+        assertEquals(2, delegate.requests.size());
+        assertEquals(4, delegate.requests.getLast().texts().size());
+    }
+
+    @Test
+    public void testPrioritiesAreNotMixedInOneBatch() throws Exception {
+        RecordingModel delegate = new RecordingModel();
+        MicroBatchingEmbeddingModel model = new MicroBatchingEmbeddingModel(delegate, Duration.ofMillis(300), 64);
+
+        List<Future<float[]>> results = embedConcurrently(model, 6,
+                n -> n % 2 == 0 ? Priority.INTERACTIVE : Priority.BACKGROUND);
+        for (Future<float[]> result : results) {
+            result.get();
+        }
+
+        assertEquals(2, delegate.requests.size());
+        for (Sent sent : delegate.requests) {
+            assertEquals(3, sent.texts().size());
+            for (String text : sent.texts()) {
+                int n = Integer.parseInt(text);
+                assertEquals(n % 2 == 0 ? Priority.INTERACTIVE : Priority.BACKGROUND, sent.priority());
+            }
+        }
+    }
+
+    @Test
+    public void testAFailingDelegateFailsEveryCaller() throws Exception {
+        RecordingModel delegate = new RecordingModel();
+        delegate.failure = new IllegalStateException("rate limited");
+        MicroBatchingEmbeddingModel model = new MicroBatchingEmbeddingModel(delegate, Duration.ofMillis(300), 64);
+
+        List<Future<float[]>> results = embedConcurrently(model, 5, n -> Priority.INTERACTIVE);
+
+        for (Future<float[]> result : results) {
+            ExecutionException e = assertThrows(ExecutionException.class, result::get);
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+        }
+        assertEquals(1, delegate.requests.size());
+    }
+
+    // n callers released at the same time, caller i embeds the text "i" at priority(i).
+    private static List<Future<float[]>> embedConcurrently(EmbeddingModel model, int callers,
+                                                           IntFunction<Priority> priority) {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<float[]>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < callers; i++) {
+                int n = i;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return priority.apply(n).call(() -> model.embed(String.valueOf(n)));
+                }));
+            }
+            start.countDown();
+        }
+        return results;
+    }
+
+    private record Sent(List<String> texts, Priority priority) {
+    }
+
+    private static class RecordingModel implements EmbeddingModel {
+
+        private final List<Sent> requests = Collections.synchronizedList(new ArrayList<>());
+        private volatile RuntimeException failure;
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            requests.add(new Sent(request.getInstructions(), Priority.current()));
+            if (failure != null) {
+                throw failure;
+            }
+            List<Embedding> embeddings = new ArrayList<>();
+            for (int i = 0; i < request.getInstructions().size(); i++) {
+                embeddings.add(new Embedding(new float[]{Float.parseFloat(request.getInstructions().get(i))}, i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+    }
+}
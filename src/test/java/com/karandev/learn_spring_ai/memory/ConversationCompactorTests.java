@@ -0,0 +1,66 @@
+package com.karandev.learn_spring_ai.memory;
+
+import com.karandev.learn_spring_ai.advisors.ParallelRetrievalAdvisor;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Real model and pgvector: 30 old turns of one conversation are folded into a summary.
+@SpringBootTest
+public class ConversationCompactorTests {
+
+    @Autowired
+    private ConversationCompactor compactor;
+
+    @Autowired
+    private VectorStore vectorStore;
+
+    @Autowired
+    private ChatMemory chatMemory;
+
+    @Test
+    public void testOldTurnsAreReplacedByASummary() {
+        String conversationId = "compaction-test-" + System.currentTimeMillis();
+        long dayAgo = System.currentTimeMillis() - 86_400_000L;
+        List<Document> turns = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            turns.add(turn(conversationId, "USER", "Turn " + i + ": my name is Karan and I like window seats to Tokyo.", dayAgo + i * 2));
+            turns.add(turn(conversationId, "ASSISTANT", "Turn " + i + ": noted, Karan, window seats to Tokyo.", dayAgo + i * 2 + 1));
+        }
+        vectorStore.add(turns);
+
+        long start = System.nanoTime();
+        compactor.compact(conversationId);
+        System.out.printf("compacted in %d ms, stats %s%n", (System.nanoTime() - start) / 1_000_000, compactor.stats());
+
+        List<Document> left = vectorStore.similaritySearch(SearchRequest.builder()
+                .query("Karan Tokyo")
+                .topK(100)
+                .filterExpression(ParallelRetrievalAdvisor.CONVERSATION_ID_METADATA + " == '" + conversationId + "'")
+                .build());
+        left.forEach(d -> System.out.println(d.getMetadata().get(ParallelRetrievalAdvisor.MESSAGE_TYPE_METADATA) + " " + d.getText()));
+
+        assertThat(left).hasSize(6 + 1); // keep-recent turns + the summary
+        assertThat(chatMemory.get(conversationId).getFirst().getText()).startsWith(ConversationCompactor.SUMMARY_PREFIX);
+
+        vectorStore.delete(left.stream().map(Document::getId).toList());
+        chatMemory.clear(conversationId);
+    }
+
+    private static Document turn(String conversationId, String type, String text, long timestamp) {
+        return new Document(text, Map.of(
+                ParallelRetrievalAdvisor.CONVERSATION_ID_METADATA, conversationId,
+                ParallelRetrievalAdvisor.MESSAGE_TYPE_METADATA, type,
+                ParallelRetrievalAdvisor.TIMESTAMP_METADATA, timestamp));
+    }
+}
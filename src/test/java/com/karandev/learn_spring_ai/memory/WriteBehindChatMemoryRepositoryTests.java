@@ -0,0 +1,76 @@
+package com.karandev.learn_spring_ai.memory;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.memory.ChatMemory;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
+import org.springframework.ai.chat.memory.MessageWindowChatMemory;
+import org.springframework.ai.chat.memory.repository.jdbc.JdbcChatMemoryRepository;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@SpringBootTest
+public class WriteBehindChatMemoryRepositoryTests {
+
+    private static final int CONVERSATIONS = 1_000;
+    private static final int TURNS = 5;
+
+    @Autowired
+    private JdbcChatMemoryRepository jdbcChatMemoryRepository;
+
+    @Autowired
+    private WriteBehindChatMemoryRepository writeBehindChatMemoryRepository;
+
+    @Test
+    public void testCompareWithJdbcRepository() throws Exception {
+        long jdbcMillis = run("jdbc-", jdbcChatMemoryRepository);
+
+        long writeBehindMillis = run("write-behind-", writeBehindChatMemoryRepository);
+        long flushStart = System.nanoTime();
+        writeBehindChatMemoryRepository.flushAll();
+        long flushMillis = (System.nanoTime() - flushStart) / 1_000_000;
+
+        System.out.println(CONVERSATIONS + " concurrent conversations x " + TURNS + " turns");
+        System.out.println("JdbcChatMemoryRepository:        " + jdbcMillis + " ms");
+        System.out.println("WriteBehindChatMemoryRepository: " + writeBehindMillis + " ms (+ " + flushMillis + " ms final flush)");
+    }
+
+    // every conversation does what one /chat turn does to the memory: add the user message, read the window, add the answer.
+    private long run(String prefix, ChatMemoryRepository repository) throws Exception {
+        ChatMemory chatMemory = MessageWindowChatMemory.builder()
+                .chatMemoryRepository(repository)
+                .maxMessages(10)
+                .build();
+
+        long startTime = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int c = 0; c < CONVERSATIONS; c++) {
+                String conversationId = prefix + c;
+                futures.add(executor.submit(() -> {
+                    for (int turn = 0; turn < TURNS; turn++) {
+                        chatMemory.add(conversationId, new UserMessage("Question " + turn));
+                        chatMemory.get(conversationId);
+                        chatMemory.add(conversationId, new AssistantMessage("Answer " + turn));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        long millis = (System.nanoTime() - startTime) / 1_000_000;
+
+        for (int c = 0; c < CONVERSATIONS; c++) {
+            chatMemory.clear(prefix + c);
+        }
+        return millis;
+    }
+}
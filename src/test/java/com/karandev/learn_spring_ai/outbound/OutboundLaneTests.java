@@ -0,0 +1,91 @@
+package com.karandev.learn_spring_ai.outbound;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// No spring context and no OpenAI, the "calls" are lambdas and the budgets are small enough to run out.
+public class OutboundLaneTests {
+
+    @Test
+    public void testRequestsPerMinuteIsEnforced() throws Exception {
+        // 600 rpm = a full bucket of 600, then one request every 100 ms.
+        try (OutboundLane lane = new OutboundLane("test", 600, 1_000_000, new SimpleMeterRegistry())) {
+            long start = System.nanoTime();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < 610; i++) {
+                    executor.submit(() -> lane.call(null, 1, result -> 1, () -> "ok"));
+                }
+            }
+            Duration took = Duration.ofNanos(System.nanoTime() - start);
+
+            System.out.println("610 calls with 600 rpm took " + took.toMillis() + " ms");
+            assertTrue(took.compareTo(Duration.ofMillis(800)) > 0);
+        }
+    }
+
+    @Test
+    public void testInteractiveCallsOvertakeBackground() throws Exception {
+        // 6000 tpm = 10 tokens every 100 ms once the first call has emptied the bucket, everything after it queues up.
+        try (OutboundLane lane = new OutboundLane("test", 60_000, 6_000, new SimpleMeterRegistry())) {
+            lane.call(null, 6_000, result -> 6_000, () -> "drain");
+
+            List<String> order = Collections.synchronizedList(new ArrayList<>());
+            List<Future<?>> futures = new ArrayList<>();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < 5; i++) {
+                    int n = i;
+                    futures.add(executor.submit(() -> Priority.BACKGROUND.run(
+                            () -> lane.call(null, 10, result -> 10, () -> order.add("background " + n)))));
+                }
+                Thread.sleep(50);
+                futures.add(executor.submit(() -> lane.call(null, 10, result -> 10, () -> order.add("interactive"))));
+            }
+
+            System.out.println(order);
+            assertTrue(order.indexOf("interactive") < 2);
+        }
+    }
+
+    @Test
+    public void testIdenticalCallsAreCoalesced() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        try (OutboundLane lane = new OutboundLane("test", 60_000, 1_000_000, new SimpleMeterRegistry())) {
+            List<Future<String>> results = new ArrayList<>();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < 20; i++) {
+                    results.add(executor.submit(() -> lane.call("same prompt", 10, result -> 10, () -> {
+                        executions.incrementAndGet();
+                        sleep(200);
+                        return "answer";
+                    })));
+                }
+            }
+            for (Future<String> result : results) {
+                assertEquals("answer", result.get());
+            }
+
+            System.out.println("20 identical calls, " + executions.get() + " executions");
+            assertEquals(1, executions.get());
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
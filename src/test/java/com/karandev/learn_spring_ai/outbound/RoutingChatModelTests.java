@@ -0,0 +1,145 @@
+package com.karandev.learn_spring_ai.outbound;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// In-process stand-ins for ollama and OpenAI: they answer with their own name after a fixed delay.
+public class RoutingChatModelTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void testSmallPromptsGoLocalAndLargeOnesRemote() {
+        RoutingChatModel model = router(answering("local", Duration.ZERO), answering("remote", Duration.ZERO), false);
+
+        assertEquals("local", text(model.call(new Prompt("tell me a joke"))));
+        assertEquals("remote", text(model.call(new Prompt("x".repeat(10_000)))));
+        assertEquals(1, meterRegistry.get("ai.model.routing.decisions").tag("route", "local").counter().count());
+    }
+
+    @Test
+    public void testTheHintWins() {
+        RoutingChatModel model = router(answering("local", Duration.ZERO), answering("remote", Duration.ZERO), false);
+        UserMessage message = UserMessage.builder()
+                .text("short, but answered from retrieved context")
+                .metadata(Map.of(RoutingChatModel.ROUTE_METADATA, RoutingChatModel.Route.REMOTE.name()))
+                .build();
+
+        assertEquals("remote", text(model.call(new Prompt(message))));
+        assertEquals(1, meterRegistry.get("ai.model.routing.decisions").tag("reason", "hint").counter().count());
+    }
+
+    @Test
+    public void testLocalFailureFallsBackToRemote() {
+        ChatModel broken = prompt -> {
+            throw new IllegalStateException("ollama is not running");
+        };
+        RoutingChatModel model = router(broken, answering("remote", Duration.ZERO), false);
+
+        assertEquals("remote", text(model.call(new Prompt("tell me a joke"))));
+        assertEquals(1, meterRegistry.get("ai.model.routing.fallbacks").counter().count());
+    }
+
+    @Test
+    public void testLocalFailureWithToolsIsNotRetriedRemotely() {
+        AtomicBoolean remoteCalled = new AtomicBoolean();
+        ChatModel broken = prompt -> {
+            throw new IllegalStateException("failed after running a booking tool");
+        };
+        ChatModel remote = prompt -> {
+            remoteCalled.set(true);
+            return response("remote");
+        };
+        RoutingChatModel model = router(broken, remote, false);
+        Prompt prompt = new Prompt(new UserMessage("book a flight to Delhi"),
+                ToolCallingChatOptions.builder().toolNames(Set.of("flight_booking_tool")).build());
+
+        assertThrows(IllegalStateException.class, () -> model.call(prompt));
+        assertFalse(remoteCalled.get());
+    }
+
+    @Test
+    public void testSlowLocalModelLosesTheRaceAndIsCancelled() {
+        AtomicBoolean interrupted = new AtomicBoolean();
+        ChatModel slowLocal = prompt -> {
+            try {
+                Thread.sleep(5_000);
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+                throw new IllegalStateException(e);
+            }
+            return response("local");
+        };
+        RoutingChatModel model = router(slowLocal, answering("remote", Duration.ofMillis(50)), true);
+
+        long start = System.nanoTime();
+        String answer = text(model.call(new Prompt("tell me a joke")));
+        Duration took = Duration.ofNanos(System.nanoTime() - start);
+
+        System.out.println("raced answer after " + took.toMillis() + " ms");
+        assertEquals("remote", answer);
+        assertTrue(took.compareTo(Duration.ofSeconds(2)) < 0);
+        assertEquals(1, meterRegistry.get("ai.model.routing.race").tag("winner", "remote").counter().count());
+        waitFor(interrupted);
+        assertTrue(interrupted.get());
+    }
+
+    @Test
+    public void testFastLocalModelAnswersWithinTheSlo() {
+        RoutingChatModel model = router(answering("local", Duration.ofMillis(10)), answering("remote", Duration.ZERO), true);
+
+        assertEquals("local", text(model.call(new Prompt("tell me a joke"))));
+        assertTrue(meterRegistry.find("ai.model.routing.race").counters().isEmpty());
+    }
+
+    private RoutingChatModel router(ChatModel local, ChatModel remote, boolean race) {
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        return new RoutingChatModel(local, remote, executor, 1500, 6, race, Duration.ofMillis(200), meterRegistry);
+    }
+
+    private static ChatModel answering(String name, Duration latency) {
+        return prompt -> {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return response(name);
+        };
+    }
+
+    private static ChatResponse response(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+
+    private static String text(ChatResponse response) {
+        return response.getResult().getOutput().getText();
+    }
+
+    private static void waitFor(AtomicBoolean flag) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(1).toNanos();
+        while (!flag.get() && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.karandev.learn_spring_ai.prompts;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.prompt.PromptTemplate;
+import org.springframework.core.io.DefaultResourceLoader;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PromptRegistryTests {
+
+    private final PromptRegistry registry = new PromptRegistry(new DefaultResourceLoader(), "classpath:prompts/*.st");
+
+    @Test
+    public void testRendersLikePromptTemplate() {
+        String template = "Context:\n{context}\n\nQuestion:\n{question}\n";
+        Map<String, Object> values = Map.of("context", "chunk one\n\nchunk two", "question", "What is an advisor?");
+
+        assertThat(CompiledPrompt.compile("test", template).render(values))
+                .isEqualTo(new PromptTemplate(template).render(values));
+    }
+
+    @Test
+    public void testValuesAreNotParsedAgain() {
+        // user input with braces would break a template engine, here it is copied as is
+        assertThat(registry.get("chat-user").render("message", "book {this} for user {userId}"))
+                .isEqualTo("book {this} for user {userId}\n");
+    }
+
+    @Test
+    public void testStaticPrefixesDoNotDependOnTheUser() {
+        assertThat(registry.get("chat-system").variables()).isEmpty();
+        assertThat(registry.get("ask-ai-system").variables()).isEmpty();
+        assertThat(registry.get("chat-system").render()).isSameAs(registry.get("chat-system").render());
+        assertThat(registry.get("ask-ai-user").variables()).containsExactly("context", "question");
+    }
+
+    @Test
+    public void testMissingValuesAndUnknownPromptsFail() {
+        assertThatThrownBy(() -> registry.get("ask-ai-user").render("context", "only context"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> registry.get("nope")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testRenderingIsCheaperThanPromptTemplate() {
+        String template = registry.get("ask-ai-user").render(Map.of("context", "{context}", "question", "{question}"));
+        Map<String, Object> values = Map.of("context", "chunk ".repeat(200), "question", "What is an advisor?");
+        CompiledPrompt compiled = registry.get("ask-ai-user");
+
+        for (int i = 0; i < 2_000; i++) { // warm up both
+            compiled.render(values);
+            new PromptTemplate(template).render(values);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < 10_000; i++) {
+            compiled.render(values);
+        }
+        long compiledNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < 10_000; i++) {
+            new PromptTemplate(template).render(values);
+        }
+        long templateNanos = System.nanoTime() - start;
+        System.out.printf("compiled %.2f us, PromptTemplate %.2f us per render%n",
+                compiledNanos / 1e3 / 10_000, templateNanos / 1e3 / 10_000);
+    }
+}
@@ -0,0 +1,63 @@
+package com.karandev.learn_spring_ai.retrieval;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class Bm25IndexTests {
+
+    private static final List<Document> DOCUMENTS = List.of(
+            new Document("1", "The QuestionAnswerAdvisor queries the vector store before calling the model.", Map.of("file_name", "lec8.pdf")),
+            new Document("2", "A chat memory advisor keeps the last messages of a conversation.", Map.of("file_name", "lec8.pdf")),
+            new Document("3", "Error code SPRING_AI_004 means the embedding dimensions do not match.", Map.of("file_name", "lec9.pdf")),
+            new Document("4", "Prompt templates standardize prompts across model calls.", Map.of("file_name", "lec8.pdf")));
+
+    @Test
+    public void testIdentifiersMatchWholeAndByPart() {
+        assertThat(Bm25Index.tokenize("QuestionAnswerAdvisor SPRING_AI_004"))
+                .contains("questionansweradvisor", "question", "answer", "advisor", "spring_ai_004", "spring", "ai", "004");
+
+        Bm25Index index = new Bm25Index();
+        index.add(DOCUMENTS);
+        assertThat(index.search("QuestionAnswerAdvisor", 2, null).getFirst().document().getId()).isEqualTo("1");
+        assertThat(index.search("what does SPRING_AI_004 mean", 1, null).getFirst().document().getId()).isEqualTo("3");
+        assertThat(index.search("advisor", 4, null)).extracting(hit -> hit.document().getId()).containsExactlyInAnyOrder("1", "2");
+    }
+
+    @Test
+    public void testFiltersAndDeletesApply() {
+        Bm25Index index = new Bm25Index();
+        index.add(DOCUMENTS);
+        var lec8 = new FilterExpressionTextParser().parse("file_name == 'lec8.pdf'");
+
+        assertThat(index.search("SPRING_AI_004 embedding", 4, lec8)).isEmpty();
+
+        index.delete(List.of("1"));
+        assertThat(index.size()).isEqualTo(3);
+        // "advisor" still finds doc 2 through the split identifier, doc 1 is gone
+        assertThat(index.search("QuestionAnswerAdvisor", 4, null)).extracting(hit -> hit.document().getId())
+                .containsExactly("2");
+
+        // re-adding an id replaces the old text
+        index.add(List.of(new Document("2", "Now about BM25 only.", Map.of())));
+        assertThat(index.search("conversation", 4, null)).isEmpty();
+        assertThat(index.search("bm25", 4, null)).hasSize(1);
+    }
+
+    @Test
+    public void testABulkLoadDoesNotReplaceNewerDocuments() {
+        Bm25Index index = new Bm25Index();
+        index.add(List.of(new Document("2", "Re-ingested text about BM25.", Map.of())));
+
+        // the startup load read the old row of "2" before the re-ingestion wrote the new one
+        assertThat(index.addIfAbsent(DOCUMENTS)).isEqualTo(3);
+        assertThat(index.size()).isEqualTo(4);
+        assertThat(index.search("bm25", 4, null)).extracting(hit -> hit.document().getId()).containsExactly("2");
+        assertThat(index.search("conversation", 4, null)).isEmpty();
+    }
+}
@@ -0,0 +1,84 @@
+package com.karandev.learn_spring_ai.retrieval;
+
+import com.karandev.learn_spring_ai.util.Tokens;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ContextPackerTests {
+
+    // "a" and "a-copy" point the same way, "b" and "c" are orthogonal to it
+    private static final Map<String, float[]> VECTORS = Map.of(
+            "a", new float[]{1, 0, 0},
+            "a-copy", new float[]{0.99f, 0.141f, 0},
+            "b", new float[]{0, 1, 0},
+            "c", new float[]{0, 0, 1});
+
+    private final ContextPacker packer = new ContextPacker(VECTORS::get, 300, 0.5, 0.95);
+
+    @Test
+    public void testNearDuplicatesAndWhatDoesNotFitAreDropped() {
+        List<Document> ranked = List.of(chunk("a", 100), chunk("a-copy", 100), chunk("b", 80), chunk("c", 40));
+
+        var packed = packer.documents(ranked, 150);
+
+        // a-copy is a duplicate, b does not fit after a, c still does
+        assertThat(packed.kept()).extracting(Document::getId).containsExactly("a", "c");
+        assertThat(packed.tokens()).isEqualTo(140);
+        assertThat(packed.dropped()).isEqualTo(180);
+    }
+
+    @Test
+    public void testTokenCountsComeFromTheMetadata() {
+        Document counted = Document.builder().id("x").text("short").metadata(Map.of(Tokens.METADATA_KEY, 500)).build();
+        assertThat(Tokens.of(counted)).isEqualTo(500);
+        assertThat(packer.documents(List.of(counted), 100).kept()).isEmpty();
+    }
+
+    @Test
+    public void testOldestMemoryIsTrimmedFirst() {
+        List<Message> history = List.of(
+                new UserMessage("x".repeat(200)),       // 50 tokens, oldest
+                new AssistantMessage("y".repeat(200)),  // 50
+                new UserMessage("z".repeat(200)),       // 50
+                new AssistantMessage("w".repeat(200))); // 50, newest
+        Document remembered = Document.builder().id("m1").text("w".repeat(200)).build();
+        Document older = Document.builder().id("m2").text("v".repeat(200)).build();
+
+        // knowledge takes 150 of 300, leaves 150: three newest messages, nothing for the long term memory
+        var context = packer.pack(history, List.of(remembered, older), List.of(chunk("a", 150)));
+
+        assertThat(context.knowledge()).hasSize(1);
+        assertThat(context.history()).extracting(Message::getText)
+                .containsExactly("y".repeat(200), "z".repeat(200), "w".repeat(200));
+        assertThat(context.longTermMemory()).isEmpty();
+        assertThat(context.tokens()).isEqualTo(300);
+        assertThat(context.tokensSaved()).isEqualTo(50 + 50 + 50); // oldest message, repeated memory, older memory
+    }
+
+    @Test
+    public void testASummaryOverTheBudgetIsCut() {
+        List<Message> history = List.of(
+                new SystemMessage("s".repeat(800)),     // 200 tokens
+                new UserMessage("x".repeat(200)));      // 50
+
+        var packed = packer.history(history, 120);
+
+        assertThat(packed.kept()).extracting(Message::getText).containsExactly("s".repeat(480));
+        assertThat(packed.tokens()).isEqualTo(120);
+        assertThat(packed.dropped()).isEqualTo(80 + 50);
+        assertThat(packer.history(history, 0).kept()).isEmpty();
+    }
+
+    private static Document chunk(String id, int tokens) {
+        return Document.builder().id(id).text("chunk " + id).metadata(Map.of(Tokens.METADATA_KEY, tokens)).build();
+    }
+}
@@ -0,0 +1,88 @@
+package com.karandev.learn_spring_ai.retrieval;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+    Fixed query set against the lec8 knowledge base: dense only, BM25 only and the fused hybrid search.
+    A chunk counts as relevant when it contains the exact term the query asks about.
+ */
+@SpringBootTest
+public class HybridRetrievalTests {
+
+    private static final String FILTER = "file_name == 'lec8.pdf'";
+    private static final int K = 4;
+
+    // query -> the term a relevant chunk has to contain
+    private static final List<List<String>> QUERIES = List.of(
+            List.of("What does the QuestionAnswerAdvisor do?", "QuestionAnswerAdvisor"),
+            List.of("How is MessageChatMemoryAdvisor configured?", "MessageChatMemoryAdvisor"),
+            List.of("VectorStoreChatMemoryAdvisor", "VectorStoreChatMemoryAdvisor"),
+            List.of("What is SafeGuardAdvisor used for?", "SafeGuardAdvisor"),
+            List.of("Explain the ChatClient fluent API", "ChatClient"),
+            List.of("TokenTextSplitter chunk size", "TokenTextSplitter"),
+            List.of("What is a PromptTemplate?", "PromptTemplate"),
+            List.of("similarityThreshold and topK", "similarityThreshold"));
+
+    @Autowired
+    private VectorStore vectorStore;
+
+    @Autowired
+    private HybridVectorStore hybridVectorStore;
+
+    @Test
+    public void testCompareDenseLexicalAndHybrid() throws InterruptedException {
+        // the lexical index loads in the background at startup
+        for (int i = 0; i < 50 && hybridVectorStore.lexicalIndex().size() == 0; i++) {
+            Thread.sleep(100);
+        }
+        List<Document> corpus = vectorStore.similaritySearch(SearchRequest.builder()
+                .query("spring ai").topK(10_000).filterExpression(FILTER).build());
+        System.out.println("lec8 chunks: " + corpus.size() + ", bm25 index: " + hybridVectorStore.lexicalIndex().size());
+
+        measure("dense", corpus, query -> vectorStore.similaritySearch(request(query)));
+        measure("bm25", corpus, query -> hybridVectorStore.lexicalIndex()
+                .search(query, K, request(query).getFilterExpression()).stream().map(Bm25Index.Hit::document).toList());
+        measure("hybrid", corpus, query -> hybridVectorStore.similaritySearch(request(query)));
+    }
+
+    private void measure(String name, List<Document> corpus, Function<String, List<Document>> search) {
+        double recall = 0;
+        int queries = 0;
+        long nanos = 0;
+        for (List<String> query : QUERIES) {
+            String term = query.get(1).toLowerCase(Locale.ROOT);
+            Set<String> relevant = corpus.stream()
+                    .filter(d -> d.getText().toLowerCase(Locale.ROOT).contains(term))
+                    .map(Document::getId)
+                    .collect(Collectors.toSet());
+            if (relevant.isEmpty()) {
+                continue;
+            }
+            List<Document> found = search.apply(query.get(0));
+            long start = System.nanoTime();
+            for (int round = 0; round < 5; round++) {
+                search.apply(query.get(0));
+            }
+            nanos += (System.nanoTime() - start) / 5;
+            recall += found.stream().filter(d -> relevant.contains(d.getId())).count() / (double) Math.min(K, relevant.size());
+            queries++;
+        }
+        System.out.printf("%-6s recall@%d %.3f, %.2f ms per search (%d queries)%n", name, K,
+                queries == 0 ? 0 : recall / queries, queries == 0 ? 0 : nanos / 1e6 / queries, queries);
+    }
+
+    private static SearchRequest request(String query) {
+        return SearchRequest.builder().query(query).topK(K).filterExpression(FILTER).build();
+    }
+}
@@ -0,0 +1,62 @@
+package com.karandev.learn_spring_ai.retrieval;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RerankerTests {
+
+    // the query points along the first axis, "close" does too, "far" does not
+    private static final Map<String, float[]> VECTORS = Map.of(
+            "far", new float[]{0, 1, 0},
+            "middle", new float[]{0.6f, 0.8f, 0},
+            "close", new float[]{1, 0, 0});
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void testCandidatesAreReorderedByTheLocalScore() {
+        Reranker reranker = new Reranker(query -> new float[]{1, 0, 0}, VECTORS::get, 50, 0.3,
+                Duration.ofSeconds(1), meterRegistry);
+
+        // first stage order: far, middle, close
+        List<Document> results = reranker.rerank("vector store", List.of(
+                chunk("far", "nothing relevant"), chunk("middle", "a store"), chunk("close", "the vector store")), 2);
+
+        assertThat(results).extracting(Document::getId).containsExactly("close", "middle");
+        assertThat(meterRegistry.get("ai.retrieval.rerank.reordered").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void testTermOverlapDecidesWithoutVectors() {
+        Reranker reranker = new Reranker(query -> new float[]{1, 0, 0}, id -> null, 50, 0.3,
+                Duration.ofSeconds(1), meterRegistry);
+
+        List<Document> results = reranker.rerank("PgVectorStore index", List.of(
+                chunk("a", "unrelated text"), chunk("b", "the pg vector store keeps an index")), 1);
+
+        assertThat(results).extracting(Document::getId).containsExactly("b");
+    }
+
+    @Test
+    public void testTheFirstStageOrderIsKeptWhenTheBudgetRunsOut() {
+        Reranker reranker = new Reranker(query -> new float[]{1, 0, 0}, VECTORS::get, 50, 0.3,
+                Duration.ZERO, meterRegistry);
+
+        List<Document> results = reranker.rerank("vector store", List.of(
+                chunk("far", "nothing relevant"), chunk("middle", "a store"), chunk("close", "the vector store")), 2);
+
+        assertThat(results).extracting(Document::getId).containsExactly("far", "middle");
+        assertThat(meterRegistry.get("ai.retrieval.rerank.budget.exceeded").counter().count()).isEqualTo(1);
+    }
+
+    private static Document chunk(String id, String text) {
+        return Document.builder().id(id).text(text).build();
+    }
+}
@@ -1,5 +1,6 @@
 package com.karandev.learn_spring_ai.service;
 
+import com.karandev.learn_spring_ai.embedding.CachingEmbeddingModel;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -10,6 +11,9 @@ public class AIServiceTests {
     @Autowired
     private AIService aiService;
 
+    @Autowired
+    private CachingEmbeddingModel cachingEmbeddingModel;
+
 
     @Test
     public void getJoke() {
@@ -34,4 +38,11 @@ public class AIServiceTests {
            System.out.println(response);
        }
     }
+
+    @Test
+    public void testEmbeddingCache() {
+        aiService.getEmbedding("This is a big text here");
+        aiService.getEmbedding("This is a big text here"); // second one is served from the in-process cache
+        System.out.println(cachingEmbeddingModel.stats());
+    }
 }
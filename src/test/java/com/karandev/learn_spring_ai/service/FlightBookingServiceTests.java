@@ -0,0 +1,120 @@
+package com.karandev.learn_spring_ai.service;
+
+import com.karandev.learn_spring_ai.dto.BookingOutcome;
+import com.karandev.learn_spring_ai.dto.BookingRequest;
+import com.karandev.learn_spring_ai.entity.BookingStatus;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+public class FlightBookingServiceTests {
+
+    private static final int BOOKINGS = 10_000;
+    private static final List<String> DESTINATIONS = List.of("Delhi", "London", "Paris", "Tokyo", "New York");
+
+    @Autowired
+    private FlightBookingService flightBookingService;
+
+    // 10k bookings one by one (what flight_booking_tool does) against createBookings in batches of 500.
+    @Test
+    public void benchmarkBulkBooking() {
+        List<BookingRequest> requests = requests();
+
+        String singleUser = "bench-single-" + System.currentTimeMillis();
+        long start = System.nanoTime();
+        for (BookingRequest request : requests) {
+            flightBookingService.createBooking(singleUser, request.destination(), request.departureTime());
+        }
+        Duration single = Duration.ofNanos(System.nanoTime() - start);
+
+        String bulkUser = "bench-bulk-" + System.currentTimeMillis();
+        int created = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < BOOKINGS; i += 500) {
+            created += (int) flightBookingService.createBookings(bulkUser, requests.subList(i, i + 500)).stream()
+                    .filter(o -> o.result() == BookingOutcome.Result.CREATED)
+                    .count();
+        }
+        Duration bulk = Duration.ofNanos(System.nanoTime() - start);
+
+        assertEquals(BOOKINGS, created);
+        System.out.printf("single: %d ms (%.0f bookings/s)%n", single.toMillis(), BOOKINGS / (single.toNanos() / 1e9));
+        System.out.printf("bulk:   %d ms (%.0f bookings/s)%n", bulk.toMillis(), BOOKINGS / (bulk.toNanos() / 1e9));
+    }
+
+    @Test
+    public void testBulkBookingDuplicates() {
+        String userId = "bulk-" + System.currentTimeMillis();
+        Instant departure = Instant.now().plus(30, ChronoUnit.DAYS).truncatedTo(ChronoUnit.SECONDS);
+        flightBookingService.createBooking(userId, "London", departure);
+
+        var outcomes = flightBookingService.createBookings(userId, List.of(
+                new BookingRequest("London", departure),
+                new BookingRequest("Paris", departure),
+                new BookingRequest("Paris", departure)));
+
+        outcomes.forEach(System.out::println);
+        assertEquals(BookingOutcome.Result.DUPLICATE, outcomes.get(0).result());
+        assertEquals(BookingOutcome.Result.CREATED, outcomes.get(1).result());
+        assertEquals(BookingOutcome.Result.DUPLICATE, outcomes.get(2).result());
+    }
+
+    // 30 upcoming and 15 past bookings, read back 20 at a time: upcoming ascending, then past descending, nothing twice.
+    @Test
+    public void testBookingPages() {
+        String userId = "pages-" + System.currentTimeMillis();
+        Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        List<BookingRequest> requests = new ArrayList<>();
+        for (int i = 1; i <= 30; i++) {
+            requests.add(new BookingRequest("Upcoming " + i, now.plus(i, ChronoUnit.DAYS)));
+        }
+        for (int i = 1; i <= 15; i++) {
+            requests.add(new BookingRequest("Past " + i, now.minus(i, ChronoUnit.DAYS)));
+        }
+        flightBookingService.createBookings(userId, requests);
+
+        List<String> destinations = new ArrayList<>();
+        Set<Long> ids = new HashSet<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            var page = flightBookingService.getBookingPage(userId, null, cursor, 20);
+            page.bookings().forEach(b -> {
+                destinations.add(b.getDestination());
+                ids.add(b.getId());
+            });
+            cursor = page.hasMore() ? BookingCursor.after(page.bookings().getLast(), page.pivot()).encode() : null;
+            pages++;
+        } while (cursor != null);
+
+        System.out.println(pages + " pages: " + destinations);
+        assertEquals(3, pages);
+        assertEquals(45, ids.size());
+        assertEquals("Upcoming 1", destinations.getFirst());
+        assertEquals("Upcoming 30", destinations.get(29));
+        assertEquals("Past 1", destinations.get(30));
+        assertEquals("Past 15", destinations.getLast());
+        assertTrue(flightBookingService.getBookingPage(userId, BookingStatus.CANCELLED, null, 20).bookings().isEmpty());
+    }
+
+    private static List<BookingRequest> requests() {
+        Instant start = Instant.now().plus(1, ChronoUnit.DAYS).truncatedTo(ChronoUnit.HOURS);
+        List<BookingRequest> requests = new ArrayList<>(BOOKINGS);
+        for (int i = 0; i < BOOKINGS; i++) {
+            requests.add(new BookingRequest(DESTINATIONS.get(i % DESTINATIONS.size()), start.plus(i, ChronoUnit.HOURS)));
+        }
+        return requests;
+    }
+}
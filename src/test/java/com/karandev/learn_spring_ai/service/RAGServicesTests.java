@@ -1,5 +1,6 @@
 package com.karandev.learn_spring_ai.service;
 
+import com.karandev.learn_spring_ai.cache.SemanticCache;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
@@ -10,9 +11,13 @@ public class RAGServicesTests {
     @Autowired
     private RAGService ragService;
 
+    @Autowired
+    private SemanticCache semanticCache;
+
     @Test
     public void testIngest() {
-        ragService.ingestPDFToVectorStore();
+        var report = ragService.ingestPDFToVectorStore();
+        System.out.println(report + " pages/s=" + report.pagesPerSecond() + " chunks/s=" + report.chunksPerSecond());
     }
 
     @Test
@@ -33,4 +38,11 @@ public class RAGServicesTests {
     }
     // After running thsi we can ask it to tell our name and it will be able to tell it.
 
+    @Test
+    public void testAskAISemanticCache() {
+        ragService.askAI("What is a prompt template in Spring AI?");
+        ragService.askAI("What's a prompt template in spring AI"); // reworded, this one should come from the semantic cache.
+        System.out.println(semanticCache.stats());
+    }
+
 }
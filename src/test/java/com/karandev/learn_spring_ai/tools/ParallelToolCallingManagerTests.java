@@ -0,0 +1,233 @@
+package com.karandev.learn_spring_ai.tools;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.ToolResponseMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.model.tool.ToolExecutionResult;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.execution.DefaultToolExecutionExceptionProcessor;
+import org.springframework.ai.tool.resolution.StaticToolCallbackResolver;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// No spring context and no model, the tools are stubs that sleep like a jdbc or http call would.
+public class ParallelToolCallingManagerTests {
+
+    private static final Duration LATENCY = Duration.ofMillis(300);
+
+    @Test
+    public void testIndependentCallsRunConcurrently() {
+        List<ToolCallback> tools = List.of(new SlowTool("getWeather", LATENCY), new SlowTool("get_upcoming_bookings", LATENCY));
+        var manager = manager(tools, Map.of());
+
+        long start = System.nanoTime();
+        ToolExecutionResult result = manager.executeToolCalls(prompt(tools), response(
+                call("1", "getWeather", "{\"city\": \"Delhi\"}"),
+                call("2", "getWeather", "{\"city\": \"London\"}"),
+                call("3", "getWeather", "{\"city\": \"Paris\"}"),
+                call("4", "get_upcoming_bookings", "{\"userId\": \"user-1\"}")));
+        Duration took = Duration.ofNanos(System.nanoTime() - start);
+
+        List<String> ids = responses(result).stream().map(ToolResponseMessage.ToolResponse::id).toList();
+        System.out.println("4 calls took " + took.toMillis() + " ms, responses " + ids);
+        assertEquals(List.of("1", "2", "3", "4"), ids);
+        assertTrue(took.compareTo(LATENCY.multipliedBy(2)) < 0);
+    }
+
+    @Test
+    public void testWritesOfTheSameUserAreSerialized() {
+        WriteTool book = new WriteTool("flight_booking_tool", LATENCY);
+        List<ToolCallback> tools = List.of(book);
+        var manager = manager(tools, Map.of());
+
+        long start = System.nanoTime();
+        ToolExecutionResult result = manager.executeToolCalls(prompt(tools), response(
+                call("1", "flight_booking_tool", "{\"userId\": \"user-1\", \"destination\": \"Delhi\"}"),
+                call("2", "flight_booking_tool", "{\"userId\": \"user-2\", \"destination\": \"Delhi\"}"),
+                call("3", "flight_booking_tool", "{\"userId\": \"user-1\", \"destination\": \"London\"}")));
+        Duration took = Duration.ofNanos(System.nanoTime() - start);
+
+        System.out.println("3 writes took " + took.toMillis() + " ms, written in order " + book.order);
+        assertEquals(1, book.maxConcurrentPerUser.get());
+        assertTrue(book.order.indexOf("user-1 Delhi") < book.order.indexOf("user-1 London"));
+        assertEquals(3, responses(result).size());
+        assertTrue(took.compareTo(LATENCY.multipliedBy(3)) < 0);
+    }
+
+    @Test
+    public void testSlowToolTimesOut() {
+        List<ToolCallback> tools = List.of(new SlowTool("getWeather", Duration.ofSeconds(5)), new SlowTool("get_upcoming_bookings", LATENCY));
+        var manager = manager(tools, Map.of("getWeather", Duration.ofMillis(500)));
+
+        long start = System.nanoTime();
+        ToolExecutionResult result = manager.executeToolCalls(prompt(tools), response(
+                call("1", "getWeather", "{\"city\": \"Delhi\"}"),
+                call("2", "get_upcoming_bookings", "{\"userId\": \"user-1\"}")));
+        Duration took = Duration.ofNanos(System.nanoTime() - start);
+
+        var responses = responses(result);
+        System.out.println(took.toMillis() + " ms " + responses);
+        assertTrue(responses.get(0).responseData().contains("did not answer"));
+        assertEquals("\"get_upcoming_bookings done\"", responses.get(1).responseData());
+        assertTrue(took.compareTo(Duration.ofSeconds(2)) < 0);
+    }
+
+    @Test
+    public void testWritesAfterATimedOutWriteAreNotRun() {
+        WriteTool book = new WriteTool("flight_booking_tool", LATENCY);
+        List<ToolCallback> tools = List.of(book);
+        var manager = manager(tools, Map.of("flight_booking_tool", Duration.ofMillis(100)));
+
+        ToolExecutionResult result = manager.executeToolCalls(prompt(tools), response(
+                call("1", "flight_booking_tool", "{\"userId\": \"user-1\", \"destination\": \"Delhi\"}"),
+                call("2", "flight_booking_tool", "{\"userId\": \"user-1\", \"destination\": \"London\"}")));
+
+        var responses = responses(result);
+        System.out.println("written " + book.order + ", responses " + responses);
+        assertEquals(List.of("user-1 Delhi"), book.order);
+        assertTrue(responses.get(0).responseData().contains("did not answer"));
+        assertTrue(responses.get(1).responseData().contains("was not run"));
+    }
+
+    @Test
+    public void testSingleCallTimesOut() {
+        List<ToolCallback> tools = List.of(new SlowTool("getWeather", Duration.ofSeconds(5)));
+        var manager = manager(tools, Map.of("getWeather", Duration.ofMillis(200)));
+
+        long start = System.nanoTime();
+        ToolExecutionResult result = manager.executeToolCalls(prompt(tools), response(
+                call("1", "getWeather", "{\"city\": \"Delhi\"}")));
+        Duration took = Duration.ofNanos(System.nanoTime() - start);
+
+        assertTrue(responses(result).get(0).responseData().contains("did not answer"));
+        assertTrue(took.compareTo(Duration.ofSeconds(2)) < 0);
+    }
+
+    @Test
+    public void testABoundedPoolDoesNotStarveItsOwnCalls() {
+        // like Boot's pool without virtual threads: fewer threads than calls, an unbounded queue
+        ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+        pool.setCorePoolSize(2);
+        pool.initialize();
+        try {
+            List<ToolCallback> tools = List.of(new SlowTool("getWeather", LATENCY));
+            var manager = manager(tools, Map.of("getWeather", Duration.ofSeconds(2)), pool);
+
+            ToolExecutionResult result = manager.executeToolCalls(prompt(tools), response(
+                    call("1", "getWeather", "{\"city\": \"Delhi\"}"),
+                    call("2", "getWeather", "{\"city\": \"London\"}"),
+                    call("3", "getWeather", "{\"city\": \"Paris\"}"),
+                    call("4", "getWeather", "{\"city\": \"Tokyo\"}")));
+
+            responses(result).forEach(response -> assertEquals("\"getWeather done\"", response.responseData()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static ParallelToolCallingManager manager(List<ToolCallback> tools, Map<String, Duration> timeouts) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor();
+        executor.setVirtualThreads(true);
+        return manager(tools, timeouts, executor);
+    }
+
+    private static ParallelToolCallingManager manager(List<ToolCallback> tools, Map<String, Duration> timeouts,
+                                                      AsyncTaskExecutor executor) {
+        return new ParallelToolCallingManager(new StaticToolCallbackResolver(tools),
+                DefaultToolExecutionExceptionProcessor.builder().build(), executor, 8,
+                Duration.ofSeconds(10), timeouts, new SimpleMeterRegistry());
+    }
+
+    private static Prompt prompt(List<ToolCallback> tools) {
+        return new Prompt(new UserMessage("plan my trip"), ToolCallingChatOptions.builder().toolCallbacks(tools).build());
+    }
+
+    private static ChatResponse response(AssistantMessage.ToolCall... toolCalls) {
+        return new ChatResponse(List.of(new Generation(AssistantMessage.builder().content("").toolCalls(List.of(toolCalls)).build())));
+    }
+
+    private static AssistantMessage.ToolCall call(String id, String name, String arguments) {
+        return new AssistantMessage.ToolCall(id, "function", name, arguments);
+    }
+
+    private static List<ToolResponseMessage.ToolResponse> responses(ToolExecutionResult result) {
+        var history = result.conversationHistory();
+        return ((ToolResponseMessage) history.get(history.size() - 1)).getResponses();
+    }
+
+    static class SlowTool implements ToolCallback {
+
+        private final String name;
+        private final Duration latency;
+
+        SlowTool(String name, Duration latency) {
+            this.name = name;
+            this.latency = latency;
+        }
+
+        @Override
+        public ToolDefinition getToolDefinition() {
+            return ToolDefinition.builder().name(name).description(name).inputSchema("{}").build();
+        }
+
+        @Override
+        public String call(String toolInput) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "\"" + name + " done\"";
+        }
+    }
+
+    static class WriteTool extends SlowTool implements UserDataWrite {
+
+        final List<String> order = new ArrayList<>();
+        final AtomicInteger maxConcurrentPerUser = new AtomicInteger();
+        private final Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+
+        WriteTool(String name, Duration latency) {
+            super(name, latency);
+        }
+
+        @Override
+        public String writtenUserId(String toolInput, ToolContext toolContext) {
+            return toolInput.replaceAll(".*\"userId\": \"([^\"]+)\".*", "$1");
+        }
+
+        @Override
+        public String call(String toolInput) {
+            String userId = writtenUserId(toolInput, null);
+            AtomicInteger current = running.computeIfAbsent(userId, u -> new AtomicInteger());
+            maxConcurrentPerUser.accumulateAndGet(current.incrementAndGet(), Math::max);
+            try {
+                synchronized (order) {
+                    order.add(userId + " " + toolInput.replaceAll(".*\"destination\": \"([^\"]+)\".*", "$1"));
+                }
+                return super.call(toolInput);
+            } finally {
+                current.decrementAndGet();
+            }
+        }
+    }
+}
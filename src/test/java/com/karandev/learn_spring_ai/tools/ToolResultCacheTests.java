@@ -0,0 +1,122 @@
+package com.karandev.learn_spring_ai.tools;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.model.ToolContext;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.annotation.Tool;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// No spring context, the tools are stubs that count how often they really run.
+public class ToolResultCacheTests {
+
+    @Test
+    public void testRepeatedCallsAreMemoized() {
+        StubTools tools = new StubTools(Duration.ZERO);
+        ToolResultCache cache = new ToolResultCache(true, Duration.ofSeconds(30), 100);
+        ToolCallback bookings = find(cache.wrap(tools), "get_bookings");
+
+        ToolContext request = new ToolContext(cache.requestContext());
+        bookings.call("{\"userId\": \"user-1\"}", request);
+        bookings.call("{ \"userId\":\"user-1\" }", request);
+        bookings.call("{\"userId\": \"user-1\"}", new ToolContext(cache.requestContext()));
+
+        System.out.println(cache.stats());
+        assertEquals(1, tools.reads.get());
+        assertEquals(1, cache.stats().requestHits());
+        assertEquals(1, cache.stats().sharedHits());
+    }
+
+    @Test
+    public void testWriteInvalidatesTheUser() {
+        StubTools tools = new StubTools(Duration.ZERO);
+        ToolResultCache cache = new ToolResultCache(true, Duration.ofSeconds(30), 100);
+        ToolCallback[] callbacks = cache.wrap(tools);
+        ToolContext request = new ToolContext(cache.requestContext());
+
+        find(callbacks, "get_bookings").call("{\"userId\": \"user-1\"}", request);
+        find(callbacks, "get_bookings").call("{\"userId\": \"user-2\"}", request);
+        find(callbacks, "book").call("{\"userId\": \"user-1\"}", request);
+        String after = find(callbacks, "get_bookings").call("{\"userId\": \"user-1\"}", request);
+        find(callbacks, "get_bookings").call("{\"userId\": \"user-2\"}", request);
+
+        System.out.println(cache.stats());
+        assertEquals("\"user-1 has 1 bookings\"", after);
+        assertEquals(3, tools.reads.get());
+    }
+
+    @Test
+    public void testTheUserOfTheToolContextWins() {
+        StubTools tools = new StubTools(Duration.ZERO);
+        ToolResultCache cache = new ToolResultCache(true, Duration.ofSeconds(30), 100);
+        ToolCallback book = find(cache.wrap(tools), "book");
+
+        // the model named another user, the signed-in one is what counts
+        String written = ((UserDataWrite) book).writtenUserId("{\"userId\": \"someone-else\"}",
+                new ToolContext(cache.requestContext("user-1")));
+
+        assertEquals("user-1", written);
+    }
+
+    @Test
+    public void testConcurrentIdenticalCallsRunOnce() throws Exception {
+        StubTools tools = new StubTools(Duration.ofMillis(200));
+        ToolResultCache cache = new ToolResultCache(true, Duration.ofSeconds(30), 100);
+        ToolCallback bookings = find(cache.wrap(tools), "get_bookings");
+
+        List<Future<String>> results = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 50; i++) {
+                results.add(executor.submit(() -> bookings.call("{\"userId\": \"user-1\"}")));
+            }
+        }
+        for (Future<String> result : results) {
+            assertEquals("\"user-1 has 0 bookings\"", result.get());
+        }
+
+        System.out.println(cache.stats());
+        assertEquals(1, tools.reads.get());
+    }
+
+    private static ToolCallback find(ToolCallback[] callbacks, String name) {
+        return Arrays.stream(callbacks)
+                .filter(callback -> callback.getToolDefinition().name().equals(name))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    static class StubTools {
+
+        private final Duration latency;
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger bookings = new AtomicInteger();
+
+        StubTools(Duration latency) {
+            this.latency = latency;
+        }
+
+        @CacheableTool
+        @Tool(name = "get_bookings", description = "bookings of a user")
+        public String getBookings(String userId) throws InterruptedException {
+            reads.incrementAndGet();
+            Thread.sleep(latency);
+            return userId + " has " + bookings.get() + " bookings";
+        }
+
+        @EvictsToolCache
+        @Tool(name = "book", description = "book a flight")
+        public String book(String userId) {
+            bookings.incrementAndGet();
+            return "booked";
+        }
+    }
+}
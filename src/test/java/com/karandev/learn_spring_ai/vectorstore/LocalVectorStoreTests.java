@@ -0,0 +1,70 @@
+package com.karandev.learn_spring_ai.vectorstore;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+// Same searches against pgvector and the local index: latency of both and how many of pgvector's hits we return.
+@SpringBootTest
+public class LocalVectorStoreTests {
+
+    private static final List<String> QUESTIONS = List.of(
+            "What is a chat memory advisor?",
+            "How does the QuestionAnswerAdvisor work?",
+            "What is Spring AI?",
+            "How are documents split before they are embedded?",
+            "A team of people travel through a black hole.",
+            "Batman fights a criminal mastermind.");
+
+    @Autowired
+    private PgVectorStore pgVectorStore;
+
+    @Autowired
+    private LocalVectorStore localVectorStore;
+
+    @Test
+    public void compareWithPgVector() {
+        System.out.println("local index holds " + localVectorStore.size() + " documents");
+        compare(null);
+        compare("file_name == 'lec8.pdf'");
+    }
+
+    private void compare(String filter) {
+        long pgNanos = 0;
+        long localNanos = 0;
+        double recall = 0;
+        for (int round = 0; round < 5; round++) {
+            for (String question : QUESTIONS) {
+                SearchRequest.Builder builder = SearchRequest.builder().query(question).topK(4);
+                if (filter != null) {
+                    builder.filterExpression(filter);
+                }
+                SearchRequest request = builder.build();
+
+                long start = System.nanoTime();
+                List<Document> expected = pgVectorStore.similaritySearch(request);
+                pgNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                List<Document> actual = localVectorStore.similaritySearch(request);
+                localNanos += System.nanoTime() - start;
+
+                if (round == 0) {
+                    Set<String> expectedIds = expected.stream().map(Document::getId).collect(Collectors.toSet());
+                    recall += expected.isEmpty() ? 1
+                            : actual.stream().filter(d -> expectedIds.contains(d.getId())).count() / (double) expected.size();
+                }
+            }
+        }
+        int searches = 5 * QUESTIONS.size();
+        System.out.printf("filter %s: pgvector %.2f ms, local %.2f ms per search, recall vs pgvector %.3f%n", filter,
+                pgNanos / 1e6 / searches, localNanos / 1e6 / searches, recall / QUESTIONS.size());
+    }
+}
@@ -0,0 +1,93 @@
+package com.karandev.learn_spring_ai.vectorstore;
+
+import com.karandev.learn_spring_ai.vectorstore.RoutingVectorStore.Partition;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RoutingVectorStoreTests {
+
+    private final RecordingStore knowledge = new RecordingStore(0.5);
+    private final RecordingStore memory = new RecordingStore(0.9);
+    private final RecordingStore demo = new RecordingStore(0.7);
+
+    private final RoutingVectorStore store = new RoutingVectorStore(
+            Map.of(Partition.KNOWLEDGE, knowledge, Partition.MEMORY, memory, Partition.DEMO, demo),
+            Map.of(Partition.KNOWLEDGE, Set.of("file_name", "page_number"),
+                    Partition.MEMORY, Set.of("conversationId"),
+                    Partition.DEMO, Set.of("movieId", "docId")));
+
+    @Test
+    public void testWritesGoToThePartitionOwningAMetadataKey() {
+        store.add(List.of(
+                new Document("page", Map.of("file_name", "lec8.pdf")),
+                new Document("turn", Map.of("conversationId", "u1")),
+                new Document("movie", Map.of("movieId", "MOV_001")),
+                new Document("unknown", Map.of("source", "somewhere"))));
+
+        assertThat(knowledge.added).extracting(Document::getText).containsExactly("page", "unknown");
+        assertThat(memory.added).extracting(Document::getText).containsExactly("turn");
+        assertThat(demo.added).extracting(Document::getText).containsExactly("movie");
+    }
+
+    @Test
+    public void testSearchesGoToThePartitionsOfTheirFilter() {
+        store.similaritySearch(SearchRequest.builder().query("q").filterExpression("conversationId == 'u1'").build());
+        assertThat(memory.searches).isEqualTo(1);
+        assertThat(knowledge.searches + demo.searches).isZero();
+
+        store.similaritySearch(SearchRequest.builder().query("q")
+                .filterExpression("file_name == 'lec8.pdf' || docId == 'SPRING_AI_001'").build());
+        assertThat(knowledge.searches).isEqualTo(1);
+        assertThat(demo.searches).isEqualTo(1);
+        assertThat(memory.searches).isEqualTo(1);
+    }
+
+    @Test
+    public void testUnfilteredSearchesAreMergedByScore() {
+        List<Document> results = store.similaritySearch(SearchRequest.builder().query("q").topK(2).build());
+
+        assertThat(results).extracting(Document::getScore).containsExactly(0.9, 0.7);
+        assertThat(knowledge.searches + memory.searches + demo.searches).isEqualTo(3);
+    }
+
+    // one canned result per search, with a fixed score per store
+    private static class RecordingStore implements VectorStore {
+
+        private final double score;
+        private final List<Document> added = new ArrayList<>();
+        private int searches;
+
+        RecordingStore(double score) {
+            this.score = score;
+        }
+
+        @Override
+        public void add(List<Document> documents) {
+            added.addAll(documents);
+        }
+
+        @Override
+        public void delete(List<String> idList) {
+        }
+
+        @Override
+        public void delete(Filter.Expression filterExpression) {
+        }
+
+        @Override
+        public List<Document> similaritySearch(SearchRequest request) {
+            searches++;
+            return List.of(Document.builder().text("hit").score(score).build());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.karandev.learn_spring_ai.vectorstore;
+
+import com.karandev.learn_spring_ai.util.VectorMath;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// No database or model, random vectors written to a temporary snapshot.
+public class VectorSnapshotTests {
+
+    private static final int DIMENSIONS = 384;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testDocumentsSurviveTheRoundTrip() {
+        Path path = directory.resolve("snapshot.bin");
+        Document document = Document.builder()
+                .id("chunk-1")
+                .text("Advisors wrap the call to the model – ünïcödé included.")
+                .metadata(Map.of("file_name", "lec8.pdf", "page_number", 3))
+                .build();
+        VectorSnapshot.write(path, List.of(document), List.of(randomVector(new SplittableRandom(1))));
+
+        VectorSnapshot snapshot = VectorSnapshot.open(path);
+        assertThat(snapshot.size()).isEqualTo(1);
+        assertThat(snapshot.dimensions()).isEqualTo(DIMENSIONS);
+        assertThat(snapshot.id(0)).isEqualTo("chunk-1");
+        assertThat(snapshot.document(0).getText()).isEqualTo(document.getText());
+        assertThat(snapshot.metadata(0)).containsEntry("file_name", "lec8.pdf").containsEntry("page_number", 3);
+    }
+
+    @Test
+    public void testQuantizedSearchWithRerankMatchesExactSearch() {
+        SplittableRandom random = new SplittableRandom(42);
+        int count = 20_000;
+        List<Document> documents = new ArrayList<>(count);
+        List<float[]> vectors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            documents.add(new Document("doc-" + i, "chunk " + i, Map.of("page_number", i % 50)));
+            vectors.add(randomVector(random));
+        }
+        List<float[]> normalized = vectors.stream().map(VectorMath::normalize).toList();
+
+        Path path = directory.resolve("snapshot.bin");
+        long writeStart = System.nanoTime();
+        VectorSnapshot.write(path, documents, vectors);
+        long openStart = System.nanoTime();
+        VectorSnapshot snapshot = VectorSnapshot.open(path);
+        long opened = System.nanoTime();
+
+        int queries = 100;
+        double recall = 0;
+        long searchNanos = 0;
+        for (int q = 0; q < queries; q++) {
+            float[] query = randomVector(random);
+            Set<Integer> expected = exactTopK(normalized, query, 10);
+            long start = System.nanoTime();
+            var actual = snapshot.search(query, 10, 50, null);
+            searchNanos += System.nanoTime() - start;
+            recall += actual.stream().filter(hit -> expected.contains(hit.node())).count() / 10.0;
+        }
+        recall /= queries;
+
+        System.out.printf("write %d ms, open %.2f ms, search %.2f ms, recall@10 %.3f (%d x %d)%n",
+                (openStart - writeStart) / 1_000_000, (opened - openStart) / 1e6, searchNanos / 1e6 / queries,
+                recall, count, DIMENSIONS);
+        assertThat(recall).isGreaterThan(0.95);
+    }
+
+    @Test
+    public void testRejectedNodesAreSkipped() {
+        SplittableRandom random = new SplittableRandom(7);
+        List<Document> documents = new ArrayList<>();
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            documents.add(new Document("doc-" + i, "chunk " + i, Map.of()));
+            vectors.add(randomVector(random));
+        }
+        Path path = directory.resolve("snapshot.bin");
+        VectorSnapshot.write(path, documents, vectors);
+
+        // the first vector is its own nearest neighbour, unless it is filtered out
+        var hits = VectorSnapshot.open(path).search(vectors.getFirst(), 5, 20, node -> node != 0);
+        assertThat(hits).hasSize(5).noneMatch(hit -> hit.node() == 0);
+        assertThat(VectorSnapshot.open(path).search(vectors.getFirst(), 1, 20, null).getFirst().node()).isZero();
+    }
+
+    // brute force, the reference for recall
+    private static Set<Integer> exactTopK(List<float[]> normalized, float[] query, int k) {
+        float[] q = VectorMath.normalize(query);
+        float[] scores = new float[normalized.size()];
+        for (int node = 0; node < scores.length; node++) {
+            scores[node] = VectorMath.dot(q, normalized.get(node));
+        }
+        return IntStream.range(0, scores.length).boxed()
+                .sorted(Comparator.comparingDouble((Integer node) -> scores[node]).reversed())
+                .limit(k)
+                .collect(Collectors.toSet());
+    }
+
+    private static float[] randomVector(SplittableRandom random) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) {
+            vector[i] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+}